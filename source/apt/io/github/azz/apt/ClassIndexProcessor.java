@@ -0,0 +1,221 @@
+/* ****************************************************************************************************************** *
+ * ClassIndexProcessor.java                                                                                           *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.apt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor writing, at compile time, the class indexes read at runtime by io.github.azz.util.ClassIndex,
+ * 	so boot doesn't need to scan the classpath (and load every class found) looking for:
+ * <ul>
+ * <li>Data access interfaces (i.e. interfaces extending DaInterface), listed in index 
+ * 	"io.github.azz.sql.DaInterface".</li>
+ * <li>Data access implementation classes for every database engine (i.e. classes implementing both DaInterface and
+ * 	the engine interface), listed in index "io.github.azz.sql.DaInterface@ENGINE" (e.g. "...DaInterface@HSQLDB").</li>
+ * <li>Scheduled tasks (i.e. classes extending Schedulable), listed in index "io.github.azz.util.Schedulable".</li>
+ * </ul>
+ * Indexes are written as resources under META-INF/skel-app/ in the class output directory, one class name per line.
+ * 	The processor handles incremental builds: entries from a previous build are kept as long as their classes still
+ * 	exist and weren't recompiled.
+ * 	<br/><br/>
+ * This processor is compiled apart, before the application (see the compile-apt target in build.xml), as it can't 
+ * 	depend on application classes: these are referred to by name.
+ * @author a-zz
+ */
+@SupportedAnnotationTypes("*")
+public class ClassIndexProcessor extends AbstractProcessor {
+
+	// -- Must be kept in sync with io.github.azz.util.ClassIndex
+	private static final String INDEX_PATH = "META-INF/skel-app/";
+	
+	private static final String DA_INTERFACE = "io.github.azz.sql.DaInterface";
+	private static final String ENGINE_INTERFACE_PACKAGE = "io.github.azz.sql.rdbms";
+	private static final String ENGINE_INTERFACE_SUFFIX = "Interface";
+	private static final String SCHEDULABLE = "io.github.azz.util.Schedulable";
+	
+	private TreeMap<String,TreeSet<String>> indexes = new TreeMap<String,TreeSet<String>>();
+	private HashSet<String> compiledClasses = new HashSet<String>();
+	
+	public SourceVersion getSupportedSourceVersion() {
+		
+		return SourceVersion.latestSupported();
+	}
+	
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		
+		if(roundEnv.processingOver())
+			writeIndexes();
+		else {
+			for(Element element : roundEnv.getRootElements())
+				if(element instanceof TypeElement)
+					indexType((TypeElement)element);
+		}
+		
+		// Annotations are not claimed, so other processors can deal with them
+		return false;
+	}
+	
+	private void indexType(TypeElement type) {
+		
+		String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+		compiledClasses.add(className);
+		
+		boolean concrete = type.getKind()==ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT);
+		if(isSubtype(type, DA_INTERFACE)) {
+			if(type.getKind()==ElementKind.INTERFACE)
+				index(DA_INTERFACE, className);
+			else if(concrete) {
+				for(String engine : getEngines(type))
+					index(DA_INTERFACE + "@" + engine, className);
+			}
+		}
+		if(concrete && isSubtype(type, SCHEDULABLE))
+			index(SCHEDULABLE, className);
+		
+		// Member types
+		for(Element member : type.getEnclosedElements())
+			if(member instanceof TypeElement)
+				indexType((TypeElement)member);
+	}
+	
+	private boolean isSubtype(TypeElement type, String superTypeName) {
+		
+		TypeElement superType = processingEnv.getElementUtils().getTypeElement(superTypeName);
+		if(superType==null || type.getQualifiedName().contentEquals(superTypeName))
+			return false;
+		return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()),
+				processingEnv.getTypeUtils().erasure(superType.asType()));
+	}
+	
+	private Set<String> getEngines(TypeElement type) {
+		
+		TreeSet<String> engines = new TreeSet<String>();
+		for(String engineInterface : getEngineInterfaces())
+			if(isSubtype(type, engineInterface))
+				engines.add(getEngineName(engineInterface));
+		return engines;
+	}
+	
+	private static String getEngineName(String engineInterface) {
+		
+		// E.g. io.github.azz.sql.rdbms.HSQLDBInterface -> HSQLDB
+		return engineInterface.substring(ENGINE_INTERFACE_PACKAGE.length() + 1, 
+				engineInterface.length() - ENGINE_INTERFACE_SUFFIX.length());
+	}
+	
+	private List<String> getEngineInterfaces() {
+		
+		ArrayList<String> engineInterfaces = new ArrayList<String>();
+		PackageElement enginePackage = processingEnv.getElementUtils().getPackageElement(ENGINE_INTERFACE_PACKAGE);
+		if(enginePackage!=null) {
+			for(Element element : enginePackage.getEnclosedElements())
+				if(element.getKind()==ElementKind.INTERFACE && 
+						element.getSimpleName().toString().endsWith(ENGINE_INTERFACE_SUFFIX))
+					engineInterfaces.add(((TypeElement)element).getQualifiedName().toString());
+		}
+		return engineInterfaces;
+	}
+	
+	private void index(String indexName, String className) {
+		
+		getIndex(indexName).add(className);
+	}
+	
+	private TreeSet<String> getIndex(String indexName) {
+		
+		TreeSet<String> index = indexes.get(indexName);
+		if(index==null) {
+			index = new TreeSet<String>();
+			indexes.put(indexName, index);
+		}
+		return index;
+	}
+	
+	private void writeIndexes() {
+		
+		// Every index is written, even if empty: an empty index is still an answer at runtime
+		getIndex(DA_INTERFACE);
+		getIndex(SCHEDULABLE);
+		for(String engineInterface : getEngineInterfaces())
+			getIndex(DA_INTERFACE + "@" + getEngineName(engineInterface));
+		
+		for(Map.Entry<String,TreeSet<String>> index : indexes.entrySet()) {
+			TreeSet<String> classNames = index.getValue();
+			classNames.addAll(readPreviousEntries(index.getKey()));
+			try {
+				FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", 
+						INDEX_PATH + index.getKey());
+				PrintWriter writer = new PrintWriter(resource.openWriter());
+				try {
+					writer.println("# Generated by " + ClassIndexProcessor.class.getName() + "; don't edit");
+					for(String className : classNames)
+						writer.println(className);
+				}
+				finally {
+					writer.close();
+				}
+			}
+			catch(IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, 
+						"Class index " + index.getKey() + " couldn't be written: " + e.getMessage());
+			}
+		}
+	}
+	
+	private Set<String> readPreviousEntries(String indexName) {
+		
+		TreeSet<String> entries = new TreeSet<String>();
+		try {
+			FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", 
+					INDEX_PATH + indexName);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openInputStream(), 
+					StandardCharsets.UTF_8));
+			try {
+				String line;
+				while((line = reader.readLine())!=null) {
+					line = line.trim();
+					if(line.isEmpty() || line.startsWith("#") || compiledClasses.contains(line))
+						continue;
+					// Kept only if the class still exists (i.e. it wasn't deleted since the previous build)
+					if(processingEnv.getElementUtils().getTypeElement(line.replace('$', '.'))!=null)
+						entries.add(line);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch(IOException e) {
+			// No previous build, nothing to keep
+		}
+		return entries;
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -6,10 +6,12 @@
 package io.github.azz.config;
 
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 import io.github.azz.config.da.AppConfigurationDaInterface;
 import io.github.azz.logging.AppLogger;
 import io.github.azz.sql.DaInterface;
+import io.github.azz.sql.SqlAsync;
 import io.github.azz.sql.SqlTransaction;
 
 /**
@@ -68,6 +70,16 @@ public class AppConfiguration {
 		return value;
 	}	
 		
+	/**
+	 * Gets a property value asynchronously (see SqlAsync).
+	 * @param key (String) The property key
+	 * @return (CompletableFuture<String>) The property value. null if the property doesn't exist.
+	 */
+	public static CompletableFuture<String> getPropertyAsync(final String key) {
+		
+		return SqlAsync.call(() -> getProperty(key));
+	}
+		
 	/**
 	 * Sets a property. If the property doesn't previously exists, it's created on the fly.
 	 * @param key (String) The property key.
@@ -94,6 +106,20 @@ public class AppConfiguration {
 		logger.trace("Property " + key + " set");
 	}
 	
+	/**
+	 * Sets a property asynchronously (see SqlAsync). If the property doesn't previously exists, it's created on the fly.
+	 * @param key (String) The property key.
+	 * @param value (String) The property value. null values are not allowed (but empty strings are).
+	 * @return (CompletableFuture<Void>) Completed when the property is set.
+	 */
+	public static CompletableFuture<Void> setPropertyAsync(final String key, final String value) {
+		
+		return SqlAsync.call(() -> {
+			setProperty(key, value);
+			return null;
+		});
+	}
+	
 	/**
 	 * Deletes a property
 	 * @param key (String) The property key
@@ -116,4 +142,17 @@ public class AppConfiguration {
 		dao.deleteProperty(key, t);
 		logger.trace("Property " + key + " deleted");
 	}	
+	
+	/**
+	 * Deletes a property asynchronously (see SqlAsync).
+	 * @param key (String) The property key
+	 * @return (CompletableFuture<Void>) Completed when the property is deleted.
+	 */
+	public static CompletableFuture<Void> deletePropertyAsync(final String key) {
+		
+		return SqlAsync.call(() -> {
+			deleteProperty(key);
+			return null;
+		});
+	}
 }
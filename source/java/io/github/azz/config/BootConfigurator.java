@@ -7,6 +7,10 @@ package io.github.azz.config;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -23,8 +27,15 @@ import io.github.azz.util.Scheduler;
  * <li>Initialize the logging utility (from WEB-INF/log4j2.xml file)</li>
  * <li>Initialize the local configuration container (from WEB-INF/local.properties file)</li>
  * <li>Initialize (and shutdown) the database management facility</li>
+ * <li>Check whether we're in production or test mode</li>
+ * <li>Check whether database support is complete</li>
  * <li>Initialize (and shutdown) the task scheduler</li>
  * </ol>
+ * Steps are run as a dependency graph of boot phases (see BootPhases), so independent ones run in parallel: task 
+ * 	class discovery runs alongside steps 2 to 5, and database implementations are looked up (step 5) while the 
+ * 	database is initialized, just enforced once the mode is known. The duration of every phase is logged and kept, 
+ * 	see getPhaseDurations().
+ * 	<br/><br/>
  * Execution is launched at boot as a web application listener, as defined in WEB-INF/web.xml
  * @author a-zz
  */
@@ -32,95 +43,168 @@ public class BootConfigurator  implements ServletContextListener {
 
 	private static final String log4j2ConfigPath = "WEB-INF/log4j2.xml";
 	private static final String localPropertiesPath = "WEB-INF/local.properties";
+	private static final int bootParallelism = 3;
 	
-	public void contextInitialized(ServletContextEvent sce) {
+	private static volatile Map<String,Long> phaseDurations = new LinkedHashMap<String,Long>();
+	private static volatile long bootTime = 0;
+	
+	private AppLogger logger;
+	private volatile boolean testMode = true;
+	private volatile RdbmsSupport.EnumDatabaseEngines databaseEngine;
+	private volatile List<String> implMissing;
+	
+	public void contextInitialized(final ServletContextEvent sce) {
+		
+		long started = System.nanoTime();
+		BootPhases phases = new BootPhases(bootParallelism);
 		
 		// 1. Initialize the logging utility
-		AppLogger logger;
-		try {
-			String greeting = "\n" +
-					"                  _  _\n" +
-					"            ___ (~ )( ~)      _        _\n" +
-					"           /   \\_\\ \\/ /   ___| | _ ___| |     ___ ___ ___\n" +
-					"          |   D_ ]\\ \\/   /  _| |/ / _ \\ | ___ \\_ \\ _ \\ _ \\\n" +
-					"          |   D _]/\\ \\   \\ _ \\   \\  __/ |/__// _ |  _/  _/\n" +
-					"           \\___/ / /\\ \\  /___/_|\\_\\___|_|    \\___| | | |\n" +
-					"                (_ )( _)                         |_| |_| is starting...\n" +
-					"                  ~  ~                                                 ";
-			AppLogManager.initialize(sce.getServletContext().getRealPath(log4j2ConfigPath), greeting);
-			logger = new AppLogger(BootConfigurator.class);
-		}
-		catch(Exception e) {
-			throw new RuntimeException("Unable to initialize logging utility: " + e.getMessage());
-		}
+		phases.add("logging", () -> {
+			try {
+				String greeting = "\n" +
+						"                  _  _\n" +
+						"            ___ (~ )( ~)      _        _\n" +
+						"           /   \\_\\ \\/ /   ___| | _ ___| |     ___ ___ ___\n" +
+						"          |   D_ ]\\ \\/   /  _| |/ / _ \\ | ___ \\_ \\ _ \\ _ \\\n" +
+						"          |   D _]/\\ \\   \\ _ \\   \\  __/ |/__// _ |  _/  _/\n" +
+						"           \\___/ / /\\ \\  /___/_|\\_\\___|_|    \\___| | | |\n" +
+						"                (_ )( _)                         |_| |_| is starting...\n" +
+						"                  ~  ~                                                 ";
+				AppLogManager.initialize(sce.getServletContext().getRealPath(log4j2ConfigPath), greeting);
+				logger = new AppLogger(BootConfigurator.class);
+			}
+			catch(Exception e) {
+				throw new RuntimeException("Unable to initialize logging utility: " + e.getMessage());
+			}
+		});
 		
 		// 2. Initialize the local configuration container
-		try {
-			LocalConfiguration.initialize(sce.getServletContext().getRealPath(localPropertiesPath));
-		}
-		catch(IOException e) {
-			String message = "Can't read local properties file: " + e.getMessage();
-			logger.fatal(message);
-			throw new RuntimeException(message);
-		}
+		phases.add("localConfiguration", () -> {
+			try {
+				LocalConfiguration.initialize(sce.getServletContext().getRealPath(localPropertiesPath));
+			}
+			catch(IOException e) {
+				String message = "Can't read local properties file: " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+		}, "logging");
 
 		// 3. Initialize the database management facility
-		try {
-			DbManager.initialize();
-		}
-		catch(Exception e) {
-			String message = "Unable to initialize the database management facility: " + e.getMessage();
-			logger.fatal(message);
-			throw new RuntimeException(message);
-		}
+		phases.add("database", () -> {
+			try {
+				DbManager.initialize();
+			}
+			catch(Exception e) {
+				String message = "Unable to initialize the database management facility: " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+		}, "localConfiguration");
 
 		// 4. Check wether we're in production or test mode (if app property "app.production" is set, whichever its
 		//	value, we're in production mode)
-		boolean testMode = true; 
-		try {
-			testMode = (AppConfiguration.getProperty("app.production")==null);
-		}
-		catch(SQLException e) {
-			String message = "Unable to read application configuration properties: " + e.getMessage();
-			logger.fatal(message);
-			throw new RuntimeException();
-		}
+		phases.add("productionMode", () -> {
+			try {
+				testMode = (AppConfiguration.getProperty("app.production")==null);
+			}
+			catch(SQLException e) {
+				String message = "Unable to read application configuration properties: " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+		}, "database");
 		
-		// 5. Check wether database support is complete
-		try {
-			RdbmsSupport.checkImplementation(DbManager.getDatabaseEngine(), !testMode);
-		}
-		catch(IOException e) {
-			String message = "Unable to check database engine support (weird!): " + e.getMessage();
-			logger.fatal(message);
-			throw new RuntimeException();
-		}
-		catch(ClassNotFoundException e) {
-			String message = "Unable to check database engine support (weird!): " + e.getMessage();
-			logger.fatal(message);
-			throw new RuntimeException();
-		}
-		catch(UnsupportedOperationException e) {
-			logger.fatal(e.getMessage());
-			throw new RuntimeException();
-		}
+		// 5. Check wether database support is complete: the engine is known from the local configuration, so the 
+		//	(reflective) lookup doesn't wait for the database; whether to enforce it depends on the mode, though
+		phases.add("implementationScan", () -> {
+			try {
+				databaseEngine = RdbmsSupport.registerDriver(LocalConfiguration.getProperty("db.url"));
+				implMissing = RdbmsSupport.getMissingImplementations(databaseEngine);
+			}
+			catch(IOException e) {
+				String message = "Unable to check database engine support (weird!): " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+			catch(ClassNotFoundException e) {
+				String message = "Unable to check database engine support (weird!): " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+			catch(UnsupportedOperationException e) {
+				logger.fatal(e.getMessage());
+				throw new RuntimeException(e.getMessage());
+			}
+		}, "localConfiguration");
+		phases.add("implementationCheck", () -> {
+			try {
+				RdbmsSupport.checkImplementation(databaseEngine, implMissing, !testMode);
+			}
+			catch(UnsupportedOperationException e) {
+				logger.fatal(e.getMessage());
+				throw new RuntimeException(e.getMessage());
+			}
+		}, "implementationScan", "productionMode");
+		
+		// 6. Initialize the scheduler: task classes are looked up as soon as logging is ready, as it doesn't need the
+		//	database; tasks are scheduled once the application is known to be good to go
+		phases.add("schedulerDiscovery", () -> {
+			try {
+				Scheduler.discover();
+			}
+			catch(Exception e) {
+				String message = "Unable to look up scheduled tasks: " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+		}, "logging");
+		phases.add("scheduler", () -> {
+			try {
+				Scheduler.initialize();
+			}
+			catch(Exception e) {
+				String message = "Unable to initialize task scheduler: " + e.getMessage();
+				logger.fatal(message);
+				throw new RuntimeException(message);
+			}
+		}, "implementationCheck", "schedulerDiscovery");
 		
-		// 6. Initialize the scheduler
 		try {
-			Scheduler.initialize();
+			phases.await();
 		}
-		catch(Exception e) {
-			logger.fatal("Unable to initialize task scheduler: " + e.getMessage());
-			throw new RuntimeException();
+		finally {
+			phaseDurations = phases.getDurations();
+			bootTime = (System.nanoTime() - started) / 1000000;
 		}
 		
 		// All done
 		logger.info("\\o/ --> " + sce.getServletContext().getServletContextName() + " up and running! <-- \\o/");
+		logger.info("Boot took " + bootTime + "ms; per phase (ms): " + phaseDurations);
 		if(testMode) 
 			logger.warn("Currently running in ***TEST*** mode!!! (set application property app.production to any " +
 					"value to change into production mode)");
 	}
 	
+	/**
+	 * Returns the duration of every boot phase run, in completion order. Phases are: logging, localConfiguration, 
+	 * 	database, productionMode, implementationScan, implementationCheck, schedulerDiscovery and scheduler.
+	 * @return (Map<String,Long>) Durations in millis, keyed by phase name. Empty if the application wasn't booted yet.
+	 */
+	public static Map<String,Long> getPhaseDurations() {
+		
+		return Collections.unmodifiableMap(phaseDurations);
+	}
+	
+	/**
+	 * Returns the overall boot time (wall-clock time, not the sum of phase durations as some of them run in parallel).
+	 * @return (long) Time in millis; 0 if the application wasn't booted yet.
+	 */
+	public static long getBootTime() {
+		
+		return bootTime;
+	}
+	
 	public void contextDestroyed(ServletContextEvent sce) {
 		
 		// Shutdown task scheduler
@@ -0,0 +1,136 @@
+/* ****************************************************************************************************************** *
+ * BootPhases.java                                                                                                    *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A dependency graph of boot phases. Every phase starts as soon as all of its dependencies are done, so independent
+ * 	phases run in parallel. The duration of every phase is recorded.
+ * 	<br/><br/>
+ * If a phase fails, phases depending on it (directly or not) aren't run, and the failure is reported by await().
+ * @author a-zz
+ * @see BootConfigurator
+ */
+class BootPhases {
+	
+	/**
+	 * A boot phase action
+	 */
+	@FunctionalInterface
+	interface Phase {
+		
+		void run() throws Exception;
+	}
+	
+	private ExecutorService executor;
+	private LinkedHashMap<String,CompletableFuture<Void>> phases = new LinkedHashMap<String,CompletableFuture<Void>>();
+	private Map<String,Long> durations = Collections.synchronizedMap(new LinkedHashMap<String,Long>());
+	
+	/**
+	 * Constructor: creates an empty graph.
+	 * @param parallelism (int) Maximum number of phases run at the same time.
+	 */
+	BootPhases(int parallelism) {
+		
+		final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Boot phase #" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				// Classes and resources must be looked up as in the booting thread (i.e. the web application's)
+				thread.setContextClassLoader(contextClassLoader);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Adds a phase to the graph. It's started right away if it has no dependencies.
+	 * @param name (String) The phase name, unique within the graph.
+	 * @param phase (Phase) The phase action. Exceptions thrown fail the phase (and the whole boot).
+	 * @param dependencies (String...) Names of phases that must be done before this one starts. They must have been
+	 * 	added before.
+	 */
+	void add(final String name, final Phase phase, String... dependencies) {
+		
+		if(phases.containsKey(name))
+			throw new IllegalArgumentException("Boot phase " + name + " already defined");
+		
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		CompletableFuture<Void>[] dependencyFutures = new CompletableFuture[dependencies.length];
+		for(int i=0; i<dependencies.length; i++) {
+			dependencyFutures[i] = phases.get(dependencies[i]);
+			if(dependencyFutures[i]==null)
+				throw new IllegalArgumentException("Boot phase " + name + " depends on unknown phase " + 
+						dependencies[i]);
+		}
+		
+		phases.put(name, CompletableFuture.allOf(dependencyFutures).thenRunAsync(new Runnable() {
+			public void run() {
+				long started = System.nanoTime();
+				try {
+					phase.run();
+				}
+				catch(RuntimeException e) {
+					throw e;
+				}
+				catch(Exception e) {
+					throw new CompletionException(e);
+				}
+				finally {
+					durations.put(name, (System.nanoTime() - started) / 1000000);
+				}
+			}
+		}, executor));
+	}
+	
+	/**
+	 * Waits for every phase to be done, and releases the threads used.
+	 * @throws RuntimeException The first failure found (in phase addition order), if any.
+	 */
+	void await() {
+		
+		try {
+			RuntimeException failure = null;
+			for(CompletableFuture<Void> phase : phases.values()) {
+				try {
+					phase.join();
+				}
+				catch(CompletionException e) {
+					if(failure==null)
+						failure = e.getCause() instanceof RuntimeException?(RuntimeException)e.getCause():e;
+				}
+			}
+			if(failure!=null)
+				throw failure;
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Returns the duration of every phase run (failed ones included), in completion order.
+	 * @return (Map<String,Long>) Durations in millis, keyed by phase name.
+	 */
+	Map<String,Long> getDurations() {
+		
+		synchronized(durations) {
+			return new LinkedHashMap<String,Long>(durations);
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
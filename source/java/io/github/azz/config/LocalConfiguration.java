@@ -53,7 +53,50 @@ public class LocalConfiguration {
 		checkTimeStampAndReload();
 		return p.getProperty(key);
 	}
-	
+
+	/**
+	 * Searches for a property with the specified key and return its value, falling back to a default value.
+	 * @param key (String) The key to look for.
+	 * @param defaultValue (String) The value returned if the property is not found or it's empty.
+	 * @return (String) The property value (trimmed); defaultValue if it's not found or empty.
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static String getProperty(String key, String defaultValue) throws FileNotFoundException, IOException {
+
+		String value = getProperty(key);
+		return (value==null || value.trim().equals(""))?defaultValue:value.trim();
+	}
+
+	/**
+	 * Searches for an integer property with the specified key and return its value, falling back to a default value.
+	 * @param key (String) The key to look for.
+	 * @param defaultValue (int) The value returned if the property is not found or it's empty.
+	 * @return (int)
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws NumberFormatException If the property value is not an integer.
+	 */
+	public static int getIntProperty(String key, int defaultValue) throws FileNotFoundException, IOException {
+
+		return Integer.parseInt(getProperty(key, Integer.toString(defaultValue)));
+	}
+
+	/**
+	 * Searches for a long integer property with the specified key and return its value, falling back to a default
+	 * 	value.
+	 * @param key (String) The key to look for.
+	 * @param defaultValue (long) The value returned if the property is not found or it's empty.
+	 * @return (long)
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws NumberFormatException If the property value is not a long integer.
+	 */
+	public static long getLongProperty(String key, long defaultValue) throws FileNotFoundException, IOException {
+
+		return Long.parseLong(getProperty(key, Long.toString(defaultValue)));
+	}
+
 	private static void checkTimeStampAndReload() throws FileNotFoundException, IOException {
 		
 		AppLogger logger = new AppLogger(LocalConfiguration.class);
@@ -7,9 +7,9 @@ package io.github.azz.config.da;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 
 import io.github.azz.sql.DbReplicator;
+import io.github.azz.sql.SqlParameters;
 import io.github.azz.sql.SqlTransaction;
 import io.github.azz.sql.rdbms.HSQLDBInterface;
 
@@ -37,11 +37,12 @@ public class AppConfigurationHSQLDB implements AppConfigurationDaInterface, HSQL
 	
 	public String getProperty(String key, SqlTransaction t) throws SQLException {
 		
-		ResultSet rs = t.query("select UUID, VALUE from PROPERTIES where KEY='" + key + "'");
+		ResultSet rs = t.query("select UUID, VALUE from PROPERTIES where KEY=?", new SqlParameters(1).setString(1, key));
 		if(!rs.next())
 			return null;
 		else {
-			t.statement("update PROPERTIES set READ=localtimestamp where UUID='" + rs.getString("UUID") + "'");
+			t.preparedStatement("update PROPERTIES set READ=localtimestamp where UUID=?", 
+					new SqlParameters(1).setString(1, rs.getString("UUID")));
 			return rs.getString("VALUE");
 		}
 	}
@@ -64,23 +65,20 @@ public class AppConfigurationHSQLDB implements AppConfigurationDaInterface, HSQL
 	
 	public void setProperty(String key, String value, SqlTransaction t) throws SQLException {
 		
-		ArrayList<Object> values = new ArrayList<Object>();
-		values.add(value);
-		
 		// First try to update the property
+		SqlParameters params = new SqlParameters(3).setString(1, value).setString(2, key);
 		int rows = t.preparedStatement("update PROPERTIES "
 				+ "set VALUE=?, "
 				+ "MODIFIED=localtimestamp "
-				+ "where KEY='" + key + "'"
-				, values);
+				+ "where KEY=?"
+				, params);
 		if(rows==1) 
 			return;
 		
 		// No rows affected: property doesn't exist: creating now
-		t.preparedStatement("insert into PROPERTIES (UUID, KEY, VALUE, CREATED, MODIFIED) values ("
-				+ "'" + DbReplicator.getUUID() + "', "
-				+ "'" + key + "', "
-				+ "?, localtimestamp, localtimestamp)", values);		
+		params.clear().setString(1, DbReplicator.getUUID()).setString(2, key).setString(3, value);
+		t.preparedStatement("insert into PROPERTIES (UUID, KEY, VALUE, CREATED, MODIFIED) values "
+				+ "(?, ?, ?, localtimestamp, localtimestamp)", params);		
 	}
 	
 	public void deleteProperty(String key) throws SQLException {
@@ -101,7 +99,7 @@ public class AppConfigurationHSQLDB implements AppConfigurationDaInterface, HSQL
 	
 	public void deleteProperty(String key, SqlTransaction t) throws SQLException {
 		
-		t.statement("delete from PROPERTIES where key='" + key + "'");
+		t.preparedStatement("delete from PROPERTIES where KEY=?", new SqlParameters(1).setString(1, key));
 	}
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
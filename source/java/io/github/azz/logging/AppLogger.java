@@ -18,6 +18,8 @@ import org.apache.logging.log4j.Logger;
  */
 public class AppLogger {
 
+	private static final Level SQL = Level.forName("SQL", 550);
+	
 	private String sessionInfo;
 	private Logger logger;
 	
@@ -57,9 +59,19 @@ public class AppLogger {
 	 */
 	public void sql(String message) {
 	
-		logger.log(Level.forName("SQL", 550), "{" + sessionInfo + "} " + message);
+		logger.log(SQL, "{" + sessionInfo + "} " + message);
 	}  
 	
+	/**
+	 * Checks whether messages with SQL level are actually logged, so costly messages can be skipped altogether 
+	 * 	otherwise.
+	 * @return (boolean)
+	 */
+	public boolean isSqlEnabled() {
+		
+		return logger.isEnabled(SQL);
+	}
+	
 	/**
 	 * Logs a message with DEBUG level
 	 * @param message (String) The message to log
@@ -0,0 +1,325 @@
+/* ****************************************************************************************************************** *
+ * BeanRowMapper.java                                                                                                 *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps query result rows into objects of a class, matching columns to properties by name: case is ignored, as well as
+ * 	underscores (e.g. column CREATED_AT is mapped into property createdAt). Columns with no matching property are
+ * 	ignored, and properties with no matching column are left to their defaults. Supported classes are:
+ * <ul>
+ * <li>JavaBeans / POJOs: a public no-arg constructor is required; properties are set through public setters or, 
+ * 	failing that, public non-final fields.</li>
+ * <li>Records (Java 16 or higher): rows are mapped through the canonical constructor.</li>
+ * </ul>
+ * Supported property types are primitives and their wrappers, String, BigDecimal, Timestamp, java.util.Date, Instant,
+ * 	LocalDateTime, LocalDate, byte[] and UUID (from either binary or string columns); other types are read with 
+ * 	ResultSet.getObject().
+ * 	<br/><br/>
+ * Reflection is only used once per mapped class (its analysis is cached and shared); properties are then accessed 
+ * 	through method handles. Column names are resolved once per result set, so rows are read by column index. Thus, a
+ * 	mapper instance keeps state about the result set being mapped, and mustn't be shared between threads; as it's 
+ * 	cheap to create, it's advisable to create one per query. E.g.
+ * <pre>
+ * List&lt;Property&gt; props = t.query("select * from PROPERTIES", BeanRowMapper.of(Property.class));
+ * </pre>
+ * @author a-zz
+ * @see SqlTransaction#query(String, RowMapper)
+ * @see SqlTransaction#stream(String, RowMapper)
+ */
+public class BeanRowMapper<T> implements RowMapper<T> {
+
+	// -- Mapped class analysis, shared by every mapper for the class
+	private static ConcurrentHashMap<Class<?>,ClassMapping> mappings = new ConcurrentHashMap<Class<?>,ClassMapping>();
+	
+	private ClassMapping mapping;
+	
+	// -- Result set currently bound: mapped property and column index for every mapped column
+	private ResultSet boundRs;
+	private Property[] boundProperties;
+	private int[] boundColumns;
+	
+	/**
+	 * Creates a row mapper for a class.
+	 * @param clazz (Class<T>) The class rows are mapped into.
+	 * @return (BeanRowMapper<T>)
+	 * @throws IllegalArgumentException If the class can't be mapped (e.g. it's neither a record nor has a public 
+	 * 	no-arg constructor).
+	 */
+	public static <T> BeanRowMapper<T> of(Class<T> clazz) {
+		
+		return new BeanRowMapper<T>(clazz);
+	}
+	
+	/**
+	 * Constructor: creates a row mapper for a class.
+	 * @param clazz (Class<T>) The class rows are mapped into.
+	 * @throws IllegalArgumentException If the class can't be mapped (e.g. it's neither a record nor has a public 
+	 * 	no-arg constructor).
+	 */
+	public BeanRowMapper(Class<T> clazz) {
+		
+		ClassMapping mapping = mappings.get(clazz);
+		if(mapping==null) {
+			mapping = new ClassMapping(clazz);
+			mappings.putIfAbsent(clazz, mapping);
+		}
+		this.mapping = mapping;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T map(ResultSet rs) throws SQLException {
+		
+		if(rs!=boundRs)
+			bind(rs);
+		
+		try {
+			if(mapping.recordConstructor!=null) {
+				Object[] args = mapping.defaultArgs.clone();
+				for(int i=0; i<boundProperties.length; i++) {
+					Object value = boundProperties[i].reader.read(rs, boundColumns[i]);
+					if(value!=null)
+						args[boundProperties[i].position] = value;
+				}
+				return (T)mapping.recordConstructor.invokeExact(args);
+			}
+			else {
+				Object bean = mapping.constructor.invokeExact();
+				for(int i=0; i<boundProperties.length; i++) {
+					Object value = boundProperties[i].reader.read(rs, boundColumns[i]);
+					// Nulls aren't set into primitives, which keep their default
+					if(value!=null || !boundProperties[i].type.isPrimitive())
+						boundProperties[i].setter.invokeExact(bean, value);
+				}
+				return (T)bean;
+			}
+		}
+		catch(SQLException e) {
+			throw e;
+		}
+		catch(Throwable e) {
+			throw new SQLException("Row couldn't be mapped into " + mapping.clazz.getName() + ": " + e, e);
+		}
+	}
+	
+	private void bind(ResultSet rs) throws SQLException {
+		
+		ResultSetMetaData metaData = rs.getMetaData();
+		int columnCount = metaData.getColumnCount();
+		Property[] properties = new Property[columnCount];
+		int[] columns = new int[columnCount];
+		int bound = 0;
+		for(int column=1; column<=columnCount; column++) {
+			Property property = mapping.properties.get(normalize(metaData.getColumnLabel(column)));
+			if(property!=null) {
+				properties[bound] = property;
+				columns[bound] = column;
+				bound++;
+			}
+		}
+		
+		boundProperties = new Property[bound];
+		boundColumns = new int[bound];
+		System.arraycopy(properties, 0, boundProperties, 0, bound);
+		System.arraycopy(columns, 0, boundColumns, 0, bound);
+		boundRs = rs;
+	}
+	
+	private static String normalize(String name) {
+		
+		StringBuilder sb = new StringBuilder(name.length());
+		for(int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if(c!='_')
+				sb.append(Character.toLowerCase(c));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Reads a column value of a certain type.
+	 */
+	@FunctionalInterface
+	private interface ValueReader {
+		
+		Object read(ResultSet rs, int column) throws SQLException;
+	}
+	
+	private static ValueReader getReader(Class<?> type) {
+		
+		if(type==int.class || type==Integer.class)
+			return (rs, c) -> { int v = rs.getInt(c); return rs.wasNull()?null:v; };
+		else if(type==long.class || type==Long.class)
+			return (rs, c) -> { long v = rs.getLong(c); return rs.wasNull()?null:v; };
+		else if(type==double.class || type==Double.class)
+			return (rs, c) -> { double v = rs.getDouble(c); return rs.wasNull()?null:v; };
+		else if(type==float.class || type==Float.class)
+			return (rs, c) -> { float v = rs.getFloat(c); return rs.wasNull()?null:v; };
+		else if(type==boolean.class || type==Boolean.class)
+			return (rs, c) -> { boolean v = rs.getBoolean(c); return rs.wasNull()?null:v; };
+		else if(type==short.class || type==Short.class)
+			return (rs, c) -> { short v = rs.getShort(c); return rs.wasNull()?null:v; };
+		else if(type==byte.class || type==Byte.class)
+			return (rs, c) -> { byte v = rs.getByte(c); return rs.wasNull()?null:v; };
+		else if(type==String.class)
+			return (rs, c) -> rs.getString(c);
+		else if(type==BigDecimal.class)
+			return (rs, c) -> rs.getBigDecimal(c);
+		else if(type==Timestamp.class || type==java.util.Date.class)
+			return (rs, c) -> rs.getTimestamp(c);
+		else if(type==Instant.class)
+			return (rs, c) -> { Timestamp v = rs.getTimestamp(c); return v==null?null:v.toInstant(); };
+		else if(type==LocalDateTime.class)
+			return (rs, c) -> { Timestamp v = rs.getTimestamp(c); return v==null?null:v.toLocalDateTime(); };
+		else if(type==LocalDate.class)
+			return (rs, c) -> { java.sql.Date v = rs.getDate(c); return v==null?null:v.toLocalDate(); };
+		else if(type==byte[].class)
+			return (rs, c) -> rs.getBytes(c);
+		else if(type==UUID.class)
+			// Either the compact binary form or the string form
+			return (rs, c) -> {
+				Object v = rs.getObject(c);
+				return v==null?null:(v instanceof byte[]?DbReplicator.fromBytes((byte[])v):UUID.fromString(v.toString()));
+			};
+		else
+			return (rs, c) -> rs.getObject(c);
+	}
+	
+	/**
+	 * A mapped property
+	 */
+	private static class Property {
+		
+		private Class<?> type;
+		private ValueReader reader;
+		// -- For beans: setter, as (Object bean, Object value)void
+		private MethodHandle setter;
+		// -- For records: position in the canonical constructor
+		private int position;
+		
+		private Property(Class<?> type) {
+			
+			this.type = type;
+			this.reader = getReader(type);
+		}
+	}
+	
+	/**
+	 * The analysis of a mapped class
+	 */
+	private static class ClassMapping {
+		
+		private Class<?> clazz;
+		private Map<String,Property> properties = new LinkedHashMap<String,Property>();
+		// -- For beans: no-arg constructor, as ()Object
+		private MethodHandle constructor;
+		// -- For records: canonical constructor, as (Object[])Object, and default values for its arguments
+		private MethodHandle recordConstructor;
+		private Object[] defaultArgs;
+		
+		private ClassMapping(Class<?> clazz) {
+			
+			this.clazz = clazz;
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			try {
+				Object[] recordComponents = getRecordComponents(clazz);
+				if(recordComponents!=null)
+					analyzeRecord(lookup, recordComponents);
+				else
+					analyzeBean(lookup);
+			}
+			catch(IllegalAccessException | NoSuchMethodException e) {
+				throw new IllegalArgumentException("Class " + clazz.getName() + " can't be mapped: " + e.getMessage());
+			}
+		}
+		
+		private void analyzeBean(MethodHandles.Lookup lookup) throws IllegalAccessException, NoSuchMethodException {
+			
+			constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class))
+					.asType(MethodType.methodType(Object.class));
+			
+			MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+			for(Field field : clazz.getFields()) {
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers))
+					continue;
+				Property property = new Property(field.getType());
+				property.setter = lookup.unreflectSetter(field).asType(setterType);
+				properties.put(normalize(field.getName()), property);
+			}
+			// Setters take precedence over fields
+			for(Method method : clazz.getMethods()) {
+				if(Modifier.isStatic(method.getModifiers()) || method.getParameterCount()!=1 || 
+						!method.getName().startsWith("set") || method.getName().length()<4)
+					continue;
+				Property property = new Property(method.getParameterTypes()[0]);
+				property.setter = lookup.unreflect(method).asType(setterType);
+				properties.put(normalize(method.getName().substring(3)), property);
+			}
+		}
+		
+		private void analyzeRecord(MethodHandles.Lookup lookup, Object[] recordComponents) 
+				throws IllegalAccessException, NoSuchMethodException {
+			
+			Class<?>[] types = new Class<?>[recordComponents.length];
+			defaultArgs = new Object[recordComponents.length];
+			try {
+				for(int i=0; i<recordComponents.length; i++) {
+					String name = (String)recordComponents[i].getClass().getMethod("getName").invoke(recordComponents[i]);
+					types[i] = (Class<?>)recordComponents[i].getClass().getMethod("getType")
+							.invoke(recordComponents[i]);
+					Property property = new Property(types[i]);
+					property.position = i;
+					properties.put(normalize(name), property);
+					// Primitives can't be null: their default value is needed as constructor argument
+					if(types[i].isPrimitive())
+						defaultArgs[i] = Array.get(Array.newInstance(types[i], 1), 0);
+				}
+			}
+			catch(ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Record " + clazz.getName() + " can't be analyzed: " + e);
+			}
+			
+			Constructor<?> canonical = clazz.getConstructor(types);
+			recordConstructor = lookup.unreflectConstructor(canonical).asSpreader(Object[].class, types.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+		}
+		
+		private static Object[] getRecordComponents(Class<?> clazz) {
+			
+			// Looked up by reflection, so the application still builds and runs on Java versions with no records
+			try {
+				if(!(Boolean)Class.class.getMethod("isRecord").invoke(clazz))
+					return null;
+				return (Object[])Class.class.getMethod("getRecordComponents").invoke(clazz);
+			}
+			catch(ReflectiveOperationException e) {
+				return null;
+			}
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,685 @@
+/* ****************************************************************************************************************** *
+ * ColumnarSnapshot.java                                                                                              *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * An immutable, in-memory, column-oriented copy of a query result, for analytic reads: once materialized, it can be 
+ * 	scanned (filtered, aggregated) over and over without hitting the database again.
+ * 	<br/><br/>
+ * Every column is kept in a compact, cache-friendly form, according to its SQL type:
+ * <ul>
+ * <li>LONG (integer and boolean types, the latter as 1 / 0): a long[] array.</li>
+ * <li>DOUBLE (floating point and decimal types; note decimals lose precision): a double[] array.</li>
+ * <li>TIMESTAMP (date and time types): a long[] array, as epoch millis.</li>
+ * <li>STRING (any other type, as its string representation): dictionary-encoded, i.e. an int[] array of codes into
+ * 	an array of distinct values.</li>
+ * </ul>
+ * Nulls are tracked in a bitmap per column. As in JDBC, columns are numbered from 1; rows are numbered from 0.
+ * 	<br/><br/>
+ * Filters return the matching rows as a BitSet (which can be combined with BitSet.and() / or()); aggregates can be 
+ * 	restricted to such a row set. Scans over more than CHUNK_SIZE rows are split into chunks evaluated in parallel,
+ * 	in the common fork-join pool. Snapshots are thread-safe, as they're immutable. E.g.
+ * <pre>
+ * ColumnarSnapshot s = t.snapshot("select REGION, AMOUNT from SALES");
+ * BitSet big = s.filterDouble(2, v -> v>1000);
+ * Map&lt;String,ColumnarSnapshot.Aggregate&gt; byRegion = s.aggregateBy(1, 2, big);
+ * </pre>
+ * @author a-zz
+ * @see SqlTransaction#snapshot(String)
+ */
+public class ColumnarSnapshot {
+
+	/** Number of rows evaluated as a unit in parallel scans (a multiple of 64, so chunks don't share bitmap words) */
+	public static final int CHUNK_SIZE = 16384;
+	
+	/**
+	 * Column types, as stored in the snapshot
+	 */
+	public enum EnumColumnTypes { LONG, DOUBLE, TIMESTAMP, STRING };
+	
+	private int rowCount;
+	private Column[] columns;
+	private Map<String,Integer> columnIndexes = new HashMap<String,Integer>();
+	
+	private ColumnarSnapshot() {
+		
+	}
+	
+	/**
+	 * Materializes the (remaining) rows of a result set into a snapshot. The result set is read up to its end, but not 
+	 * 	closed.
+	 * @param rs (ResultSet) The result set.
+	 * @return (ColumnarSnapshot)
+	 * @throws SQLException
+	 */
+	public static ColumnarSnapshot of(ResultSet rs) throws SQLException {
+		
+		ColumnarSnapshot snapshot = new ColumnarSnapshot();
+		ResultSetMetaData metaData = rs.getMetaData();
+		Column[] columns = new Column[metaData.getColumnCount()];
+		for(int i=0; i<columns.length; i++) {
+			columns[i] = new Column(metaData.getColumnLabel(i+1), metaData.getColumnType(i+1));
+			snapshot.columnIndexes.putIfAbsent(columns[i].name.toUpperCase(), i+1);
+		}
+		
+		int capacity = 1024;
+		for(Column column : columns)
+			column.allocate(capacity);
+		int rows = 0;
+		while(rs.next()) {
+			if(rows==capacity) {
+				capacity = capacity * 2;
+				for(Column column : columns)
+					column.allocate(capacity);
+			}
+			for(int i=0; i<columns.length; i++)
+				columns[i].read(rs, i+1, rows);
+			rows++;
+		}
+		
+		for(Column column : columns)
+			column.trim(rows);
+		snapshot.rowCount = rows;
+		snapshot.columns = columns;
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the number of rows.
+	 * @return (int)
+	 */
+	public int getRowCount() {
+		
+		return rowCount;
+	}
+	
+	/**
+	 * Returns the number of columns.
+	 * @return (int)
+	 */
+	public int getColumnCount() {
+		
+		return columns.length;
+	}
+	
+	/**
+	 * Returns a column name (label).
+	 * @param column (int) The column number, from 1.
+	 * @return (String)
+	 */
+	public String getColumnName(int column) {
+		
+		return column(column).name;
+	}
+	
+	/**
+	 * Returns a column number from its name (label), case-insensitively.
+	 * @param name (String) The column name.
+	 * @return (int) The column number, from 1.
+	 * @throws IllegalArgumentException If there's no such column.
+	 */
+	public int getColumnIndex(String name) {
+		
+		Integer index = columnIndexes.get(name.toUpperCase());
+		if(index==null)
+			throw new IllegalArgumentException("No such column in snapshot: " + name);
+		return index;
+	}
+	
+	/**
+	 * Returns a column type, as stored in the snapshot.
+	 * @param column (int) The column number, from 1.
+	 * @return (EnumColumnTypes)
+	 */
+	public EnumColumnTypes getColumnType(int column) {
+		
+		return column(column).type;
+	}
+	
+	/**
+	 * Returns the number of distinct values in a STRING column.
+	 * @param column (int) The column number, from 1.
+	 * @return (int)
+	 */
+	public int getDistinctCount(int column) {
+		
+		return column(column, EnumColumnTypes.STRING).dictionary.length;
+	}
+	
+	/**
+	 * Checks whether a value is null.
+	 * @param row (int) The row number, from 0.
+	 * @param column (int) The column number, from 1.
+	 * @return (boolean)
+	 */
+	public boolean isNull(int row, int column) {
+		
+		return column(column).isNull(checkRow(row));
+	}
+	
+	/**
+	 * Returns a value from a LONG or TIMESTAMP (as epoch millis) column.
+	 * @param row (int) The row number, from 0.
+	 * @param column (int) The column number, from 1.
+	 * @return (long) 0 if the value is null.
+	 */
+	public long getLong(int row, int column) {
+		
+		Column c = column(column);
+		if(c.longs==null)
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", not integer");
+		return c.longs[checkRow(row)];
+	}
+	
+	/**
+	 * Returns a value from a numeric (LONG or DOUBLE) column.
+	 * @param row (int) The row number, from 0.
+	 * @param column (int) The column number, from 1.
+	 * @return (double) 0 if the value is null.
+	 */
+	public double getDouble(int row, int column) {
+		
+		Column c = column(column);
+		if(c.type==EnumColumnTypes.DOUBLE)
+			return c.doubles[checkRow(row)];
+		else if(c.type==EnumColumnTypes.LONG)
+			return c.longs[checkRow(row)];
+		else
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", not numeric");
+	}
+	
+	/**
+	 * Returns a value from a TIMESTAMP column.
+	 * @param row (int) The row number, from 0.
+	 * @param column (int) The column number, from 1.
+	 * @return (Timestamp) null if the value is null.
+	 */
+	public Timestamp getTimestamp(int row, int column) {
+		
+		Column c = column(column, EnumColumnTypes.TIMESTAMP);
+		return c.isNull(checkRow(row))?null:new Timestamp(c.longs[row]);
+	}
+	
+	/**
+	 * Returns a value from any column, as a string.
+	 * @param row (int) The row number, from 0.
+	 * @param column (int) The column number, from 1.
+	 * @return (String) null if the value is null.
+	 */
+	public String getString(int row, int column) {
+		
+		Column c = column(column);
+		if(c.isNull(checkRow(row)))
+			return null;
+		switch(c.type) {
+		case LONG:
+			return String.valueOf(c.longs[row]);
+		case DOUBLE:
+			return String.valueOf(c.doubles[row]);
+		case TIMESTAMP:
+			return new Timestamp(c.longs[row]).toString();
+		default:
+			return c.dictionary[c.codes[row]];
+		}
+	}
+	
+	// -- Filters
+	
+	/**
+	 * Filters rows on a LONG or TIMESTAMP (as epoch millis) column. Nulls never match.
+	 * @param column (int) The column number, from 1.
+	 * @param predicate (LongPredicate) 
+	 * @return (BitSet) The matching rows.
+	 */
+	public BitSet filterLong(int column, final LongPredicate predicate) {
+		
+		final Column c = column(column);
+		if(c.longs==null)
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", not integer");
+		return filter((words, from, to) -> {
+			for(int row=from; row<to; row++)
+				if(predicate.test(c.longs[row]) && !c.isNull(row))
+					words[row >>> 6] |= 1L << row;
+		});
+	}
+	
+	/**
+	 * Filters rows on a numeric (LONG or DOUBLE) column. Nulls never match.
+	 * @param column (int) The column number, from 1.
+	 * @param predicate (DoublePredicate) 
+	 * @return (BitSet) The matching rows.
+	 */
+	public BitSet filterDouble(int column, final DoublePredicate predicate) {
+		
+		final Column c = column(column);
+		if(c.type==EnumColumnTypes.LONG)
+			return filterLong(column, v -> predicate.test(v));
+		else if(c.type!=EnumColumnTypes.DOUBLE)
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", not numeric");
+		return filter((words, from, to) -> {
+			for(int row=from; row<to; row++)
+				if(predicate.test(c.doubles[row]) && !c.isNull(row))
+					words[row >>> 6] |= 1L << row;
+		});
+	}
+	
+	/**
+	 * Filters rows on a STRING column. The predicate is evaluated just once per distinct value. Nulls never match.
+	 * @param column (int) The column number, from 1.
+	 * @param predicate (Predicate<String>) 
+	 * @return (BitSet) The matching rows.
+	 */
+	public BitSet filterString(int column, Predicate<String> predicate) {
+		
+		final Column c = column(column, EnumColumnTypes.STRING);
+		final boolean[] matches = new boolean[c.dictionary.length];
+		for(int i=0; i<matches.length; i++)
+			matches[i] = predicate.test(c.dictionary[i]);
+		return filter((words, from, to) -> {
+			for(int row=from; row<to; row++)
+				if(!c.isNull(row) && matches[c.codes[row]])
+					words[row >>> 6] |= 1L << row;
+		});
+	}
+	
+	/**
+	 * Returns the rows where a column is (not) null.
+	 * @param column (int) The column number, from 1.
+	 * @param isNull (boolean) Whether null (true) or non-null (false) values are to be matched.
+	 * @return (BitSet) The matching rows.
+	 */
+	public BitSet filterNull(int column, boolean isNull) {
+		
+		Column c = column(column);
+		BitSet nulls = BitSet.valueOf(c.nulls);
+		if(isNull)
+			return nulls;
+		nulls.flip(0, rowCount);
+		return nulls;
+	}
+	
+	// -- Aggregates
+	
+	/**
+	 * Aggregates the non-null values of a numeric, or TIMESTAMP (as epoch millis), column.
+	 * @param column (int) The column number, from 1.
+	 * @param rows (BitSet) The rows to be aggregated (e.g. as returned by a filter); null for every row.
+	 * @return (Aggregate)
+	 */
+	public Aggregate aggregate(int column, final BitSet rows) {
+		
+		final Column c = column(column);
+		if(c.type==EnumColumnTypes.STRING)
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", can't be aggregated");
+		return evaluate((from, to) -> {
+			Aggregate aggregate = new Aggregate();
+			for(int row=nextRow(rows, from); row>=0 && row<to; row=nextRow(rows, row+1))
+				if(!c.isNull(row))
+					aggregate.add(c.doubles!=null?c.doubles[row]:c.longs[row]);
+			return aggregate;
+		}, Aggregate::combine);
+	}
+	
+	/**
+	 * Aggregates the non-null values of a numeric, or TIMESTAMP, column grouping by the values of a STRING column.
+	 * @param groupColumn (int) The STRING column to group by, numbered from 1.
+	 * @param column (int) The column to be aggregated, numbered from 1.
+	 * @param rows (BitSet) The rows to be aggregated (e.g. as returned by a filter); null for every row.
+	 * @return (Map<String,Aggregate>) Aggregates keyed by group value (null values making up their own group), in
+	 * 	dictionary order, i.e. order of first appearance over the whole snapshot (regardless of rows), with the null 
+	 * 	group last. Groups with no rows aren't included.
+	 */
+	public Map<String,Aggregate> aggregateBy(int groupColumn, int column, final BitSet rows) {
+		
+		final Column g = column(groupColumn, EnumColumnTypes.STRING);
+		final Column c = column(column);
+		if(c.type==EnumColumnTypes.STRING)
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", can't be aggregated");
+		
+		// Groups are indexed by dictionary code, with an extra one for nulls
+		final int groups = g.dictionary.length + 1;
+		Aggregate[] aggregates = evaluate((from, to) -> {
+			Aggregate[] chunk = new Aggregate[groups];
+			for(int row=nextRow(rows, from); row>=0 && row<to; row=nextRow(rows, row+1)) {
+				if(c.isNull(row))
+					continue;
+				int group = g.isNull(row)?groups-1:g.codes[row];
+				if(chunk[group]==null)
+					chunk[group] = new Aggregate();
+				chunk[group].add(c.doubles!=null?c.doubles[row]:c.longs[row]);
+			}
+			return chunk;
+		}, (a, b) -> {
+			for(int i=0; i<groups; i++)
+				a[i] = a[i]==null?b[i]:(b[i]==null?a[i]:a[i].combine(b[i]));
+			return a;
+		});
+		
+		LinkedHashMap<String,Aggregate> result = new LinkedHashMap<String,Aggregate>();
+		for(int i=0; i<groups; i++)
+			if(aggregates[i]!=null)
+				result.put(i==groups-1?null:g.dictionary[i], aggregates[i]);
+		return result;
+	}
+	
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder("ColumnarSnapshot[rows=").append(rowCount).append(", columns=");
+		for(int i=0; i<columns.length; i++)
+			sb.append(i==0?"":", ").append(columns[i].name).append(" ").append(columns[i].type);
+		return sb.append("]").toString();
+	}
+	
+	// -- Chunked evaluation
+	
+	/**
+	 * Evaluates a range of rows into a partial result.
+	 */
+	@FunctionalInterface
+	private interface ChunkFunction<R> {
+		
+		R apply(int from, int to);
+	}
+	
+	/**
+	 * Sets the bits for the matching rows in a range.
+	 */
+	@FunctionalInterface
+	private interface ChunkFilter {
+		
+		void apply(long[] words, int from, int to);
+	}
+	
+	private BitSet filter(final ChunkFilter filter) {
+		
+		// As chunks are aligned to 64 rows, every one of them sets bits in its own words
+		final long[] words = new long[(rowCount + 63) >>> 6];
+		evaluate((from, to) -> {
+			filter.apply(words, from, to);
+			return null;
+		}, (a, b) -> null);
+		return BitSet.valueOf(words);
+	}
+	
+	private <R> R evaluate(ChunkFunction<R> function, BinaryOperator<R> combiner) {
+		
+		if(rowCount<=CHUNK_SIZE)
+			return function.apply(0, rowCount);
+		else
+			return ForkJoinPool.commonPool().invoke(new ChunkTask<R>(function, combiner, 0, 
+					(rowCount + CHUNK_SIZE - 1) / CHUNK_SIZE));
+	}
+	
+	/**
+	 * Evaluates a range of chunks, splitting it in halves until a single chunk is left.
+	 */
+	@SuppressWarnings("serial")
+	private class ChunkTask<R> extends RecursiveTask<R> {
+		
+		private ChunkFunction<R> function;
+		private BinaryOperator<R> combiner;
+		private int fromChunk;
+		private int toChunk;
+		
+		private ChunkTask(ChunkFunction<R> function, BinaryOperator<R> combiner, int fromChunk, int toChunk) {
+			
+			this.function = function;
+			this.combiner = combiner;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+		
+		protected R compute() {
+			
+			if(toChunk-fromChunk==1)
+				return function.apply(fromChunk * CHUNK_SIZE, Math.min(toChunk * CHUNK_SIZE, rowCount));
+			int middle = (fromChunk + toChunk) >>> 1;
+			ChunkTask<R> left = new ChunkTask<R>(function, combiner, fromChunk, middle);
+			left.fork();
+			R right = new ChunkTask<R>(function, combiner, middle, toChunk).compute();
+			return combiner.apply(left.join(), right);
+		}
+	}
+	
+	private static int nextRow(BitSet rows, int from) {
+		
+		return rows==null?from:rows.nextSetBit(from);
+	}
+	
+	private Column column(int column) {
+		
+		if(column<1 || column>columns.length)
+			throw new IndexOutOfBoundsException("Column " + column + " out of range 1.." + columns.length);
+		return columns[column-1];
+	}
+	
+	private Column column(int column, EnumColumnTypes type) {
+		
+		Column c = column(column);
+		if(c.type!=type)
+			throw new IllegalArgumentException("Column " + c.name + " is " + c.type + ", not " + type);
+		return c;
+	}
+	
+	private int checkRow(int row) {
+		
+		if(row<0 || row>=rowCount)
+			throw new IndexOutOfBoundsException("Row " + row + " out of range 0.." + (rowCount-1));
+		return row;
+	}
+	
+	/**
+	 * A column's values
+	 */
+	private static class Column {
+		
+		private String name;
+		private int sqlType;
+		private EnumColumnTypes type;
+		private long[] longs;
+		private double[] doubles;
+		private int[] codes;
+		private String[] dictionary;
+		private long[] nulls;
+		// -- While loading: dictionary value to code
+		private HashMap<String,Integer> dictionaryIndex;
+		private int dictionarySize;
+		
+		private Column(String name, int sqlType) {
+			
+			this.name = name;
+			this.sqlType = sqlType;
+			switch(sqlType) {
+			case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT: case Types.BOOLEAN: 
+			case Types.BIT:
+				type = EnumColumnTypes.LONG;
+				break;
+			case Types.REAL: case Types.FLOAT: case Types.DOUBLE: case Types.DECIMAL: case Types.NUMERIC:
+				type = EnumColumnTypes.DOUBLE;
+				break;
+			case Types.DATE: case Types.TIME: case Types.TIMESTAMP: case Types.TIME_WITH_TIMEZONE: 
+			case Types.TIMESTAMP_WITH_TIMEZONE:
+				type = EnumColumnTypes.TIMESTAMP;
+				break;
+			default:
+				type = EnumColumnTypes.STRING;
+				dictionaryIndex = new HashMap<String,Integer>();
+				dictionary = new String[16];
+			}
+		}
+		
+		private void allocate(int capacity) {
+			
+			if(type==EnumColumnTypes.DOUBLE)
+				doubles = doubles==null?new double[capacity]:Arrays.copyOf(doubles, capacity);
+			else if(type==EnumColumnTypes.STRING)
+				codes = codes==null?new int[capacity]:Arrays.copyOf(codes, capacity);
+			else
+				longs = longs==null?new long[capacity]:Arrays.copyOf(longs, capacity);
+			int words = (capacity + 63) >>> 6;
+			nulls = nulls==null?new long[words]:Arrays.copyOf(nulls, words);
+		}
+		
+		private void trim(int rows) {
+			
+			allocate(rows);
+			if(type==EnumColumnTypes.STRING) {
+				dictionary = Arrays.copyOf(dictionary, dictionarySize);
+				dictionaryIndex = null;
+			}
+		}
+		
+		private void read(ResultSet rs, int index, int row) throws SQLException {
+			
+			switch(type) {
+			case LONG:
+				longs[row] = (sqlType==Types.BOOLEAN || sqlType==Types.BIT)?(rs.getBoolean(index)?1:0):rs.getLong(index);
+				break;
+			case DOUBLE:
+				doubles[row] = rs.getDouble(index);
+				break;
+			case TIMESTAMP:
+				if(sqlType==Types.TIME || sqlType==Types.TIME_WITH_TIMEZONE) {
+					Time value = rs.getTime(index);
+					longs[row] = value==null?0:value.getTime();
+				}
+				else {
+					Timestamp value = rs.getTimestamp(index);
+					longs[row] = value==null?0:value.getTime();
+				}
+				break;
+			default:
+				String value = rs.getString(index);
+				codes[row] = value==null?0:encode(value);
+			}
+			if(rs.wasNull())
+				nulls[row >>> 6] |= 1L << row;
+		}
+		
+		private int encode(String value) {
+			
+			Integer code = dictionaryIndex.get(value);
+			if(code==null) {
+				code = dictionarySize++;
+				if(code==dictionary.length)
+					dictionary = Arrays.copyOf(dictionary, code * 2);
+				dictionary[code] = value;
+				dictionaryIndex.put(value, code);
+			}
+			return code;
+		}
+		
+		private boolean isNull(int row) {
+			
+			return (nulls[row >>> 6] & (1L << row))!=0;
+		}
+	}
+	
+	/**
+	 * Aggregated values of a column: count, sum, minimum, maximum and mean.
+	 */
+	public static class Aggregate {
+		
+		private long count = 0;
+		private double sum = 0;
+		private double min = Double.NaN;
+		private double max = Double.NaN;
+		
+		private void add(double value) {
+			
+			if(count==0)
+				min = max = value;
+			else if(value<min)
+				min = value;
+			else if(value>max)
+				max = value;
+			count++;
+			sum += value;
+		}
+		
+		private Aggregate combine(Aggregate other) {
+			
+			if(other.count==0)
+				return this;
+			if(count==0)
+				return other;
+			count += other.count;
+			sum += other.sum;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+			return this;
+		}
+		
+		/**
+		 * Returns the number of (non-null) values aggregated.
+		 * @return (long)
+		 */
+		public long getCount() {
+			
+			return count;
+		}
+		
+		/**
+		 * Returns the sum of values.
+		 * @return (double)
+		 */
+		public double getSum() {
+			
+			return sum;
+		}
+		
+		/**
+		 * Returns the minimum value.
+		 * @return (double) NaN if no values were aggregated.
+		 */
+		public double getMin() {
+			
+			return min;
+		}
+		
+		/**
+		 * Returns the maximum value.
+		 * @return (double) NaN if no values were aggregated.
+		 */
+		public double getMax() {
+			
+			return max;
+		}
+		
+		/**
+		 * Returns the mean value.
+		 * @return (double) NaN if no values were aggregated.
+		 */
+		public double getMean() {
+			
+			return count==0?Double.NaN:sum/count;
+		}
+		
+		public String toString() {
+			
+			return "count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + ", mean=" + getMean();
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,71 @@
+/* ****************************************************************************************************************** *
+ * CountingResultSet.java                                                                                             *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+
+/**
+ * A result set wrapper counting the rows read through it, so forward-only result sets can report their size once 
+ * 	they're done with (there's no way to know it beforehand without reading them through). Identity semantics are kept 
+ * 	for equals() and hashCode(), so wrappers can be tracked in collections. 
+ * @author a-zz
+ */
+class CountingResultSet implements InvocationHandler {
+
+	private ResultSet rs;
+	private long rows = 0;
+	
+	private CountingResultSet(ResultSet rs) {
+		
+		this.rs = rs;
+	}
+	
+	/**
+	 * Wraps a result set.
+	 * @param rs (ResultSet) The result set to be wrapped.
+	 * @return (ResultSet) The wrapper.
+	 */
+	static ResultSet wrap(ResultSet rs) {
+		
+		return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, 
+				new CountingResultSet(rs));
+	}
+	
+	/**
+	 * Gets the number of rows read so far through a wrapper.
+	 * @param wrapper (ResultSet) A wrapper got from wrap()
+	 * @return (long)
+	 */
+	static long getRowsRead(ResultSet wrapper) {
+		
+		return ((CountingResultSet)Proxy.getInvocationHandler(wrapper)).rows;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+		String name = method.getName();
+		if(name.equals("equals") && args!=null && args.length==1)
+			return proxy==args[0];
+		else if(name.equals("hashCode") && args==null)
+			return System.identityHashCode(proxy);
+		
+		try {
+			Object result = method.invoke(rs, args);
+			if(name.equals("next") && ((Boolean)result).booleanValue())
+				rows++;
+			return result;
+		}
+		catch(InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
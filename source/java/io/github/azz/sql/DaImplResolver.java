@@ -0,0 +1,86 @@
+/* ****************************************************************************************************************** *
+ * DaImplResolver.java                                                                                                *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.rdbms.RdbmsSupport;
+import io.github.azz.util.ClassIndex;
+import io.github.azz.util.Reflection;
+
+/**
+ * Resolution of data access implementation classes, backing DaInterface.getImplClassFor(). Classes are looked up in 
+ * 	the compile-time class index (see ClassIndex) or, failing that, in the classpath (see Reflection.listClasses()). 
+ * 	Results are cached per data-access consumer class and database engine, so reflection is only used the first time
+ * 	a consumer is resolved.
+ * @author a-zz
+ * @see DaInterface
+ */
+final class DaImplResolver {
+
+	private static AppLogger logger = new AppLogger(DaImplResolver.class);
+	
+	// -- Resolved implementation classes, keyed by "<consumer class name>@<database engine>"
+	private static ConcurrentHashMap<String,Class<? extends DaInterface>> implClasses = 
+			new ConcurrentHashMap<String,Class<? extends DaInterface>>();
+	
+	private DaImplResolver() {
+		
+	}
+	
+	/**
+	 * Gets the data access implementation class for a data-access consumer class and a database engine.
+	 * @param clazz (Class) The data-access consumer class.
+	 * @param databaseEngine (RdbmsSupport.EnumDatabaseEngines) The database engine.
+	 * @return Class<? extends DaInterface> The implementation class; null if not found. If several are found, only the 
+	 * 	first one is returned.
+	 */
+	@SuppressWarnings("rawtypes")
+	static Class<? extends DaInterface> resolve(Class clazz, RdbmsSupport.EnumDatabaseEngines databaseEngine) {
+		
+		String key = clazz.getName() + "@" + databaseEngine;
+		Class<? extends DaInterface> implClass = implClasses.get(key);
+		if(implClass==null) {
+			implClass = lookUp(clazz, databaseEngine);
+			if(implClass!=null) {
+				implClasses.putIfAbsent(key, implClass);
+				logger.trace("Data access implementation class for " + clazz.getName() + " and engine " + 
+						databaseEngine + ": " + implClass.getName());
+			}
+		}
+		return implClass;
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Class<? extends DaInterface> lookUp(Class clazz, RdbmsSupport.EnumDatabaseEngines databaseEngine) {
+		
+		try {
+			Class engineInterface = RdbmsSupport.getEngineInterface(databaseEngine);
+			String daPackageName = clazz.getPackage().getName() + ".da";
+			String implClassPrefix = daPackageName + "." + clazz.getSimpleName();
+			List<String> candidates = ClassIndex.get(DaInterface.class.getName() + "@" + databaseEngine, 
+					daPackageName);
+			if(candidates==null)
+				candidates = Reflection.listClasses(daPackageName, false);
+			// Only candidates matching the naming convention are loaded
+			for(String className : candidates) {
+				if(!className.startsWith(implClassPrefix))
+					continue;
+				Class classFound = Class.forName(className);
+				if(DaInterface.class.isAssignableFrom(classFound) && engineInterface.isAssignableFrom(classFound))
+					return classFound;
+			}
+		}
+		catch(Exception e) {
+			logger.error("Data access implementation class lookup failed for " + clazz.getName() + " and engine " +
+					databaseEngine + ": " + e.getMessage());
+		}
+		return null;
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,167 @@
+/* ****************************************************************************************************************** *
+ * DbMaintenance.java                                                                                                 *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import io.github.azz.config.LocalConfiguration;
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.da.DbMaintenanceDaInterface;
+import io.github.azz.util.Histogram;
+import io.github.azz.util.TmpDir;
+
+/**
+ * Online database maintenance: checkpoints and hot backups, run while the application keeps working on the database.
+ * 	They're usually launched by the DbCheckpointTask and DbBackupTask scheduled tasks.
+ * <br/><br/>
+ * <ul>
+ * <li>A checkpoint writes the database changes made so far into the data files, so the engine's log (replayed at 
+ * 	startup) is cleared. It optionally defragments the data files as well (local property 
+ * 	db.maintenance.checkpointDefrag), which blocks the database while running.</li>
+ * <li>A backup writes a compressed copy of the database into the backup directory (local property 
+ * 	db.maintenance.backupDir), a temp dir (see TmpDir) keeping backups for db.maintenance.backupRetention millis.</li>
+ * </ul>
+ * Durations (millis) and backup sizes (bytes) are recorded for monitoring. Operations are serialized: one waits for 
+ * 	the other to finish.
+ * @author a-zz
+ * @see io.github.azz.util.scheduled.DbCheckpointTask
+ * @see io.github.azz.util.scheduled.DbBackupTask
+ */
+public class DbMaintenance {
+
+	private static final String backupTmpDirKey = DbMaintenance.class.getName() + ".backup";
+	
+	private static AppLogger logger = new AppLogger(DbMaintenance.class);
+	private static volatile DbMaintenanceDaInterface dao;
+	private static TmpDir backupDir;
+	private static Histogram checkpointDurations = new Histogram();
+	private static Histogram backupDurations = new Histogram();
+	private static Histogram backupSizes = new Histogram();
+	private static volatile File lastBackup;
+	
+	private static DbMaintenanceDaInterface dao() throws SQLException {
+		
+		if(dao==null) {
+			try {
+				dao = (DbMaintenanceDaInterface)DaInterface.getImplClassFor(DbMaintenance.class).newInstance();
+			}
+			catch(Exception e) {
+				throw new SQLException("Unable to instantiate data access implementation class for " + 
+						DbMaintenance.class + ": " + e.getMessage());
+			}
+		}
+		return dao;
+	}
+	
+	/**
+	 * Runs a checkpoint, with defragmentation if local property db.maintenance.checkpointDefrag is set to y.
+	 * @return (long) Duration, in millis.
+	 * @throws SQLException
+	 */
+	public static synchronized long checkpoint() throws SQLException {
+		
+		boolean defrag;
+		try {
+			defrag = LocalConfiguration.getProperty("db.maintenance.checkpointDefrag", "n").equals("y");
+		}
+		catch(IOException e) {
+			throw new SQLException("Can't read checkpoint setup from local configuration: " + e.getMessage());
+		}
+		
+		long started = System.currentTimeMillis();
+		dao().checkpoint(defrag);
+		long duration = System.currentTimeMillis() - started;
+		checkpointDurations.record(duration);
+		logger.info("Database checkpoint" + (defrag?" (with defrag)":"") + " run in " + duration + "ms");
+		return duration;
+	}
+	
+	/**
+	 * Writes a compressed backup of the database into the backup directory. Backups older than the retention time are 
+	 * 	deleted beforehand.
+	 * @return (File) The backup file written.
+	 * @throws SQLException If the backup fails, or the backup directory isn't set up.
+	 */
+	public static synchronized File backup() throws SQLException {
+		
+		File file;
+		try {
+			file = getBackupDir().getTempFile(dao().getBackupFileExtension());
+		}
+		catch(IOException e) {
+			throw new SQLException("Can't get a backup file: " + e.getMessage());
+		}
+		// The engine writes the file on its own, and won't overwrite it
+		file.delete();
+		
+		long started = System.currentTimeMillis();
+		try {
+			dao().backup(file);
+		}
+		catch(SQLException e) {
+			file.delete();
+			throw e;
+		}
+		long duration = System.currentTimeMillis() - started;
+		backupDurations.record(duration);
+		backupSizes.record(file.length());
+		lastBackup = file;
+		logger.info("Database backup written to " + file.getAbsolutePath() + " (" + file.length() + " bytes) in " + 
+				duration + "ms");
+		return file;
+	}
+	
+	private static TmpDir getBackupDir() throws IOException {
+		
+		if(backupDir==null) {
+			String dir = LocalConfiguration.getProperty("db.maintenance.backupDir", "").trim();
+			if(dir.isEmpty())
+				throw new IOException("Backup directory not set up (local property db.maintenance.backupDir)");
+			backupDir = new TmpDir(backupTmpDirKey, new File(dir), true,
+					LocalConfiguration.getLongProperty("db.maintenance.backupRetention", 7 * 24 * 60 * 60 * 1000L));
+		}
+		return backupDir;
+	}
+	
+	/**
+	 * Returns the duration distribution of checkpoints run so far, in millis.
+	 * @return (Histogram)
+	 */
+	public static Histogram getCheckpointDurations() {
+		
+		return checkpointDurations;
+	}
+	
+	/**
+	 * Returns the duration distribution of backups written so far, in millis.
+	 * @return (Histogram)
+	 */
+	public static Histogram getBackupDurations() {
+		
+		return backupDurations;
+	}
+	
+	/**
+	 * Returns the size distribution of backups written so far, in bytes.
+	 * @return (Histogram)
+	 */
+	public static Histogram getBackupSizes() {
+		
+		return backupSizes;
+	}
+	
+	/**
+	 * Returns the last backup written.
+	 * @return (File) null if no backup was written yet. It may be already deleted, as per retention time.
+	 */
+	public static File getLastBackup() {
+		
+		return lastBackup;
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
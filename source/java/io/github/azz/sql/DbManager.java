@@ -5,9 +5,10 @@
 
 package io.github.azz.sql;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import io.github.azz.config.LocalConfiguration;
 import io.github.azz.logging.AppLogger;
@@ -16,7 +17,13 @@ import io.github.azz.sql.rdbms.RdbmsSupport;
 
 /**
  * Database management
+ * <br/><br/>
+ * Besides the primary database, a read-only replica may be set up (local property db.replica.url): read-only 
+ * 	transactions are routed to it, so that reporting queries are moved off the write path. Read-only transactions fall 
+ * 	back to the primary database while the replica is failing (for db.replica.retryInterval millis after a failure to
+ * 	connect) or lagging behind (as reported via reportReplicaLag()) more than db.replica.maxLag millis.
  * @author a-zz
+ * @see SqlTransaction#SqlTransaction(String, boolean, SqlTransaction.EnumIsolationLevels, boolean)
  */
 public class DbManager {
 	
@@ -24,13 +31,27 @@ public class DbManager {
 	private static String usr;
 	private static String pwd;	
 	private static RdbmsSupport.EnumDatabaseEngines databaseEngine;
+	private static SqlConnectionPool pool;
+	private static SqlConnectionPool replicaPool;
+	private static long replicaMaxLag;
+	private static long replicaRetryInterval;
+	private static volatile long replicaLag = 0;
+	private static volatile long replicaFailedAt = 0;
+	private static LongAdder replicaReads = new LongAdder();
+	private static LongAdder replicaFallbacks = new LongAdder();
+	private static int defaultFetchSize;
+	private static int auditTrailMaxEntries;
+	private static int leakStackSampling;
+	private static long slowQueryThreshold;
+	private static long queryTimeout;
+	private static Map<String,String> engineSettings = Collections.emptyMap();
 	
 	private static AppLogger logger = new AppLogger(DbManager.class);
 	private static DbManagerDaInterface dao;
 	
 	/**
-	 * Initializes the database manager facility, by reading the connection parameters from the local configuration.
-	 * 	Also checks the database version and updates it if necessary.
+	 * Initializes the database manager facility, by reading the connection parameters from the local configuration 
+	 * 	and setting up the connection pool. Also checks the database version and updates it if necessary.
 	 * @throws SQLException
 	 */
 	public static void initialize() throws SQLException {
@@ -42,12 +63,51 @@ public class DbManager {
 			usr = LocalConfiguration.getProperty("db.usr");
 			pwd = LocalConfiguration.getProperty("db.pwd");
 			
-			databaseEngine = RdbmsSupport.registerDriver(url);			
+			databaseEngine = RdbmsSupport.registerDriver(url);
+			pool = new SqlConnectionPool("primary", url, usr, pwd, 
+					LocalConfiguration.getIntProperty("db.pool.minSize", 1),
+					LocalConfiguration.getIntProperty("db.pool.maxSize", 10),
+					LocalConfiguration.getLongProperty("db.pool.idleTimeout", 300000),
+					LocalConfiguration.getLongProperty("db.pool.borrowTimeout", 10000),
+					LocalConfiguration.getProperty("db.pool.validateOnBorrow", "y").equals("y"),
+					LocalConfiguration.getIntProperty("db.statementCache.size", 50));
+			String replicaUrl = LocalConfiguration.getProperty("db.replica.url", "");
+			if(!replicaUrl.isEmpty()) {
+				if(RdbmsSupport.registerDriver(replicaUrl)!=databaseEngine)
+					throw new SQLException("Replica database engine differs from primary's: " + replicaUrl);
+				// Replica connections are opened on demand, so an unavailable replica doesn't prevent booting
+				replicaPool = new SqlConnectionPool("replica", replicaUrl, 
+						LocalConfiguration.getProperty("db.replica.usr", usr),
+						LocalConfiguration.getProperty("db.replica.pwd", pwd), 0,
+						LocalConfiguration.getIntProperty("db.pool.maxSize", 10),
+						LocalConfiguration.getLongProperty("db.pool.idleTimeout", 300000),
+						LocalConfiguration.getLongProperty("db.pool.borrowTimeout", 10000),
+						LocalConfiguration.getProperty("db.pool.validateOnBorrow", "y").equals("y"),
+						LocalConfiguration.getIntProperty("db.statementCache.size", 50));
+				replicaMaxLag = LocalConfiguration.getLongProperty("db.replica.maxLag", 5000);
+				replicaRetryInterval = LocalConfiguration.getLongProperty("db.replica.retryInterval", 30000);
+			}
+			defaultFetchSize = LocalConfiguration.getIntProperty("db.query.fetchSize", 1000);
+			auditTrailMaxEntries = LocalConfiguration.getIntProperty("db.sql.audit.maxEntries", 1000);
+			leakStackSampling = LocalConfiguration.getIntProperty("db.leakDetection.stackSampling", 0);
+			slowQueryThreshold = LocalConfiguration.getLongProperty("db.sql.slowQueryThreshold", 1000);
+			queryTimeout = LocalConfiguration.getLongProperty("db.sql.queryTimeout", 300000);
+			SqlResultCache.initialize(LocalConfiguration.getIntProperty("db.sql.resultCache.maxEntries", 1000),
+					LocalConfiguration.getIntProperty("db.sql.resultCache.maxRows", 1000),
+					LocalConfiguration.getLongProperty("db.sql.resultCache.ttl", 0));
+			int asyncMaxConcurrency = LocalConfiguration.getIntProperty("db.async.maxConcurrency", 0);
+			SqlAsync.initialize(asyncMaxConcurrency>0?asyncMaxConcurrency:pool.getMaxSize());
+			SqlRetry.initialize(LocalConfiguration.getIntProperty("db.sql.retry.maxAttempts", 5),
+					LocalConfiguration.getLongProperty("db.sql.retry.baseDelay", 10),
+					LocalConfiguration.getLongProperty("db.sql.retry.maxDelay", 1000));
 			dao = (DbManagerDaInterface)DaInterface.getImplClassFor(DbManager.class).newInstance();
+			engineSettings = Collections.unmodifiableMap(dao.tuneEngine());
+			logger.info("Database engine settings: " + engineSettings);
 			
 			if(!dao.checkDbTimeSync())
 				throw new SQLException("Database time out of sync with application server");
 			DbUpdater.checkVersionAndUpdate(true);
+			DbReplicator.initialize();
 						
 			logger.debug("Database management facility initialized!");
 		}
@@ -66,17 +126,174 @@ public class DbManager {
 	}
 	
 	/**
-	 * Get a new database connection. This connection is untracked, so it's advisable not to be used directly but by 
-	 * 	means of the SqlConnection class
-	 * @return
-	 * @throws SQLException
+	 * Returns the database engine settings in effect, once tuned from the local configuration at boot (see 
+	 * 	DbManagerDaInterface.tuneEngine()).
+	 * @return (Map<String,String>) Settings keyed by the engine's own names; empty before initialization.
+	 */
+	public static Map<String,String> getEngineSettings() {
+		
+		return engineSettings;
+	}
+	
+	/**
+	 * Get a database connection from the connection pool. This connection is untracked, so it's advisable not to be 
+	 * 	used directly but by means of the SqlConnection class. In any case, it must be handed back to the pool by 
+	 * 	calling its release() method, rather than closing the underlying native connection.
+	 * @return (PooledConnection)
+	 * @throws SQLException If no connection is available within the pool borrow timeout.
 	 * @see {@link SqlConnection}
 	 */
-	public static Connection getConnection() throws SQLException { 
+	public static PooledConnection getConnection() throws SQLException { 
 		
-		return DriverManager.getConnection(url, usr, pwd);
+		return pool.borrow();
 	} 
 	
+	/**
+	 * Get a database connection for read-only use: from the replica connection pool when there's a replica available 
+	 * 	and not lagging behind, from the primary pool otherwise. As in getConnection(), the connection is untracked and
+	 * 	must be handed back to its pool by calling its release() method.
+	 * @return (PooledConnection)
+	 * @throws SQLException If no connection is available within the pool borrow timeout.
+	 * @see isReplicaAvailable()
+	 */
+	public static PooledConnection getReadOnlyConnection() throws SQLException {
+		
+		if(isReplicaAvailable()) {
+			try {
+				PooledConnection conn = replicaPool.borrow();
+				replicaReads.increment();
+				return conn;
+			}
+			catch(SQLException e) {
+				reportReplicaFailure(e);
+			}
+		}
+		if(replicaPool!=null)
+			replicaFallbacks.increment();
+		return pool.borrow();
+	}
+	
+	/**
+	 * Checks whether read-only connections are currently got from the replica, i.e. a replica is set up, it hasn't 
+	 * 	failed within the last db.replica.retryInterval millis and it's not lagging behind more than db.replica.maxLag
+	 * 	millis.
+	 * @return (boolean)
+	 */
+	public static boolean isReplicaAvailable() {
+		
+		return replicaPool!=null && 
+				(replicaFailedAt==0 || System.currentTimeMillis()-replicaFailedAt>=replicaRetryInterval) &&
+				(replicaMaxLag<=0 || replicaLag<=replicaMaxLag);
+	}
+	
+	/**
+	 * Reports the current replica lag, i.e. how far behind the primary database the replica is (as measured by the 
+	 * 	replication mechanism in place). While above db.replica.maxLag, read-only connections are got from the primary
+	 * 	pool.
+	 * @param lag (long) The lag, in millis.
+	 */
+	public static void reportReplicaLag(long lag) {
+		
+		if(replicaPool!=null && replicaMaxLag>0 && (lag>replicaMaxLag)!=(replicaLag>replicaMaxLag))
+			logger.warn("Replica lag " + lag + "ms: read-only transactions routed to " + 
+					(lag>replicaMaxLag?"primary database":"replica"));
+		replicaLag = lag;
+	}
+	
+	/**
+	 * Returns the replica lag last reported.
+	 * @return (long) The lag, in millis.
+	 * @see reportReplicaLag()
+	 */
+	public static long getReplicaLag() {
+		
+		return replicaLag;
+	}
+	
+	/**
+	 * Returns the number of read-only connections got from the replica, and the number of those got from the primary 
+	 * 	database instead because the replica wasn't available.
+	 * @return (long[]) {replica, fallback}
+	 */
+	public static long[] getReplicaUsage() {
+		
+		return new long[] { replicaReads.sum(), replicaFallbacks.sum() };
+	}
+	
+	/**
+	 * Returns the replica connection pool, e.g. for monitoring purposes.
+	 * @return (SqlConnectionPool) null if no replica is set up.
+	 */
+	public static SqlConnectionPool getReplicaConnectionPool() {
+		
+		return replicaPool;
+	}
+	
+	private static void reportReplicaFailure(SQLException e) {
+		
+		replicaFailedAt = System.currentTimeMillis();
+		logger.warn("Replica unavailable, read-only transactions routed to primary database for the next " + 
+				replicaRetryInterval + "ms: " + e.getMessage());
+	}
+	
+	/**
+	 * Returns the default fetch size (number of rows got from the database engine at once) for streaming queries.
+	 * @return (int)
+	 * @see SqlTransaction#queryStream(String)
+	 */
+	public static int getDefaultFetchSize() {
+		
+		return defaultFetchSize;
+	}
+	
+	/**
+	 * Returns the maximum number of SQL instructions kept per transaction for logging at commit / rollback time.
+	 * @return (int)
+	 */
+	public static int getAuditTrailMaxEntries() {
+		
+		return auditTrailMaxEntries;
+	}
+	
+	/**
+	 * Returns the sampling rate for capturing the stack trace where connections are opened, to be reported should they
+	 * 	leak: one in every N connections get it captured.
+	 * @return (int) N; 0 means no stack traces are captured.
+	 */
+	public static int getLeakStackSampling() {
+		
+		return leakStackSampling;
+	}
+	
+	/**
+	 * Returns the time above which SQL instructions are logged as slow.
+	 * @return (long) Time in millis; 0 means slow instructions aren't logged.
+	 * @see SqlStatistics
+	 */
+	public static long getSlowQueryThreshold() {
+		
+		return slowQueryThreshold;
+	}
+	
+	/**
+	 * Returns the default timeout for SQL instructions.
+	 * @return (long) Timeout in millis; 0 for none.
+	 * @see SqlTransaction#setQueryTimeout(long)
+	 */
+	public static long getQueryTimeout() {
+		
+		return queryTimeout;
+	}
+	
+	/**
+	 * Returns the connection pool, e.g. for monitoring purposes.
+	 * @return (SqlConnectionPool)
+	 */
+	public static SqlConnectionPool getConnectionPool() {
+		
+		return pool;
+	}
+	
 	/**
 	 * Shuts down the database manager facility
 	 * @throws SQLException
@@ -84,12 +301,22 @@ public class DbManager {
 	public static void shutdown() {
 	
 		AppLogger logger = new AppLogger(DbManager.class);
+		SqlAsync.shutdown();
+		StatementWatchdog.shutdown();
 		try {
 			dao.shutdownEngine();
 		}
 		catch(Exception e) {
 				logger.error("Couldn't shut down the database management facility: " + e.getMessage());
 		}
+		DbReplicator.shutdown();
+		if(replicaPool!=null)
+			replicaPool.close();
+		if(pool!=null)
+			pool.close();
+		logger.debug(SqlStatistics.format());
+		logger.debug(SqlRetry.format());
+		logger.debug(SqlResultCache.format());
 		logger.debug("Database management facility shut down!");					
 	}	
 }
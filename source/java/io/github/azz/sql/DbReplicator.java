@@ -5,22 +5,861 @@
 
 package io.github.azz.sql;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.azz.config.LocalConfiguration;
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.da.DbReplicatorDaInterface;
+import io.github.azz.sql.rdbms.RdbmsSupport;
 
 /**
- * DB replication support for clustered environments
+ * DB replication support for clustered environments. Please read doc/replication.txt for extended info.
+ * <br/><br/>
+ * Changes to replicated tables (those with a UUID primary key, set up with enableCapture()) are captured into the 
+ * 	replication log on the primary database, and shipped by replicate() to every replication target (local property
+ * 	db.replication.targets), incrementally from the last change shipped to each one (its watermark):
+ * <ul>
+ * <li>Changes are read in batches of db.replication.batchSize, and collapsed into their net effect per row (e.g. a row
+ * 	inserted and then updated is shipped once, with its current image).</li>
+ * <li>Every batch is applied on the target within a single transaction, using JDBC batching, along with the new 
+ * 	watermark; thus, a batch is either applied (and never again) or not at all.</li>
+ * <li>Conflicts are detected by UUID: a row inserted on the primary which already exists on the target, or a row 
+ * 	updated on the primary which is missing on the target. They're logged and counted, and resolved as per local 
+ * 	property db.replication.onConflict: overwrite (primary wins) or skip (target row left as is).</li>
+ * <li>Log sequence numbers are taken when changes are captured, but transactions commit in any order: a change may 
+ * 	show up in the log after others with a higher sequence number were shipped. Sequence numbers skipped while 
+ * 	shipping are kept track of as gaps on the target, and changes showing up within them later are shipped then. 
+ * 	Gaps are given up on (as left by rolled back transactions) after db.replication.gapTimeout millis, so 
+ * 	transactions changing replicated tables mustn't last longer than that.</li>
+ * </ul>
+ * Shipped changes are purged from the log once shipped to every target, short of the lowest gap.
  * @author a-zz
  */
 public class DbReplicator {
 
+	private static AppLogger logger = new AppLogger(DbReplicator.class);
+	// -- Resolved on first use, as identifiers may be got before the database management facility is initialized
+	private static volatile DbReplicatorDaInterface dao;
+	
+	private static LinkedHashMap<String,Target> targets = new LinkedHashMap<String,Target>();
+	private static String source;
+	private static int batchSize;
+	private static boolean overwriteOnConflict;
+	private static long gapTimeout;
+	private static String replicaUrl;
+	
+	// -- Time-ordered UUIDs: last (millis << 12 | counter) issued
+	private static final AtomicLong uuidClock = new AtomicLong(0);
+	
+	/**
+	 * Returns the data access object for class and current database engine, instantiating it on first use.
+	 * @return (DbReplicatorDaInterface)
+	 * @throws SQLException If it can't be instantiated.
+	 */
+	private static DbReplicatorDaInterface dao() throws SQLException {
+	
+		if(dao==null) {
+			try {
+				dao = (DbReplicatorDaInterface)DaInterface.getImplClassFor(DbReplicator.class).newInstance();
+			}
+			catch(Exception e) {
+				throw new SQLException("Unable to instantiate data access implementation class for " + 
+						DbReplicator.class + ": " + e.getMessage());
+			}
+		}
+		return dao;
+	}
+	
 	/**
-	 * Gets a unique universal identifier for replicable objects (database table rows)
-	 * @return
+	 * Gets a unique universal identifier for replicable objects (database table rows), as a string. Identifiers are 
+	 * 	time-ordered (see newUUID()), so they sort lexicographically in generation order.
+	 * @return (String)
 	 */
 	public static String getUUID() {
 		
+		return newUUID().toString();
+	}
+	
+	/**
+	 * Gets a random (version 4) universal identifier, for uses needing it to be unpredictable rather than ordered.
+	 * @return (String)
+	 */
+	public static String getRandomUUID() {
+		
 		return UUID.randomUUID().toString();
 	}
 	
+	/**
+	 * Gets a new time-ordered (version 7) universal identifier: a 48-bit Unix timestamp in millis, followed by a 12-bit
+	 * 	counter and 62 random bits. As identifiers increase with time, rows keyed by them are inserted near each other
+	 * 	in the primary key index, rather than scattered all over it as with random identifiers.
+	 * 	<br/><br/>
+	 * Identifiers are strictly increasing within the JVM: those got within the same millisecond are ordered by the 
+	 * 	counter (should it overflow, the timestamp is moved a millisecond forward). Issuing them is lock-free.
+	 * @return (UUID)
+	 */
+	public static UUID newUUID() {
+		
+		long next;
+		while(true) {
+			long prev = uuidClock.get();
+			long now = System.currentTimeMillis() << 12;
+			// A new millisecond starts the counter at a random value in its lower half, leaving room to increase
+			next = now>(prev | 0xFFFL)?now | ThreadLocalRandom.current().nextInt(0x800):prev + 1;
+			if(uuidClock.compareAndSet(prev, next))
+				break;
+		}
+		long msb = ((next >>> 12) << 16) | 0x7000L | (next & 0xFFFL);
+		long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
+	}
+	
+	/**
+	 * Returns the generation time of a time-ordered (version 7) universal identifier.
+	 * @param uuid (UUID)
+	 * @return (long) Time in millis since January 1, 1970, 00:00:00 GMT.
+	 * @throws IllegalArgumentException If the identifier isn't version 7.
+	 */
+	public static long getTimestamp(UUID uuid) {
+		
+		if(uuid.version()!=7)
+			throw new IllegalArgumentException("Not a time-ordered (version 7) UUID: " + uuid);
+		return uuid.getMostSignificantBits() >>> 16;
+	}
+	
+	/**
+	 * Converts a universal identifier into its compact binary form, for 16-byte binary columns (e.g. binary(16)). 
+	 * 	Byte order is big-endian, so binary comparison keeps time-ordered identifiers in generation order.
+	 * @param uuid (UUID)
+	 * @return (byte[]) 16 bytes.
+	 * @see SqlParameters#setUUID(int, UUID)
+	 */
+	public static byte[] toBytes(UUID uuid) {
+		
+		byte[] bytes = new byte[16];
+		long msb = uuid.getMostSignificantBits();
+		long lsb = uuid.getLeastSignificantBits();
+		for(int i=0; i<8; i++) {
+			bytes[i] = (byte)(msb >>> (56 - 8*i));
+			bytes[i+8] = (byte)(lsb >>> (56 - 8*i));
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Converts the binary form of a universal identifier back.
+	 * @param bytes (byte[]) 16 bytes, as returned by toBytes().
+	 * @return (UUID)
+	 * @throws IllegalArgumentException If bytes aren't 16.
+	 */
+	public static UUID fromBytes(byte[] bytes) {
+		
+		if(bytes.length!=16)
+			throw new IllegalArgumentException("A binary UUID takes 16 bytes, not " + bytes.length);
+		long msb = 0;
+		long lsb = 0;
+		for(int i=0; i<8; i++) {
+			msb = (msb << 8) | (bytes[i] & 0xFF);
+			lsb = (lsb << 8) | (bytes[i+8] & 0xFF);
+		}
+		return new UUID(msb, lsb);
+	}
+	
+	/**
+	 * Sets up replication targets from the local configuration. Invoked by DbManager.
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	static void initialize() throws SQLException, IOException {
+		
+		source = LocalConfiguration.getProperty("db.url");
+		batchSize = LocalConfiguration.getIntProperty("db.replication.batchSize", 500);
+		overwriteOnConflict = !LocalConfiguration.getProperty("db.replication.onConflict", "overwrite").equals("skip");
+		gapTimeout = LocalConfiguration.getLongProperty("db.replication.gapTimeout", 3600000);
+		replicaUrl = LocalConfiguration.getProperty("db.replica.url", "");
+		
+		LinkedHashMap<String,Target> newTargets = new LinkedHashMap<String,Target>();
+		for(String name : LocalConfiguration.getProperty("db.replication.targets", "").split(",")) {
+			name = name.trim();
+			if(name.isEmpty())
+				continue;
+			String url = LocalConfiguration.getProperty("db.replication." + name + ".url", "");
+			if(url.isEmpty())
+				throw new SQLException("No URL set for replication target " + name);
+			try {
+				if(RdbmsSupport.registerDriver(url)!=DbManager.getDatabaseEngine())
+					throw new SQLException("Replication target " + name + " engine differs from primary's: " + url);
+			}
+			catch(ClassNotFoundException e) {
+				throw new SQLException("Can't load database driver for replication target " + name + ": " + 
+						e.getMessage());
+			}
+			// Connections are opened on demand, so an unavailable target doesn't prevent booting
+			SqlConnectionPool pool = new SqlConnectionPool("replication " + name, url, 
+					LocalConfiguration.getProperty("db.replication." + name + ".usr", ""), 
+					LocalConfiguration.getProperty("db.replication." + name + ".pwd", ""), 0, 1,
+					LocalConfiguration.getLongProperty("db.pool.idleTimeout", 300000),
+					LocalConfiguration.getLongProperty("db.pool.borrowTimeout", 10000), true, 0);
+			newTargets.put(name, new Target(name, url, pool));
+		}
+		targets = newTargets;
+		if(!targets.isEmpty())
+			logger.debug("Replication targets: " + targets.keySet());
+	}
+	
+	/**
+	 * Closes the connections to replication targets. Invoked by DbManager.
+	 */
+	static synchronized void shutdown() {
+		
+		for(Target target : targets.values())
+			target.pool.close();
+	}
+	
+	/**
+	 * Starts capturing the changes to a table for replication. Database update functions should call this when 
+	 * 	creating replicated tables.
+	 * @param table (String) The table name. It must have a UUID primary key column.
+	 * @param t (SqlTransaction) The transaction to run within.
+	 * @param columns (String...) The columns whose updates are to be replicated; none for every column. Updates to 
+	 * 	other columns (e.g. bookkeeping ones) aren't shipped on their own, only along with replicated ones.
+	 * @throws SQLException
+	 */
+	public static void enableCapture(String table, SqlTransaction t, String... columns) throws SQLException {
+		
+		dao().enableCapture(table, columns, t);
+	}
+	
+	/**
+	 * Stops capturing the changes to a table for replication.
+	 * @param table (String) The table name.
+	 * @param t (SqlTransaction) The transaction to run within.
+	 * @throws SQLException
+	 */
+	public static void disableCapture(String table, SqlTransaction t) throws SQLException {
+		
+		dao().disableCapture(table, t);
+	}
+	
+	/**
+	 * Ships pending changes to every replication target, and purges the replication log afterwards. A failing target
+	 * 	doesn't prevent shipping to the others.
+	 * @return (long) Number of changes shipped, over every target.
+	 * @throws SQLException If shipping to any target failed (once every target was tried).
+	 */
+	public static synchronized long replicate() throws SQLException {
+		
+		if(targets.isEmpty())
+			return 0;
+		
+		long shipped = 0;
+		SQLException failure = null;
+		for(Target target : targets.values()) {
+			try {
+				shipped += replicate(target);
+			}
+			catch(SQLException e) {
+				logger.error("Replication to target " + target.name + " failed: " + e.getMessage());
+				failure = e;
+			}
+			if(target.url.equals(replicaUrl))
+				DbManager.reportReplicaLag(target.lag);
+		}
+		
+		// Changes shipped to every target are no longer needed
+		long purgeUpTo = Long.MAX_VALUE;
+		for(Target target : targets.values())
+			purgeUpTo = Math.min(purgeUpTo, target.safePoint);
+		if(purgeUpTo>=0) {
+			SqlTransaction t = null;
+			try {
+				t = new SqlTransaction("replication log purge", true);
+				dao().purgeChanges(purgeUpTo, t);
+			}
+			finally {
+				t.close();
+			}
+		}
+		
+		if(failure!=null)
+			throw failure;
+		return shipped;
+	}
+	
+	/**
+	 * Returns the replication targets, e.g. for monitoring purposes.
+	 * @return (Collection<Target>)
+	 */
+	public static Collection<Target> getTargets() {
+		
+		return Collections.unmodifiableCollection(targets.values());
+	}
+	
+	private static long replicate(Target target) throws SQLException {
+		
+		long started = System.currentTimeMillis();
+		long shipped = 0;
+		PooledConnection pc = target.pool.borrow();
+		Connection conn = pc.getConnection();
+		Timestamp pending = null;
+		try {
+			conn.setAutoCommit(false);
+			long watermark = dao().getAppliedWatermark(conn, source);
+			TreeMap<Long,Gap> gaps = new TreeMap<Long,Gap>();
+			for(Gap gap : dao().getAppliedGaps(conn, source))
+				gaps.put(gap.fromSeq, gap);
+			conn.commit();
+			target.watermark = watermark;
+			
+			// 1. Gaps under the watermark: log sequence numbers taken by transactions not committed yet when shipping 
+			//	past them (they're not committed in sequence order), or rolled back. Changes committed since are 
+			//	shipped now; gaps waited for longer than db.replication.gapTimeout are given up on
+			boolean expired = false;
+			for(Iterator<Gap> it = gaps.values().iterator(); it.hasNext(); ) {
+				Gap gap = it.next();
+				if(started-gap.seen>gapTimeout) {
+					logger.debug("Replication to " + target.name + ": gap " + gap + " given up on");
+					it.remove();
+					expired = true;
+				}
+			}
+			for(Gap gap : new ArrayList<Gap>(gaps.values())) {
+				long afterSeq = gap.fromSeq - 1;
+				while(true) {
+					List<Change> changes = read(target, afterSeq, gap.toSeq);
+					if(changes.isEmpty())
+						break;
+					for(Change change : changes)
+						fill(gaps, change.seq);
+					ship(target, conn, changes, watermark, gaps);
+					shipped += changes.size();
+					if(changes.size()<batchSize)
+						break;
+					afterSeq = changes.get(changes.size()-1).seq;
+				}
+			}
+			
+			// 2. Changes past the watermark, in batches; sequence numbers skipped are kept track of as gaps
+			while(true) {
+				List<Change> changes = read(target, watermark, Long.MAX_VALUE);
+				if(changes.isEmpty()) {
+					pending = null;
+					break;
+				}
+				pending = changes.get(0).changed;
+				long expected = watermark + 1;
+				for(Change change : changes) {
+					// Nothing was shipped yet: changes purged before the target was set up aren't gaps (only those 
+					//	before the first change, though)
+					if(change.seq>expected && (watermark>=0 || change!=changes.get(0)))
+						gaps.put(expected, new Gap(expected, change.seq - 1, started));
+					expected = change.seq + 1;
+				}
+				watermark = changes.get(changes.size()-1).seq;
+				ship(target, conn, changes, watermark, gaps);
+				shipped += changes.size();
+				if(changes.size()<batchSize) {
+					pending = null;
+					break;
+				}
+			}
+			
+			// Gaps given up on are saved even if nothing was shipped, so the log can be purged past them
+			if(expired && shipped==0)
+				ship(target, conn, Collections.<Change>emptyList(), watermark, gaps);
+			conn.setAutoCommit(true);
+			pc.release();
+			pc = null;
+		}
+		finally {
+			if(pc!=null)
+				pc.discard();
+			target.lastRun = started;
+			target.lag = pending==null?0:Math.max(0, System.currentTimeMillis()-pending.getTime());
+		}
+		
+		if(shipped>0)
+			logger.debug("Replication to " + target.name + ": " + shipped + " changes shipped in " + 
+					(System.currentTimeMillis()-started) + "ms; watermark " + target.watermark + ", " + 
+					target.gaps + " gaps");
+		return shipped;
+	}
+	
+	private static List<Change> read(Target target, long afterSeq, long upToSeq) throws SQLException {
+		
+		SqlTransaction t = null;
+		try {
+			t = new SqlTransaction("replication to " + target.name, true);
+			return dao().getChanges(afterSeq, upToSeq, batchSize, t);
+		}
+		finally {
+			t.close();
+		}
+	}
+	
+	private static void fill(TreeMap<Long,Gap> gaps, long seq) {
+		
+		// A change found within a gap splits it
+		Map.Entry<Long,Gap> entry = gaps.floorEntry(seq);
+		if(entry==null || entry.getValue().toSeq<seq)
+			return;
+		Gap gap = gaps.remove(entry.getKey());
+		if(gap.fromSeq<seq)
+			gaps.put(gap.fromSeq, new Gap(gap.fromSeq, seq - 1, gap.seen));
+		if(gap.toSeq>seq)
+			gaps.put(seq + 1, new Gap(seq + 1, gap.toSeq, gap.seen));
+	}
+	
+	private static void ship(Target target, Connection conn, List<Change> changes, long watermark, 
+			TreeMap<Long,Gap> gaps) throws SQLException {
+		
+		// 1. Read the current image of rows changed
+		LinkedHashMap<String,TableChanges> tables = new LinkedHashMap<String,TableChanges>();
+		for(Change change : changes) {
+			TableChanges tableChanges = tables.get(change.table);
+			if(tableChanges==null) {
+				tableChanges = new TableChanges();
+				tables.put(change.table, tableChanges);
+			}
+			tableChanges.add(change);
+		}
+		if(!tables.isEmpty()) {
+			SqlTransaction t = null;
+			try {
+				t = new SqlTransaction("replication to " + target.name, true);
+				for(Map.Entry<String,TableChanges> entry : tables.entrySet())
+					entry.getValue().read(entry.getKey(), t);
+			}
+			finally {
+				t.close();
+			}
+		}
+		
+		// 2. Apply them on the target, along with the new watermark and gaps
+		try {
+			for(Map.Entry<String,TableChanges> entry : tables.entrySet())
+				target.conflicts += entry.getValue().apply(entry.getKey(), target, conn);
+			dao().saveAppliedWatermark(conn, source, watermark);
+			dao().saveAppliedGaps(conn, source, gaps.values());
+			conn.commit();
+		}
+		catch(SQLException e) {
+			conn.rollback();
+			throw e;
+		}
+		target.watermark = watermark;
+		target.gaps = gaps.size();
+		target.shipped += changes.size();
+		
+		// 3. Keep track on the primary of the point up to which every change was shipped, for log purging: changes 
+		//	still to come within gaps mustn't be purged
+		target.safePoint = gaps.isEmpty()?watermark:gaps.firstKey() - 1;
+		SqlTransaction t = null;
+		try {
+			t = new SqlTransaction("replication watermark for " + target.name, true);
+			dao().saveWatermark(target.name, target.safePoint, t);
+		}
+		finally {
+			t.close();
+		}
+	}
+	
+	/**
+	 * The net changes to a table within a batch
+	 */
+	private static class TableChanges {
+		
+		// -- First and last operation per row
+		private LinkedHashMap<String,char[]> operations = new LinkedHashMap<String,char[]>();
+		private List<String> upserts = new ArrayList<String>();
+		private List<String> deletes = new ArrayList<String>();
+		private RowBatch rows;
+		
+		private void add(Change change) {
+			
+			char[] ops = operations.get(change.uuid);
+			if(ops==null)
+				operations.put(change.uuid, new char[] { change.operation, change.operation });
+			else
+				ops[1] = change.operation;
+		}
+		
+		private void read(String table, SqlTransaction t) throws SQLException {
+			
+			for(Map.Entry<String,char[]> entry : operations.entrySet()) {
+				char[] ops = entry.getValue();
+				if(ops[1]!=Change.DELETE)
+					upserts.add(entry.getKey());
+				else if(ops[0]!=Change.INSERT)
+					// Rows inserted and deleted within the batch never reached the target
+					deletes.add(entry.getKey());
+			}
+			if(!upserts.isEmpty())
+				rows = dao().readRows(table, upserts, t);
+		}
+		
+		private int apply(String table, Target target, Connection conn) throws SQLException {
+			
+			List<String> uuids = new ArrayList<String>(upserts);
+			uuids.addAll(deletes);
+			if(uuids.isEmpty())
+				return 0;
+			Set<String> existing = dao().findRows(conn, table, uuids);
+			
+			int conflicts = 0;
+			if(rows!=null) {
+				int uuidColumn = rows.getColumnIndex("UUID");
+				for(Iterator<Object[]> it = rows.rows.iterator(); it.hasNext(); ) {
+					String uuid = it.next()[uuidColumn].toString();
+					boolean inserted = operations.get(uuid)[0]==Change.INSERT;
+					if(inserted==existing.contains(uuid)) {
+						conflicts++;
+						logger.warn("Replication conflict on " + target.name + ": " + table + " row " + uuid + 
+								(inserted?" inserted on primary already exists":" updated on primary is missing") +
+								" on target; " + (overwriteOnConflict?"overwritten":"skipped"));
+						if(!overwriteOnConflict)
+							it.remove();
+					}
+				}
+				dao().upsertRows(conn, rows, existing);
+			}
+			
+			List<String> toDelete = new ArrayList<String>();
+			for(String uuid : deletes)
+				if(existing.contains(uuid))
+					toDelete.add(uuid);
+			if(!toDelete.isEmpty())
+				dao().deleteRows(conn, table, toDelete);
+			return conflicts;
+		}
+	}
+	
+	/**
+	 * A change captured in the replication log
+	 */
+	public static class Change {
+		
+		public static final char INSERT = 'I';
+		public static final char UPDATE = 'U';
+		public static final char DELETE = 'D';
+		
+		private long seq;
+		private String table;
+		private String uuid;
+		private char operation;
+		private Timestamp changed;
+		
+		public Change(long seq, String table, String uuid, char operation, Timestamp changed) {
+			
+			this.seq = seq;
+			this.table = table;
+			this.uuid = uuid;
+			this.operation = operation;
+			this.changed = changed;
+		}
+		
+		/**
+		 * Returns the log sequence number.
+		 * @return (long)
+		 */
+		public long getSeq() {
+			
+			return seq;
+		}
+		
+		/**
+		 * Returns the table changed.
+		 * @return (String)
+		 */
+		public String getTable() {
+			
+			return table;
+		}
+		
+		/**
+		 * Returns the UUID of the row changed.
+		 * @return (String)
+		 */
+		public String getUuid() {
+			
+			return uuid;
+		}
+		
+		/**
+		 * Returns the operation: INSERT, UPDATE or DELETE.
+		 * @return (char)
+		 */
+		public char getOperation() {
+			
+			return operation;
+		}
+		
+		/**
+		 * Returns the time of change.
+		 * @return (Timestamp)
+		 */
+		public Timestamp getChanged() {
+			
+			return changed;
+		}
+	}
+	
+	/**
+	 * A range of log sequence numbers skipped while shipping changes to a target
+	 */
+	public static class Gap {
+		
+		private long fromSeq;
+		private long toSeq;
+		private long seen;
+		
+		public Gap(long fromSeq, long toSeq, long seen) {
+			
+			this.fromSeq = fromSeq;
+			this.toSeq = toSeq;
+			this.seen = seen;
+		}
+		
+		/**
+		 * Returns the first log sequence number in the gap.
+		 * @return (long)
+		 */
+		public long getFromSeq() {
+			
+			return fromSeq;
+		}
+		
+		/**
+		 * Returns the last log sequence number in the gap (included).
+		 * @return (long)
+		 */
+		public long getToSeq() {
+			
+			return toSeq;
+		}
+		
+		/**
+		 * Returns the time the gap was first seen.
+		 * @return (long) Time in millis since January 1, 1970, 00:00:00 GMT.
+		 */
+		public long getSeen() {
+			
+			return seen;
+		}
+		
+		public String toString() {
+			
+			return fromSeq==toSeq?Long.toString(fromSeq):fromSeq + "-" + toSeq;
+		}
+	}
+	
+	/**
+	 * A batch of row images read from a table
+	 */
+	public static class RowBatch {
+		
+		private String table;
+		private String[] columns;
+		private int[] sqlTypes;
+		private List<Object[]> rows = new ArrayList<Object[]>();
+		
+		public RowBatch(String table, String[] columns, int[] sqlTypes) {
+			
+			this.table = table;
+			this.columns = columns;
+			this.sqlTypes = sqlTypes;
+		}
+		
+		/**
+		 * Returns the table name.
+		 * @return (String)
+		 */
+		public String getTable() {
+			
+			return table;
+		}
+		
+		/**
+		 * Returns the column names.
+		 * @return (String[])
+		 */
+		public String[] getColumns() {
+			
+			return columns;
+		}
+		
+		/**
+		 * Returns the column SQL types (see java.sql.Types).
+		 * @return (int[])
+		 */
+		public int[] getSqlTypes() {
+			
+			return sqlTypes;
+		}
+		
+		/**
+		 * Returns the position of a column.
+		 * @param column (String) The column name.
+		 * @return (int) From 0; -1 if there's no such column.
+		 */
+		public int getColumnIndex(String column) {
+			
+			for(int i=0; i<columns.length; i++)
+				if(columns[i].equalsIgnoreCase(column))
+					return i;
+			return -1;
+		}
+		
+		/**
+		 * Returns the rows, as value arrays in column order. The list may be modified.
+		 * @return (List<Object[]>)
+		 */
+		public List<Object[]> getRows() {
+			
+			return rows;
+		}
+	}
+	
+	/**
+	 * A replication target, with its replication status
+	 */
+	public static class Target {
+		
+		private String name;
+		private String url;
+		private SqlConnectionPool pool;
+		private volatile long watermark = -1;
+		private volatile long safePoint = -1;
+		private volatile int gaps = 0;
+		private volatile long lag = 0;
+		private volatile long shipped = 0;
+		private volatile long conflicts = 0;
+		private volatile long lastRun = 0;
+		
+		private Target(String name, String url, SqlConnectionPool pool) {
+			
+			this.name = name;
+			this.url = url;
+			this.pool = pool;
+			SqlTransaction t = null;
+			try {
+				t = new SqlTransaction("replication watermark for " + name, true);
+				safePoint = dao().getWatermark(name, t);
+				watermark = safePoint;
+			}
+			catch(SQLException e) {
+				logger.warn("Couldn't read replication watermark for " + name + ": " + e.getMessage());
+			}
+			finally {
+				if(t!=null)
+					t.close();
+			}
+		}
+		
+		/**
+		 * Returns the target name.
+		 * @return (String)
+		 */
+		public String getName() {
+			
+			return name;
+		}
+		
+		/**
+		 * Returns the target database URL.
+		 * @return (String)
+		 */
+		public String getUrl() {
+			
+			return url;
+		}
+		
+		/**
+		 * Returns the highest log sequence number shipped to the target.
+		 * @return (long) -1 if nothing was shipped yet.
+		 */
+		public long getWatermark() {
+			
+			return watermark;
+		}
+		
+		/**
+		 * Returns the log sequence number up to which every change was shipped to the target (i.e. short of the 
+		 * 	lowest gap under the watermark), up to which the log may be purged.
+		 * @return (long) -1 if nothing was shipped yet.
+		 */
+		public long getSafePoint() {
+			
+			return safePoint;
+		}
+		
+		/**
+		 * Returns the number of gaps under the watermark, i.e. ranges of log sequence numbers skipped while shipping, 
+		 * 	as taken by transactions not committed yet (or rolled back).
+		 * @return (int)
+		 */
+		public int getGaps() {
+			
+			return gaps;
+		}
+		
+		/**
+		 * Returns how far behind the target was left by the last replication run: the age of the oldest change not 
+		 * 	shipped.
+		 * @return (long) Millis; 0 if the target was left up to date.
+		 */
+		public long getLag() {
+			
+			return lag;
+		}
+		
+		/**
+		 * Returns the number of changes shipped since boot.
+		 * @return (long)
+		 */
+		public long getShipped() {
+			
+			return shipped;
+		}
+		
+		/**
+		 * Returns the number of conflicts detected since boot.
+		 * @return (long)
+		 */
+		public long getConflicts() {
+			
+			return conflicts;
+		}
+		
+		/**
+		 * Returns the time of the last replication run.
+		 * @return (long) Time in millis since January 1, 1970, 00:00:00 GMT; 0 if never run.
+		 */
+		public long getLastRun() {
+			
+			return lastRun;
+		}
+		
+		public String toString() {
+			
+			return name + " (watermark " + watermark + ", gaps " + gaps + ", lag " + lag + "ms, shipped " + shipped + 
+					", conflicts " + conflicts + ")";
+		}
+	}
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
@@ -5,21 +5,51 @@
 
 package io.github.azz.sql;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import io.github.azz.config.LocalConfiguration;
 import io.github.azz.logging.AppLogger;
 import io.github.azz.sql.da.DbUpdaterDaInterface;
 
 /**
  * Online database updater. Keeps data model in sync with application releases.
+ * 	<br/><br/>
+ * Every database version is brought about by a migration, made up of (either or both, in this order):
+ * <ol>
+ * <li>The updateToVersion#(Boolean, SqlTransaction) method of the data access implementation class (see 
+ * 	DbUpdaterDaInterface).</li>
+ * <li>A SQL script, found in the classpath as io/github/azz/sql/migrations/DATABASE_ENGINE/V#.sql (see Script).</li>
+ * </ol>
+ * Every migration is run within a single transaction, along with its record in the DBVERSION table (including its
+ * 	duration and, for scripts, a checksum), so it's either fully applied or not at all. Note that some engines (e.g.
+ * 	HSQLDB) commit DDL statements implicitly: a failing migration can't roll back DDL already run on them, so such 
+ * 	migrations should be written to be re-runnable.
+ * 	<br/><br/>
+ * Steps too long to be run within a migration (e.g. building indexes on large tables) can be deferred, to be run once 
+ * 	every migration is applied, each one on its own: from scripts, by a "-- @deferred" line before the statement; from
+ * 	migration methods, by calling defer(). Deferred steps are run at boot or, if local property 
+ * 	db.update.deferredAsync is set to y, in background.
  * @author a-zz
  */
 public class DbUpdater {
 
-	private static final int appDbVersion = 0;
+	private static final int appDbVersion = 2;
+	private static final String scriptPath = "migrations/";
 	private static AppLogger logger;
 	private final static DbUpdaterDaInterface dao = init();
+	private static List<String> deferredSteps = Collections.synchronizedList(new ArrayList<String>());
 	
 	/**
 	 * Runs initialization code:
@@ -43,7 +73,7 @@ public class DbUpdater {
 	
 	/**
 	 * Checks the current database version. If it's lagging behind the current application DB version, an update process
-	 * 	is launched automagically.
+	 * 	is launched automagically. Also warns about scripts modified after being applied.
 	 * @param unattended (boolean) Sets wether the check & update process is launched unattendedly (e.g. at application
 	 * 	boot) or manually by an operator
 	 * @throws SQLException
@@ -51,20 +81,19 @@ public class DbUpdater {
 	public static void checkVersionAndUpdate(Boolean unattended) throws SQLException {
 		
 		int currentDbVersion = dao.getCurrentDbVersion();
+		if(currentDbVersion>=0)
+			checkScripts(currentDbVersion);
+		
 		if(currentDbVersion<appDbVersion) {
-			logger.debug("Current DB version behind application DB version: " 
+			logger.info("Current DB version behind application DB version: " 
 					+ currentDbVersion + " < " + appDbVersion + " - Updating now");
 			
-			for(int v = currentDbVersion+1; v<=appDbVersion; v++) {
-				try {
-					Method method = dao.getClass().getMethod("updateToVersion" + v, Boolean.class);
-					method.invoke(dao, unattended);
-					logger.debug("Database updated to version " + v);
-				}
-				catch(Exception e) {
-					throw new SQLException("Couldn't update to version " + v + ": " + e.getMessage());
-				}
-			}
+			long started = System.currentTimeMillis();
+			for(int v = currentDbVersion+1; v<=appDbVersion; v++)
+				update(v, unattended);
+			logger.info("Database update to version " + appDbVersion + " in " + 
+					(System.currentTimeMillis() - started) + "ms");
+			runDeferredSteps();
 		}
 		else if(currentDbVersion>appDbVersion) 
 			throw new SQLException("Current DB version **ahead** of application DB version!!! " +
@@ -72,5 +101,308 @@ public class DbUpdater {
 		else
 			logger.debug("Current DB version in sync with application: " + appDbVersion);
 	}
+	
+	/**
+	 * Defers a SQL statement, to be run once every pending migration is applied, on its own. Meant to be called by 
+	 * 	migration methods, for long-running steps (e.g. building indexes on large tables).
+	 * @param sql (String) The SQL statement.
+	 */
+	public static void defer(String sql) {
+		
+		deferredSteps.add(sql);
+	}
+	
+	private static void update(int v, Boolean unattended) throws SQLException {
+		
+		Method method = null;
+		boolean legacy = false;
+		try {
+			method = dao.getClass().getMethod("updateToVersion" + v, Boolean.class, SqlTransaction.class);
+		}
+		catch(NoSuchMethodException e) {
+			try {
+				// Migration methods with no transaction run their own and record the version themselves
+				method = dao.getClass().getMethod("updateToVersion" + v, Boolean.class);
+				legacy = true;
+			}
+			catch(NoSuchMethodException ee) {
+				// No method for this version
+			}
+		}
+		Script script = Script.load(v);
+		if(method==null && script==null)
+			throw new SQLException("Couldn't update to version " + v + ": no migration found");
+		
+		logger.info("Updating database to version " + v + 
+				(script!=null && script.getDescription()!=null?": " + script.getDescription():""));
+		long started = System.currentTimeMillis();
+		if(legacy) {
+			if(script!=null)
+				throw new SQLException("Couldn't update to version " + v + ": migration methods with no transaction " +
+						"can't be combined with scripts");
+			try {
+				method.invoke(dao, unattended);
+			}
+			catch(Exception e) {
+				throw new SQLException("Couldn't update to version " + v + ": " + getMessage(e));
+			}
+		}
+		else {
+			SqlTransaction t = null;
+			try {
+				t = new SqlTransaction("db update to version " + v);
+				String description = null;
+				if(method!=null)
+					description = (String)method.invoke(dao, unattended, t);
+				if(script!=null) {
+					t.statements(script.getStatements());
+					deferredSteps.addAll(script.getDeferredStatements());
+					if(script.getDescription()!=null)
+						description = script.getDescription();
+				}
+				dao.saveVersionInfo(v, description!=null?description:"Version " + v, 
+						script!=null?script.getChecksum():null, System.currentTimeMillis() - started, t);
+				t.commit();
+			}
+			catch(Exception e) {
+				// Rolled back on closing
+				throw new SQLException("Couldn't update to version " + v + ": " + getMessage(e) + 
+						(dao.isDdlTransactional()?"":" (DDL statements already run weren't rolled back)"));
+			}
+			finally {
+				if(t!=null)
+					t.close();
+			}
+		}
+		logger.info("Database updated to version " + v + " in " + (System.currentTimeMillis() - started) + "ms");
+	}
+	
+	private static void runDeferredSteps() {
+		
+		final List<String> steps;
+		synchronized(deferredSteps) {
+			steps = new ArrayList<String>(deferredSteps);
+			deferredSteps.clear();
+		}
+		if(steps.isEmpty())
+			return;
+		
+		Runnable run = () -> {
+			for(int i=0; i<steps.size(); i++) {
+				String sql = steps.get(i);
+				long started = System.currentTimeMillis();
+				SqlTransaction t = null;
+				try {
+					t = new SqlTransaction("db update deferred step", true);
+					t.statement(sql);
+					logger.info("Database update deferred step " + (i+1) + "/" + steps.size() + " run in " + 
+							(System.currentTimeMillis() - started) + "ms: " + sql);
+				}
+				catch(SQLException e) {
+					logger.error("Database update deferred step failed, it should be run manually: " + sql + ": " + 
+							e.getMessage());
+				}
+				finally {
+					if(t!=null)
+						t.close();
+				}
+			}
+		};
+		
+		boolean async = false;
+		try {
+			async = LocalConfiguration.getProperty("db.update.deferredAsync", "n").equals("y");
+		}
+		catch(IOException e) {
+			// Run synchronously
+		}
+		if(async) {
+			logger.info("Database update: " + steps.size() + " deferred steps to be run in background");
+			SqlAsync.call(() -> {
+				run.run();
+				return null;
+			});
+		}
+		else
+			run.run();
+	}
+	
+	private static void checkScripts(int currentDbVersion) {
+		
+		try {
+			Map<Integer,String> checksums = dao.getVersionChecksums();
+			for(Map.Entry<Integer,String> entry : checksums.entrySet()) {
+				if(entry.getValue()==null || entry.getKey()>currentDbVersion)
+					continue;
+				Script script = Script.load(entry.getKey());
+				if(script!=null && !script.getChecksum().equals(entry.getValue()))
+					logger.warn("Database update script for version " + entry.getKey() + " was modified after being " +
+							"applied; changes won't be applied");
+			}
+		}
+		catch(SQLException e) {
+			logger.warn("Couldn't check database update scripts: " + e.getMessage());
+		}
+	}
+	
+	private static String getMessage(Exception e) {
+		
+		Throwable cause = e instanceof InvocationTargetException?e.getCause():e;
+		return cause.getMessage();
+	}
+	
+	/**
+	 * A SQL migration script: a sequence of SQL statements, each one ended by a semicolon. Line (--) and block comments
+	 * 	are allowed; the first line comment, if any, is taken as the script description. A "-- @deferred" line marks 
+	 * 	the statement following it as deferred.
+	 */
+	static class Script {
+		
+		private static final String deferredMark = "@deferred";
+		
+		private String description;
+		private List<String> statements = new ArrayList<String>();
+		private List<String> deferredStatements = new ArrayList<String>();
+		private String checksum;
+		
+		/**
+		 * Loads the script for a version and the current database engine.
+		 * @param version (int)
+		 * @return (Script) null if there's no script for the version.
+		 * @throws SQLException If the script can't be read.
+		 */
+		static Script load(int version) throws SQLException {
+			
+			String path = scriptPath + DbManager.getDatabaseEngine() + "/V" + version + ".sql";
+			InputStream is = DbUpdater.class.getResourceAsStream(path);
+			if(is==null)
+				return null;
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while((n = is.read(buffer))>0)
+					bytes.write(buffer, 0, n);
+				return new Script(bytes.toByteArray());
+			}
+			catch(IOException e) {
+				throw new SQLException("Can't read database update script " + path + ": " + e.getMessage());
+			}
+			finally {
+				try {
+					is.close();
+				}
+				catch(IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+		
+		private Script(byte[] content) {
+			
+			checksum = sha256(content);
+			String sql = new String(content, StandardCharsets.UTF_8);
+			StringBuilder statement = new StringBuilder();
+			boolean deferred = false;
+			int len = sql.length();
+			for(int i=0; i<len; i++) {
+				char c = sql.charAt(i);
+				if(c=='-' && i+1<len && sql.charAt(i+1)=='-') {
+					int end = sql.indexOf('\n', i);
+					if(end<0)
+						end = len;
+					String comment = sql.substring(i+2, end).trim();
+					if(comment.equals(deferredMark))
+						deferred = true;
+					else if(description==null && statements.isEmpty() && deferredStatements.isEmpty() && 
+							statement.toString().trim().isEmpty() && !comment.isEmpty())
+						description = comment;
+					i = end;
+				}
+				else if(c=='/' && i+1<len && sql.charAt(i+1)=='*') {
+					int end = sql.indexOf("*/", i+2);
+					i = end<0?len:end+1;
+				}
+				else if(c=='\'' || c=='"') {
+					// Quoted literal or identifier, copied as is
+					int end = sql.indexOf(c, i+1);
+					while(end>0 && end+1<len && sql.charAt(end+1)==c)
+						end = sql.indexOf(c, end+2);
+					end = end<0?len-1:end;
+					statement.append(sql, i, end+1);
+					i = end;
+				}
+				else if(c==';') {
+					add(statement.toString().trim(), deferred);
+					statement.setLength(0);
+					deferred = false;
+				}
+				else
+					statement.append(c);
+			}
+			add(statement.toString().trim(), deferred);
+		}
+		
+		private void add(String statement, boolean deferred) {
+			
+			if(statement.isEmpty())
+				return;
+			if(deferred)
+				deferredStatements.add(statement);
+			else
+				statements.add(statement);
+		}
+		
+		private static String sha256(byte[] content) {
+			
+			try {
+				byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+				StringBuilder sb = new StringBuilder(64);
+				for(byte b : digest)
+					sb.append(String.format("%02x", b));
+				return sb.toString();
+			}
+			catch(NoSuchAlgorithmException e) {
+				// Every Java platform is required to support SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		/**
+		 * Returns the script description.
+		 * @return (String) null if there's none.
+		 */
+		String getDescription() {
+			
+			return description;
+		}
+		
+		/**
+		 * Returns the statements run within the migration transaction.
+		 * @return (List<String>)
+		 */
+		List<String> getStatements() {
+			
+			return statements;
+		}
+		
+		/**
+		 * Returns the deferred statements.
+		 * @return (List<String>)
+		 */
+		List<String> getDeferredStatements() {
+			
+			return deferredStatements;
+		}
+		
+		/**
+		 * Returns the SHA-256 checksum of the script contents, as hexadecimal.
+		 * @return (String)
+		 */
+		String getChecksum() {
+			
+			return checksum;
+		}
+	}
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,129 @@
+/* ****************************************************************************************************************** *
+ * PooledConnection.java                                                                                              *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical database connection held by a connection pool. It's not closed when the consumer is done with it, but
+ * 	handed back to the pool by calling release().
+ * @author a-zz
+ * @see SqlConnectionPool
+ */
+public class PooledConnection {
+
+	private SqlConnectionPool pool;
+	private Connection conn;
+	private SqlStatementCache statementCache;
+	private long created;
+	private volatile long lastUsed;
+
+	/**
+	 * Constructor: wraps a newly-opened physical connection. Only to be called by the owning pool.
+	 * @param pool (SqlConnectionPool) The owning pool.
+	 * @param conn (Connection) The physical connection.
+	 * @param statementCacheSize (int) Size of the prepared statement cache for the connection (0 to disable it).
+	 */
+	PooledConnection(SqlConnectionPool pool, Connection conn, int statementCacheSize) {
+
+		this.pool = pool;
+		this.conn = conn;
+		this.statementCache = new SqlStatementCache(conn, statementCacheSize);
+		this.created = System.currentTimeMillis();
+		this.lastUsed = created;
+	}
+
+	/**
+	 * Returns the native Java connection object.
+	 * @return (Connection)
+	 */
+	public Connection getConnection() {
+
+		return conn;
+	}
+
+	/**
+	 * Returns the prepared statement cache for this connection. Statements are kept prepared along the whole life of
+	 * 	the physical connection, not only while it's borrowed.
+	 * @return (SqlStatementCache)
+	 */
+	public SqlStatementCache getStatementCache() {
+
+		return statementCache;
+	}
+
+	/**
+	 * Returns the pool this connection belongs to.
+	 * @return (SqlConnectionPool)
+	 */
+	public SqlConnectionPool getPool() {
+
+		return pool;
+	}
+
+	/**
+	 * Hands the connection back to the pool, so it can be reused. The connection must not be used afterwards.
+	 */
+	public void release() {
+
+		pool.release(this);
+	}
+
+	/**
+	 * Hands the connection back to the pool, but asks the pool to close it rather than reuse it (e.g. because it's
+	 * 	left in an unknown state after an error). The connection must not be used afterwards.
+	 */
+	public void discard() {
+
+		pool.discard(this);
+	}
+
+	/**
+	 * Returns the time the physical connection was opened.
+	 * @return (long) Time in millis since January 1, 1970, 00:00:00 GMT.
+	 */
+	public long getCreated() {
+
+		return created;
+	}
+
+	/**
+	 * Returns the time the connection was last handed back to the pool.
+	 * @return (long) Time in millis since January 1, 1970, 00:00:00 GMT.
+	 */
+	public long getLastUsed() {
+
+		return lastUsed;
+	}
+
+	void touch() {
+
+		lastUsed = System.currentTimeMillis();
+	}
+
+	boolean isValid(int timeout) {
+
+		try {
+			return !conn.isClosed() && conn.isValid(timeout);
+		}
+		catch(SQLException e) {
+			return false;
+		}
+	}
+
+	void closePhysical() {
+
+		statementCache.clear();
+		try {
+			conn.close();
+		}
+		catch(SQLException e) {
+			// Nothing to do, the connection is useless anyway
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
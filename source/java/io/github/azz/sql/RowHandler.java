@@ -0,0 +1,26 @@
+/* ****************************************************************************************************************** *
+ * RowHandler.java                                                                                                    *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback for processing query results one row at a time.
+ * @author a-zz
+ * @see SqlTransaction#scan(String, int, RowHandler)
+ */
+@FunctionalInterface
+public interface RowHandler {
+
+	/**
+	 * Processes the current row of a result set. Implementations must not move the cursor.
+	 * @param rs (ResultSet) The result set, positioned at the row to be processed.
+	 * @throws SQLException
+	 */
+	public void handle(ResultSet rs) throws SQLException;
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,27 @@
+/* ****************************************************************************************************************** *
+ * RowMapper.java                                                                                                     *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps query result rows into objects.
+ * @author a-zz
+ * @see SqlTransaction#stream(String, int, RowMapper)
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+	/**
+	 * Maps the current row of a result set into an object. Implementations must not move the cursor.
+	 * @param rs (ResultSet) The result set, positioned at the row to be mapped.
+	 * @return (T) The object mapped.
+	 * @throws SQLException
+	 */
+	public T map(ResultSet rs) throws SQLException;
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
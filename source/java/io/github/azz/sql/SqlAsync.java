@@ -0,0 +1,217 @@
+/* ****************************************************************************************************************** *
+ * SqlAsync.java                                                                                                      *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.azz.logging.AppLogger;
+
+/**
+ * Asynchronous execution of data access calls, so the calling thread (e.g. a servlet request thread) isn't held for 
+ * 	the whole database round trip. Calls return a CompletableFuture, completed with the call result or, exceptionally,
+ * 	with the exception thrown (e.g. a SQLException).
+ * 	<br/><br/>
+ * Calls are run on virtual threads if the Java runtime supports them (Java 21 or higher), or on a bounded pool of 
+ * 	platform threads otherwise. Either way, no more than maxConcurrency calls are run at the same time (see local 
+ * 	property db.async.maxConcurrency, defaulting to the connection pool size), as calls beyond the connection count
+ * 	would only wait for a connection. Calls waiting for their turn hold no thread in the virtual thread case.
+ * 	<br/><br/>
+ * This facility is set up and shut down along with DbManager.
+ * @author a-zz
+ * @see DbManager
+ */
+public class SqlAsync {
+
+	private static AppLogger logger = new AppLogger(SqlAsync.class);
+	
+	// -- Time given to running calls to complete at shutdown, in millis
+	private static final long SHUTDOWN_TIMEOUT = 10000;
+	
+	private static ExecutorService executor;
+	private static Semaphore permits;
+	private static int maxConcurrency;
+	private static boolean virtualThreads;
+	
+	/**
+	 * Sets up the asynchronous execution facility. Only to be called by DbManager.
+	 * @param maxConcurrency (int) Maximum number of calls run at the same time.
+	 */
+	static synchronized void initialize(int maxConcurrency) {
+		
+		if(maxConcurrency<1)
+			throw new IllegalArgumentException("Invalid maximum concurrency for asynchronous SQL calls: " + 
+					maxConcurrency);
+		
+		SqlAsync.maxConcurrency = maxConcurrency;
+		permits = new Semaphore(maxConcurrency, true);
+		executor = newVirtualThreadExecutor();
+		virtualThreads = executor!=null;
+		if(!virtualThreads) {
+			final AtomicInteger threadCount = new AtomicInteger(0);
+			executor = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SqlAsync #" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		logger.debug("Asynchronous SQL execution set up (max concurrency " + maxConcurrency + ", " + 
+				(virtualThreads?"virtual":"platform") + " threads)");
+	}
+	
+	/**
+	 * Shuts down the asynchronous execution facility, waiting a while for running calls to complete. Only to be 
+	 * 	called by DbManager.
+	 */
+	static synchronized void shutdown() {
+		
+		if(executor==null)
+			return;
+		
+		executor.shutdown();
+		try {
+			if(!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+				logger.warn("Asynchronous SQL calls still running after " + SHUTDOWN_TIMEOUT + "ms; giving up on them");
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+	}
+	
+	/**
+	 * Runs a data access call asynchronously, e.g. SqlAsync.call(() -> dao.getProperty(key)).
+	 * @param call (Callable<T>) The call.
+	 * @return (CompletableFuture<T>) The call result.
+	 */
+	public static <T> CompletableFuture<T> call(final Callable<T> call) {
+		
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		ExecutorService executor = SqlAsync.executor;
+		if(executor==null) {
+			future.completeExceptionally(new SQLException("Asynchronous SQL execution not available"));
+			return future;
+		}
+		
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						permits.acquire();
+					}
+					catch(InterruptedException e) {
+						future.completeExceptionally(e);
+						return;
+					}
+					T result = null;
+					Throwable failure = null;
+					try {
+						// Calls cancelled while waiting for their turn aren't run
+						if(future.isDone())
+							return;
+						result = call.call();
+					}
+					catch(Throwable e) {
+						failure = e;
+					}
+					finally {
+						permits.release();
+					}
+					if(failure!=null)
+						future.completeExceptionally(failure);
+					else
+						future.complete(result);
+				}
+			});
+		}
+		catch(RejectedExecutionException e) {
+			future.completeExceptionally(new SQLException("Asynchronous SQL execution shut down"));
+		}
+		return future;
+	}
+	
+	/**
+	 * Runs a unit of work asynchronously, within a new SQL transaction (no autocommit, isolation level READ COMMITTED). 
+	 * 	The transaction is committed if the work completes normally, and rolled back otherwise.
+	 * @param descriptor (String) A descriptive text for the transaction, for logging purposes.
+	 * @param work (SqlWork<T>) The unit of work.
+	 * @return (CompletableFuture<T>) The work result.
+	 */
+	public static <T> CompletableFuture<T> inTransaction(final String descriptor, final SqlWork<T> work) {
+		
+		return call(new Callable<T>() {
+			public T call() throws SQLException {
+				SqlTransaction t = new SqlTransaction(descriptor);
+				try {
+					T result = work.run(t);
+					t.commit();
+					return result;
+				}
+				finally {
+					t.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the maximum number of calls run at the same time.
+	 * @return (int)
+	 */
+	public static int getMaxConcurrency() {
+		
+		return maxConcurrency;
+	}
+	
+	/**
+	 * Returns the number of calls running right now.
+	 * @return (int)
+	 */
+	public static int getActiveCount() {
+		
+		return permits==null?0:maxConcurrency - permits.availablePermits();
+	}
+	
+	/**
+	 * Returns the (approximate) number of calls waiting for their turn.
+	 * @return (int)
+	 */
+	public static int getQueueLength() {
+		
+		return permits==null?0:permits.getQueueLength();
+	}
+	
+	/**
+	 * Tells whether calls are run on virtual threads.
+	 * @return (boolean)
+	 */
+	public static boolean isVirtualThreads() {
+		
+		return virtualThreads;
+	}
+	
+	private static ExecutorService newVirtualThreadExecutor() {
+		
+		// Looked up by reflection, so the application still builds and runs on older Java versions
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(Exception e) {
+			return null;
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
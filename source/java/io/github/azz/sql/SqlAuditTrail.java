@@ -0,0 +1,199 @@
+/* ****************************************************************************************************************** *
+ * SqlAuditTrail.java                                                                                                 *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+/**
+ * The list of SQL instructions run within a transaction, for logging at commit / rollback time.
+ * <br/><br/>
+ * Instructions are kept as compact records (a reference to the SQL text, rows affected and elapsed time) and only
+ * 	formatted into text when the log is to be actually written. The trail is bounded: when it's full, the oldest
+ * 	records are overwritten, so long-running transactions don't build up memory just for logging purposes.
+ * @author a-zz
+ */
+class SqlAuditTrail {
+
+	// -- Record kinds, for formatting
+	static final int KIND_SINGLE = 0;
+	static final int KIND_STREAMED = -1;
+	// (positive values stand for batches, being the value the batch size)
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int maxEntries;
+	private String[] sql;
+	private long[] rows;
+	private long[] nanos;
+	private int[] kind;
+	private long[] open;
+	private int first = 0;
+	private int count = 0;
+	private long total = 0;
+
+	/**
+	 * Constructor: creates an empty audit trail.
+	 * @param maxEntries (int) Maximum number of records kept; the oldest ones are overwritten afterwards.
+	 */
+	SqlAuditTrail(int maxEntries) {
+
+		this.maxEntries = Math.max(1, maxEntries);
+		int capacity = Math.min(INITIAL_CAPACITY, this.maxEntries);
+		sql = new String[capacity];
+		rows = new long[capacity];
+		nanos = new long[capacity];
+		kind = new int[capacity];
+		open = new long[capacity];
+	}
+
+	/**
+	 * Adds a record to the trail.
+	 * @param sql (String) The SQL instruction.
+	 * @param rows (long) Rows affected or returned.
+	 * @param nanos (long) Elapsed time, in nanoseconds.
+	 * @param kind (int) KIND_SINGLE, KIND_STREAMED or the batch size for batches.
+	 * @param open (long) For KIND_STREAMED, time the result set was kept open, in nanoseconds; ignored otherwise.
+	 */
+	void add(String sql, long rows, long nanos, int kind, long open) {
+
+		if(count==this.sql.length && count<maxEntries)
+			grow();
+
+		int i;
+		if(count<this.sql.length) {
+			i = (first + count) % this.sql.length;
+			count++;
+		}
+		else {
+			// Full: overwriting the oldest record
+			i = first;
+			first = (first + 1) % this.sql.length;
+		}
+		this.sql[i] = sql;
+		this.rows[i] = rows;
+		this.nanos[i] = nanos;
+		this.kind[i] = kind;
+		this.open[i] = open;
+		total++;
+	}
+
+	/**
+	 * Tells whether no instructions were recorded since the last clear().
+	 * @return (boolean)
+	 */
+	boolean isEmpty() {
+
+		return total==0;
+	}
+
+	/**
+	 * Returns the number of instructions recorded since the last clear(), including those overwritten.
+	 * @return (long)
+	 */
+	long getTotal() {
+
+		return total;
+	}
+
+	/**
+	 * Returns a mark for the current end of the trail, to be truncated back to later.
+	 * @return (long)
+	 * @see truncate()
+	 */
+	long mark() {
+
+		return total;
+	}
+
+	/**
+	 * Removes the records added after a mark, e.g. for instructions rolled back to a savepoint.
+	 * @param mark (long) A mark got from mark(), since the last clear().
+	 */
+	void truncate(long mark) {
+
+		if(mark>=total)
+			return;
+		// Records after the mark are the newest ones: some of them may be already overwritten
+		int removed = (int)Math.min(count, total - mark);
+		for(int n=count-removed; n<count; n++)
+			sql[(first + n) % sql.length] = null;
+		count -= removed;
+		total = mark;
+	}
+
+	/**
+	 * Empties the trail.
+	 */
+	void clear() {
+
+		for(int i=0; i<sql.length; i++)
+			sql[i] = null;
+		first = 0;
+		count = 0;
+		total = 0;
+	}
+
+	/**
+	 * Formats the trail as a list of numbered lines, one per instruction.
+	 * @return (String)
+	 */
+	String format() {
+
+		StringBuilder sb = new StringBuilder(count * 80);
+		long dropped = total - count;
+		if(dropped>0)
+			sb.append("\n\t(").append(dropped).append(" earlier instructions not kept)");
+		for(int n=0; n<count; n++) {
+			int i = (first + n) % sql.length;
+			sb.append("\n\t[").append(dropped + n + 1).append("]\t");
+			format(sb, sql[i], rows[i], nanos[i], kind[i], open[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Formats a single instruction as "sql; (details)".
+	 * @param sb (StringBuilder) Target for the formatted text.
+	 * @param sql (String) The SQL instruction.
+	 * @param rows (long) Rows affected or returned.
+	 * @param nanos (long) Elapsed time, in nanoseconds.
+	 * @param kind (int) KIND_SINGLE, KIND_STREAMED or the batch size for batches.
+	 * @param open (long) For KIND_STREAMED, time the result set was kept open, in nanoseconds; ignored otherwise.
+	 * @return (StringBuilder) sb
+	 */
+	static StringBuilder format(StringBuilder sb, String sql, long rows, long nanos, int kind, long open) {
+
+		sb.append(sql).append("; (");
+		if(kind>0)
+			sb.append("batch of ").append(kind).append(": ");
+		sb.append(rows).append(kind==KIND_STREAMED?" rows streamed; ":" rows; ");
+		sb.append(nanos / 1000000).append("ms");
+		if(kind==KIND_STREAMED)
+			sb.append("; open ").append(open / 1000000).append("ms");
+		sb.append(")");
+		return sb;
+	}
+
+	private void grow() {
+
+		int capacity = Math.min(sql.length * 2, maxEntries);
+		String[] sql = new String[capacity];
+		long[] rows = new long[capacity];
+		long[] nanos = new long[capacity];
+		int[] kind = new int[capacity];
+		long[] open = new long[capacity];
+		// The trail is never wrapped around while growing (it only wraps when full at maxEntries)
+		System.arraycopy(this.sql, 0, sql, 0, count);
+		System.arraycopy(this.rows, 0, rows, 0, count);
+		System.arraycopy(this.nanos, 0, nanos, 0, count);
+		System.arraycopy(this.kind, 0, kind, 0, count);
+		System.arraycopy(this.open, 0, open, 0, count);
+		this.sql = sql;
+		this.rows = rows;
+		this.nanos = nanos;
+		this.kind = kind;
+		this.open = open;
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
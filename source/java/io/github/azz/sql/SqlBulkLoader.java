@@ -0,0 +1,578 @@
+/* ****************************************************************************************************************** *
+ * SqlBulkLoader.java                                                                                                 *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.da.SqlBulkLoaderDaInterface;
+import io.github.azz.util.RunnableTask;
+
+/**
+ * Bulk loader for delimited text files (CSV, TSV...) and line-oriented files (one value per line) into a database
+ * 	table. Every line is a row, and every field a column value; empty unquoted fields are loaded as NULL, and values are
+ * 	converted into the columns' types by the database engine.
+ * <br/><br/>
+ * Loading is a pipeline:
+ * <ol>
+ * <li>The file is read through NIO in large chunks, split on line boundaries (line breaks within quoted fields are
+ * 	kept).</li>
+ * <li>Chunks are parsed in parallel, by a pool of threads (see setParallelism()).</li>
+ * <li>Rows are inserted in file order, in JDBC batches (see setBatchSize()), and committed every so many rows (see
+ * 	setCommitEvery()). Rows committed stay loaded should the load fail later.</li>
+ * </ol>
+ * Rows failing to be inserted (or with a wrong number of fields) make the load fail, unless some of them are allowed to
+ * 	be rejected (see setMaxRejects()): batches are run within a scope then, and failing ones are replayed row by row to
+ * 	tell bad rows apart.
+ * <br/><br/>
+ * Alternatively, the file may be attached to the database engine and copied into the table with a single instruction
+ * 	(see setFileAttach()), which spares parsing and round trips on the application side, but gives no progress and no
+ * 	reject handling.
+ * <br/><br/>
+ * Being a RunnableTask, progress (percentage of the file read) is reported through the status log, and the load may be
+ * 	paused, resumed and stopped. Failures are logged and kept (see getError()).
+ * <br/><br/>
+ * Usage:
+ * <br/><br/>
+ * <pre>
+ * SqlBulkLoader loader = new SqlBulkLoader(new File("/path/to/file.csv"), "MYTABLE", "ID", "NAME", "AMOUNT")
+ * 		.setHeader(true);
+ * loader.run();
+ * if(loader.getError()!=null) ...
+ * </pre>
+ * Files are expected in a character set where line breaks, delimiters and quotes are single bytes (UTF-8, ISO-8859-x
+ * 	and alike).
+ * @author a-zz
+ */
+public class SqlBulkLoader extends RunnableTask {
+
+	/** Default number of rows per JDBC batch */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	/** Default number of rows per transaction */
+	public static final int DEFAULT_COMMIT_EVERY = 50000;
+
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_REJECTS_LOGGED = 10;
+
+	private static AppLogger logger = new AppLogger(SqlBulkLoader.class);
+	private static volatile SqlBulkLoaderDaInterface dao;
+
+	private File file;
+	private String table;
+	private String[] columns;
+	private Charset charset = StandardCharsets.UTF_8;
+	private char delimiter = ',';
+	private char quote = '"';
+	private boolean header = false;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int commitEvery = DEFAULT_COMMIT_EVERY;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private long maxRejects = 0;
+	private boolean fileAttach = false;
+
+	private String insertSql;
+	private SqlParameters params;
+	private ArrayList<String[]> batch;
+	private boolean headerPending;
+	private long rowsSinceCommit;
+	private volatile long rowsLoaded = 0;
+	private volatile long rowsRejected = 0;
+	private volatile long elapsed = 0;
+	private volatile Exception error;
+
+	private static SqlBulkLoaderDaInterface dao() throws SQLException {
+
+		if(dao==null) {
+			try {
+				dao = (SqlBulkLoaderDaInterface)DaInterface.getImplClassFor(SqlBulkLoader.class).newInstance();
+			}
+			catch(Exception e) {
+				throw new SQLException("Unable to instantiate data access implementation class for " +
+						SqlBulkLoader.class + ": " + e.getMessage());
+			}
+		}
+		return dao;
+	}
+
+	/**
+	 * Sets up a bulk load.
+	 * @param file (File) The file to be loaded.
+	 * @param table (String) The target table.
+	 * @param columns (String...) The target columns, in the same order as fields in the file.
+	 * @throws IllegalArgumentException If table or column names aren't plain identifiers, or no columns are given.
+	 */
+	public SqlBulkLoader(File file, String table, String... columns) {
+
+		if(columns.length==0)
+			throw new IllegalArgumentException("No columns set for bulk load into " + table);
+		SqlIdentifiers.checkPlain(table, "bulk load");
+		for(String name : columns)
+			SqlIdentifiers.checkPlain(name, "bulk load");
+
+		this.file = file;
+		this.table = table;
+		this.columns = columns.clone();
+	}
+
+	/**
+	 * Sets the file's character set (default: UTF-8).
+	 * @param charset (Charset)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 * @throws IllegalArgumentException If line breaks aren't single bytes in the character set.
+	 */
+	public SqlBulkLoader setCharset(Charset charset) {
+
+		if(!Arrays.equals("\n\",;\t".getBytes(charset), "\n\",;\t".getBytes(StandardCharsets.US_ASCII)))
+			throw new IllegalArgumentException("Character set not supported for bulk load: " + charset);
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * Sets the field delimiter (default: comma).
+	 * @param delimiter (char) An ASCII character; 0 for line-oriented files (the whole line is a single value).
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 * @throws IllegalArgumentException If not an ASCII character.
+	 */
+	public SqlBulkLoader setDelimiter(char delimiter) {
+
+		if(delimiter>127)
+			throw new IllegalArgumentException("Only ASCII delimiters are supported for bulk load");
+		this.delimiter = delimiter;
+		return this;
+	}
+
+	/**
+	 * Sets the quote character (default: double quote), for fields holding delimiters, line breaks or leading and
+	 * 	trailing blanks. Within quoted fields, quotes are escaped by doubling them.
+	 * @param quote (char) An ASCII character; 0 for no quoting.
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 * @throws IllegalArgumentException If not an ASCII character.
+	 */
+	public SqlBulkLoader setQuote(char quote) {
+
+		if(quote>127)
+			throw new IllegalArgumentException("Only ASCII quotes are supported for bulk load");
+		this.quote = quote;
+		return this;
+	}
+
+	/**
+	 * Sets whether the file's first line is a header, to be skipped (default: false).
+	 * @param header (boolean)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 */
+	public SqlBulkLoader setHeader(boolean header) {
+
+		this.header = header;
+		return this;
+	}
+
+	/**
+	 * Sets the number of rows sent to the database at once (default: DEFAULT_BATCH_SIZE).
+	 * @param batchSize (int)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 */
+	public SqlBulkLoader setBatchSize(int batchSize) {
+
+		this.batchSize = Math.max(1, batchSize);
+		return this;
+	}
+
+	/**
+	 * Sets the number of rows committed at once (default: DEFAULT_COMMIT_EVERY). Rounded up to a whole number of
+	 * 	batches.
+	 * @param commitEvery (int)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 */
+	public SqlBulkLoader setCommitEvery(int commitEvery) {
+
+		this.commitEvery = Math.max(1, commitEvery);
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads parsing the file (default: as many as available processors).
+	 * @param parallelism (int)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 */
+	public SqlBulkLoader setParallelism(int parallelism) {
+
+		this.parallelism = Math.max(1, parallelism);
+		return this;
+	}
+
+	/**
+	 * Sets the number of rows that may be rejected (failing to be inserted, or with a wrong number of fields) before
+	 * 	the load fails (default: 0). Rejected rows are logged (the first few) and counted.
+	 * @param maxRejects (long)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 */
+	public SqlBulkLoader setMaxRejects(long maxRejects) {
+
+		this.maxRejects = Math.max(0, maxRejects);
+		return this;
+	}
+
+	/**
+	 * Sets whether the file is to be attached to the database engine and copied with a single instruction (default:
+	 * 	false), instead of loaded row by row. Falls back to loading row by row if the engine can't do it with the
+	 * 	options set. See the data access implementation for the current engine for its requirements.
+	 * @param fileAttach (boolean)
+	 * @return (SqlBulkLoader) This loader, for chaining.
+	 */
+	public SqlBulkLoader setFileAttach(boolean fileAttach) {
+
+		this.fileAttach = fileAttach;
+		return this;
+	}
+
+	/**
+	 * Runs the load. Failures aren't thrown, but logged and kept (see getError()); the execution status is set to
+	 * 	STOPPED then.
+	 */
+	public void run() {
+
+		statusProgressUpdate(0, "Loading " + file + " into " + table);
+		long started = System.currentTimeMillis();
+		try {
+			long attached = -1;
+			if(fileAttach)
+				attached = loadAttached();
+			if(attached<0)
+				loadStreamed();
+			else
+				rowsLoaded = attached;
+			elapsed = System.currentTimeMillis() - started;
+			logger.info(statusProgressUpdate(100, "Loaded " + file + " into " + table + ": " + rowsLoaded +
+					" rows loaded, " + rowsRejected + " rejected in " + elapsed + "ms"));
+		}
+		catch(Exception e) {
+			elapsed = System.currentTimeMillis() - started;
+			error = e;
+			logger.error(statusProgressUpdate(getProgressPc(), "Load of " + file + " into " + table + " failed after " +
+					rowsLoaded + " rows loaded (and committed, but for the last " + rowsSinceCommit + "): " +
+					e.getMessage()));
+			executionStatus = EnumExecutionStatus.STOPPED;
+		}
+	}
+
+	/**
+	 * Returns the number of rows loaded so far.
+	 * @return (long)
+	 */
+	public long getRowsLoaded() {
+
+		return rowsLoaded;
+	}
+
+	/**
+	 * Returns the number of rows rejected so far.
+	 * @return (long)
+	 */
+	public long getRowsRejected() {
+
+		return rowsRejected;
+	}
+
+	/**
+	 * Returns the load duration.
+	 * @return (long) Time in millis; 0 until the load ends (or fails).
+	 */
+	public long getElapsed() {
+
+		return elapsed;
+	}
+
+	/**
+	 * Returns the failure that made the load end, if any.
+	 * @return (Exception) null if the load didn't fail (or didn't end yet).
+	 */
+	public Exception getError() {
+
+		return error;
+	}
+
+	private long loadAttached() throws SQLException {
+
+		SqlTransaction t = null;
+		try {
+			t = new SqlTransaction("bulk load of " + file.getName() + " into " + table);
+			long rows = dao().loadAttached(file, charset, delimiter, quote, header, table, columns, t);
+			if(rows>=0)
+				t.commit();
+			return rows;
+		}
+		finally {
+			if(t!=null)
+				t.close();
+		}
+	}
+
+	private void loadStreamed() throws IOException, SQLException, InterruptedException, ExecutionException {
+
+		String markers = "";
+		for(int i=0; i<columns.length; i++)
+			markers += (i==0?"":", ") + "?";
+		insertSql = "insert into " + table + " (" + String.join(", ", columns) + ") values (" + markers + ")";
+		params = new SqlParameters(columns.length);
+		batch = new ArrayList<String[]>(batchSize);
+		headerPending = header;
+		rowsSinceCommit = 0;
+
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		ExecutorService parsers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SqlBulkLoader #" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Chunks parsed (or being parsed), in file order, along with their sizes; bounded to keep memory use in check
+		ArrayDeque<Future<List<String[]>>> pending = new ArrayDeque<Future<List<String[]>>>();
+		ArrayDeque<Integer> pendingSizes = new ArrayDeque<Integer>();
+		int maxPending = parallelism * 2;
+
+		SqlTransaction t = null;
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			t = new SqlTransaction("bulk load of " + file.getName() + " into " + table);
+			long size = channel.size();
+			long bytesLoaded = 0;
+
+			// 1. Read the file into chunks, split at the last line break outside quotes; quotes are tracked as bytes
+			//	are read, as a quoted field may span more than a chunk
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int length = 0;
+			int scanned = 0;
+			int boundary = -1;
+			boolean quoted = false;
+			boolean eof = false;
+			while(!eof) {
+				int read = channel.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+				if(read<0)
+					eof = true;
+				else
+					length += read;
+				for(; scanned<length; scanned++) {
+					byte b = buffer[scanned];
+					if(quote!=0 && b==quote)
+						quoted = !quoted;
+					else if(b=='\n' && !quoted)
+						boundary = scanned;
+				}
+				if(!eof && length<buffer.length)
+					continue;
+
+				// 2. Hand the chunk over to the parser pool; a chunk with no line boundary (a huge line) grows instead
+				int chunkLength = eof?length:boundary+1;
+				if(chunkLength>0) {
+					final byte[] chunk = Arrays.copyOf(buffer, chunkLength);
+					pending.add(parsers.submit(() -> parse(chunk)));
+					pendingSizes.add(chunkLength);
+					System.arraycopy(buffer, chunkLength, buffer, 0, length - chunkLength);
+					length -= chunkLength;
+					scanned -= chunkLength;
+					boundary = -1;
+				}
+				else if(!eof)
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+				// 3. Load parsed chunks, in file order, as the pool gets ahead
+				while(pending.size()>=maxPending || (eof && !pending.isEmpty())) {
+					checkExecutionStatus();
+					load(pending.poll().get(), t);
+					bytesLoaded += pendingSizes.poll();
+					int pc = (int)Math.min(99, bytesLoaded * 100 / Math.max(1, size));
+					if(pc>getProgressPc() && executionStatus==EnumExecutionStatus.RUNNING)
+						statusProgressUpdate(pc, rowsLoaded + " rows loaded, " + rowsRejected + " rejected");
+				}
+			}
+
+			flush(t);
+			t.commit();
+			rowsSinceCommit = 0;
+		}
+		finally {
+			parsers.shutdownNow();
+			if(t!=null)
+				t.close();
+			batch = null;
+		}
+	}
+
+	private void checkExecutionStatus() throws InterruptedException {
+
+		while(executionStatus==EnumExecutionStatus.PAUSED)
+			Thread.sleep(100);
+		if(executionStatus==EnumExecutionStatus.STOPPED || Thread.currentThread().isInterrupted())
+			throw new InterruptedException("Bulk load stopped");
+	}
+
+	private List<String[]> parse(byte[] chunk) {
+
+		String text = new String(chunk, charset);
+		int length = text.length();
+		ArrayList<String[]> rows = new ArrayList<String[]>();
+		ArrayList<String> fields = new ArrayList<String>(columns.length);
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		boolean wasQuoted = false;
+		for(int i=0; i<length; i++) {
+			char c = text.charAt(i);
+
+			if(quoted) {
+				// Within quotes, a doubled quote stands for an escaped one
+				if(c==quote) {
+					if(i+1<length && text.charAt(i+1)==quote) {
+						field.append(c);
+						i++;
+					}
+					else
+						quoted = false;
+				}
+				else
+					field.append(c);
+			}
+			else if(quote!=0 && c==quote)
+				quoted = wasQuoted = true;
+			else if(delimiter!=0 && c==delimiter) {
+				fields.add(wasQuoted || field.length()>0?field.toString():null);
+				field.setLength(0);
+				wasQuoted = false;
+			}
+			else if(c=='\n') {
+				// Blank lines are skipped
+				if(!fields.isEmpty() || wasQuoted || field.length()>0) {
+					fields.add(wasQuoted || field.length()>0?field.toString():null);
+					rows.add(fields.toArray(new String[fields.size()]));
+				}
+				fields.clear();
+				field.setLength(0);
+				wasQuoted = false;
+			}
+			else if(c!='\r')
+				field.append(c);
+		}
+
+		// Last line with no line break, at the end of the file
+		if(!fields.isEmpty() || wasQuoted || field.length()>0) {
+			fields.add(wasQuoted || field.length()>0?field.toString():null);
+			rows.add(fields.toArray(new String[fields.size()]));
+		}
+		return rows;
+	}
+
+	private void load(List<String[]> rows, SqlTransaction t) throws SQLException {
+
+		for(String[] row : rows) {
+			if(headerPending) {
+				headerPending = false;
+				continue;
+			}
+			if(row.length!=columns.length) {
+				reject(row, columns.length + " fields expected, " + row.length + " found");
+				continue;
+			}
+			batch.add(row);
+			if(batch.size()>=batchSize)
+				flush(t);
+		}
+	}
+
+	private void flush(SqlTransaction t) throws SQLException {
+
+		if(batch.isEmpty())
+			return;
+
+		if(maxRejects==0) {
+			t.beginBatch(insertSql);
+			for(String[] row : batch)
+				t.addBatch(bind(row));
+			t.executeBatch();
+			rowsLoaded += batch.size();
+		}
+		else {
+			// Within a scope, a failing batch rolls back just itself; it's replayed row by row to tell bad rows apart
+			boolean failed = false;
+			try(SqlTransaction.Scope scope = t.scope("bulk load batch")) {
+				t.beginBatch(insertSql);
+				for(String[] row : batch)
+					t.addBatch(bind(row));
+				t.executeBatch();
+				scope.complete();
+				rowsLoaded += batch.size();
+			}
+			catch(SQLException e) {
+				failed = true;
+			}
+			if(failed) {
+				for(String[] row : batch) {
+					try(SqlTransaction.Scope scope = t.scope("bulk load row")) {
+						t.preparedStatement(insertSql, bind(row));
+						scope.complete();
+						rowsLoaded++;
+					}
+					catch(SQLException e) {
+						reject(row, e.getMessage());
+					}
+				}
+			}
+		}
+
+		rowsSinceCommit += batch.size();
+		batch.clear();
+		if(rowsSinceCommit>=commitEvery) {
+			t.commit();
+			rowsSinceCommit = 0;
+		}
+	}
+
+	private SqlParameters bind(String[] row) {
+
+		for(int i=0; i<row.length; i++) {
+			if(row[i]==null)
+				params.setNull(i+1, Types.VARCHAR);
+			else
+				params.setString(i+1, row[i]);
+		}
+		return params;
+	}
+
+	private void reject(String[] row, String reason) throws SQLException {
+
+		rowsRejected++;
+		if(rowsRejected>maxRejects)
+			throw new SQLException("Row rejected (" + reason + ") beyond the maximum allowed (" + maxRejects + "): " +
+					preview(row));
+		if(rowsRejected<=MAX_REJECTS_LOGGED)
+			logger.warn("Row rejected loading " + file + " into " + table + " (" + reason + "): " + preview(row));
+	}
+
+	private String preview(String[] row) {
+
+		String text = Arrays.toString(row);
+		return text.length()>200?text.substring(0, 200) + "...":text;
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -5,29 +5,46 @@
 
 package io.github.azz.sql;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.github.azz.logging.AppLogger;
 import io.github.azz.sql.SqlTransaction.EnumIsolationLevels;
 import io.github.azz.sql.rdbms.RdbmsSupport;
 
 /**
- * A SQL database connection, with usage tracking
+ * A SQL database connection, with usage tracking.
+ * <br/><br/>
+ * Every open connection is registered in the open connection table along with a phantom reference to it. Should a 
+ * 	connection be garbage-collected without having been closed (i.e. leaked), the leak is reported by a background
+ * 	thread -including the connection age and, optionally, the stack trace where it was opened- and the underlying
+ * 	pooled connection is discarded, so the pool gets its slot back.
  * @author a-zz
  */
 public class SqlConnection {
 
+	private static AppLogger logger = new AppLogger(SqlConnection.class);
+	
 	// -- Connection tracking
-	private static int serial = 0;
-	private static Hashtable<Integer,SqlConnection> openConnTable = new Hashtable<Integer,SqlConnection>();
+	private static AtomicLong serial = new AtomicLong(0);
+	private static ConcurrentHashMap<Long,LeakGuard> openConnTable = new ConcurrentHashMap<Long,LeakGuard>();
+	private static ReferenceQueue<SqlConnection> leakedConnections = new ReferenceQueue<SqlConnection>();
+	private static Thread leakReaper;
 	
 	// -- Connection parameters	
+	private PooledConnection pooledConn;
 	private Connection conn;
-	private Integer connSerial;
-	private AppLogger logger = new AppLogger(SqlConnection.class);
+	private long connSerial;
+	private LeakGuard leakGuard;
+	private boolean readOnly;
 
 	// -- Isolation level map
 	public static final HashMap<EnumIsolationLevels,Integer> isolationLevelMap;
@@ -40,49 +57,109 @@ public class SqlConnection {
 	}
 
 	/**
-	 * Get a new database connection and add it to the open connection table, so it can be tracked along its lifecycle.
-	 * 	Isolation level is "REPEATABLE READ".
+	 * Get a database connection from the connection pool and add it to the open connection table, so it can be tracked
+	 * 	along its lifecycle.
 	 * @param autoCommit (boolean) Set the autocommit mode for the connection.
 	 * @param isolationLevel (SqlTransaction.EnumIsolationLevels) Isolation level for the new transaction
 	 * @throws SQLException
 	 */
 	public SqlConnection(boolean autoCommit, SqlTransaction.EnumIsolationLevels isolationLevel) throws SQLException {
 		
-		connSerial = new Integer(getSerial());
-		conn = DbManager.getConnection();
-		conn.setAutoCommit(autoCommit);
-		conn.setTransactionIsolation(isolationLevelMap.get(isolationLevel).intValue());
-		RdbmsSupport.checkIsolationLevelSupport(DbManager.getDatabaseEngine(), isolationLevel);
-		openConnTable.put(connSerial, this);
+		this(autoCommit, isolationLevel, false);
+	}
+	
+	/**
+	 * Get a database connection from the connection pool -or, for read-only connections, from the replica connection 
+	 * 	pool if available- and add it to the open connection table, so it can be tracked along its lifecycle.
+	 * @param autoCommit (boolean) Set the autocommit mode for the connection.
+	 * @param isolationLevel (SqlTransaction.EnumIsolationLevels) Isolation level for the new transaction
+	 * @param readOnly (boolean) Set the connection as read-only.
+	 * @throws SQLException
+	 * @see DbManager#getReadOnlyConnection()
+	 */
+	public SqlConnection(boolean autoCommit, SqlTransaction.EnumIsolationLevels isolationLevel, boolean readOnly) 
+			throws SQLException {
+		
+		connSerial = serial.getAndIncrement();
+		pooledConn = readOnly?DbManager.getReadOnlyConnection():DbManager.getConnection();
+		conn = pooledConn.getConnection();
+		this.readOnly = readOnly;
+		try {
+			conn.setReadOnly(readOnly);
+			conn.setAutoCommit(autoCommit);
+			conn.setTransactionIsolation(isolationLevelMap.get(isolationLevel).intValue());
+			RdbmsSupport.checkIsolationLevelSupport(DbManager.getDatabaseEngine(), isolationLevel);
+		}
+		catch(SQLException e) {
+			pooledConn.discard();
+			conn = null;
+			throw e;
+		}
+		
+		int stackSampling = DbManager.getLeakStackSampling();
+		leakGuard = new LeakGuard(this, stackSampling>0 && connSerial%stackSampling==0);
+		openConnTable.put(connSerial, leakGuard);
+		startLeakReaper();
 		logger.trace("Got new SQL connection #" + connSerial);
 	}
 	
 	/**
-	 * Closes the connection. Possibly uncommited changes are rolled back.
+	 * Closes the connection, i.e. hands it back to the connection pool. Possibly uncommited changes are rolled back; 
+	 * 	should this fail, the underlying connection is discarded rather than reused.
 	 * @throws SQLException
 	 */
 	public void close() throws SQLException {
 		
-		// Discard any pending operations
-		if(!conn.getAutoCommit())
-			conn.rollback();
-		
-		// Close the connection and remove tracking info
-		conn.close();
-		conn = null;
-		openConnTable.remove(connSerial);
-		logger.trace("Closed connection #" + connSerial);
+		try {
+			// Discard any pending operations
+			if(!conn.getAutoCommit())
+				conn.rollback();
+			// Pooled connections are handed out as read-write
+			if(readOnly)
+				conn.setReadOnly(false);
+			pooledConn.release();
+		}
+		catch(SQLException e) {
+			pooledConn.discard();
+			throw e;
+		}
+		finally {
+			// Remove tracking info
+			conn = null;
+			pooledConn = null;
+			openConnTable.remove(connSerial);
+			leakGuard.clear();
+			logger.trace("Closed connection #" + connSerial);
+		}
 	}
 	
 	/**
 	 * Returns the serial number for the connection (useful for logging purposes).
-	 * @return (Integer) 
+	 * @return (long) 
 	 */
-	public Integer getConnSerial() {
+	public long getConnSerial() {
 		
 		return connSerial;
 	}
 	
+	/**
+	 * Checks whether the connection is read-only.
+	 * @return (boolean)
+	 */
+	public boolean isReadOnly() {
+		
+		return readOnly;
+	}
+	
+	/**
+	 * Checks whether the connection was got from the replica connection pool.
+	 * @return (boolean)
+	 */
+	public boolean isReplica() {
+		
+		return pooledConn.getPool()==DbManager.getReplicaConnectionPool();
+	}
+	
 	/**
 	 * Returns the native Java connection object. 
 	 * @return (Connection)
@@ -92,16 +169,112 @@ public class SqlConnection {
 		return conn;
 	}
 	
-	protected void finalize() throws Throwable {
+	/**
+	 * Gets a prepared statement for the SQL provided, from the connection's statement cache when possible. 
+	 * @param sql (String) The SQL instruction.
+	 * @return (PreparedStatement) The statement. It must be handed back via releaseStatement() after use, rather than
+	 * 	closed.
+	 * @throws SQLException
+	 * @see SqlStatementCache
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
 		
-		if(conn!=null)
-			logger.warn("Check resource usage: connection #" + connSerial + " was automatically purged");
-		super.finalize();
+		return pooledConn.getStatementCache().prepare(sql);
 	}
 	
-	private synchronized int getSerial() {
+	/**
+	 * Hands a statement got from prepareStatement() back to the connection's statement cache.
+	 * @param sql (String) The SQL instruction the statement was prepared for.
+	 * @param ps (PreparedStatement) The statement.
+	 */
+	public void releaseStatement(String sql, PreparedStatement ps) {
+		
+		pooledConn.getStatementCache().release(sql, ps);
+	}
+	
+	/**
+	 * Sets a description of the connection user (e.g. the transaction running on it), to be reported should the 
+	 * 	connection leak.
+	 * @param owner (String)
+	 */
+	void setOwner(String owner) {
+		
+		leakGuard.owner = owner;
+	}
+	
+	/**
+	 * Returns the number of connections currently open (i.e. got and not yet closed).
+	 * @return (int)
+	 */
+	public static int getOpenConnectionCount() {
+		
+		return openConnTable.size();
+	}
+	
+	private static synchronized void startLeakReaper() {
+		
+		if(leakReaper!=null)
+			return;
+		
+		leakReaper = new Thread(new Runnable() {
+			public void run() {
+				while(true) {
+					try {
+						LeakGuard guard = (LeakGuard)leakedConnections.remove();
+						if(openConnTable.remove(guard.connSerial, guard))
+							guard.reclaim();
+					}
+					catch(InterruptedException e) {
+						logger.warn("Weird! Connection leak reaper was interrupted");
+						return;
+					}
+					catch(Exception e) {
+						logger.error("Couldn't reclaim a leaked connection: " + e.getMessage());
+					}
+				}
+			}
+		});
+		leakReaper.setName("SqlConnection leak reaper");
+		leakReaper.setDaemon(true);
+		leakReaper.start();
+	}
+	
+	/**
+	 * Tracking info for an open connection, enqueued by the garbage collector once the connection is unreachable. It 
+	 * 	must hold no reference to the connection itself, only to what's needed to report and reclaim it.
+	 */
+	private static class LeakGuard extends PhantomReference<SqlConnection> {
+		
+		private long connSerial;
+		private PooledConnection pooledConn;
+		private long opened;
+		private Throwable allocationStack;
+		private volatile String owner;
+		
+		private LeakGuard(SqlConnection conn, boolean captureStack) {
+			
+			super(conn, leakedConnections);
+			this.connSerial = conn.connSerial;
+			this.pooledConn = conn.pooledConn;
+			this.opened = System.currentTimeMillis();
+			this.allocationStack = captureStack?new Throwable("Connection #" + connSerial + " opened here"):null;
+		}
 		
-		return serial++;
+		private void reclaim() {
+			
+			String message = "Check resource usage: connection #" + connSerial + 
+					(owner!=null?" (" + owner + ")":"") + " was leaked (never closed) after being open for " + 
+					(System.currentTimeMillis() - opened) + "ms; reclaimed";
+			if(allocationStack!=null) {
+				StringWriter stack = new StringWriter();
+				allocationStack.printStackTrace(new PrintWriter(stack));
+				message += "\n" + stack;
+			}
+			logger.warn(message);
+			
+			// Possibly uncommited changes are dropped along with the physical connection
+			pooledConn.discard();
+		}
 	}
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
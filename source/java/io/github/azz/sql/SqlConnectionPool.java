@@ -0,0 +1,282 @@
+/* ****************************************************************************************************************** *
+ * SqlConnectionPool.java                                                                                             *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.azz.logging.AppLogger;
+
+/**
+ * A bounded pool of physical database connections.
+ * <br/><br/>
+ * Opening a physical connection is by far the most expensive step in running a short transaction, so connections are
+ * 	kept open and handed out again once released. The pool:
+ * <ul>
+ * <li>Never hands out more than maxSize connections at a time. Consumers asking for a connection when all of them are
+ * 	in use wait up to borrowTimeout milliseconds; an SQLException is thrown afterwards.</li>
+ * <li>Keeps at least minSize physical connections open. Idle connections above that are closed after idleTimeout
+ * 	milliseconds.</li>
+ * <li>Optionally validates connections before handing them out, silently replacing those found broken.</li>
+ * </ul>
+ * Idle connections are handed out most-recently-used first, so the least used ones are the ones left to expire.
+ * 	<br/><br/>
+ * This class is not intended to be used directly, but by means of DbManager.getConnection() and the SqlConnection class.
+ * @author a-zz
+ * @see DbManager
+ * @see SqlConnection
+ */
+public class SqlConnectionPool {
+
+	private static AppLogger logger = new AppLogger(SqlConnectionPool.class);
+
+	// -- Validation timeout for connections, in seconds
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	// -- Pool parameters
+	private String name;
+	private String url;
+	private String usr;
+	private String pwd;
+	private int minSize;
+	private int maxSize;
+	private long idleTimeout;
+	private long borrowTimeout;
+	private boolean validateOnBorrow;
+	private int statementCacheSize;
+
+	// -- Pool state
+	private LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<PooledConnection>();
+	private Semaphore borrowPermits;
+	private AtomicInteger size = new AtomicInteger(0);
+	private Timer evictionTimer;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor: creates a new connection pool and opens its first minSize connections.
+	 * @param name (String) The pool name, for logging purposes.
+	 * @param url (String) Database URL.
+	 * @param usr (String) Database user.
+	 * @param pwd (String) Database password.
+	 * @param minSize (int) Minimum number of physical connections kept open.
+	 * @param maxSize (int) Maximum number of connections handed out at the same time.
+	 * @param idleTimeout (long) Time (in millis) an idle connection above minSize is kept open. Set to 0 to keep them
+	 * 	open indefinitely.
+	 * @param borrowTimeout (long) Time (in millis) to wait for a free connection when all of them are in use.
+	 * @param validateOnBorrow (boolean) Sets whether connections are checked to be alive before being handed out.
+	 * @param statementCacheSize (int) Size of the prepared statement cache for every connection (0 to disable it).
+	 * @throws SQLException
+	 * @see SqlStatementCache
+	 */
+	public SqlConnectionPool(String name, String url, String usr, String pwd, int minSize, int maxSize,
+			long idleTimeout, long borrowTimeout, boolean validateOnBorrow, int statementCacheSize) 
+					throws SQLException {
+
+		if(maxSize<1 || minSize<0 || minSize>maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+
+		this.name = name;
+		this.url = url;
+		this.usr = usr;
+		this.pwd = pwd;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+		this.validateOnBorrow = validateOnBorrow;
+		this.statementCacheSize = statementCacheSize;
+		this.borrowPermits = new Semaphore(maxSize, true);
+
+		fillUpToMinSize();
+		if(idleTimeout>0) {
+			long evictionInterval = Math.max(1000, Math.min(idleTimeout, 60000));
+			evictionTimer = new Timer("SqlConnectionPool " + name + " eviction", true);
+			evictionTimer.schedule(new TimerTask() {
+				public void run() {
+					evictIdleConnections();
+				}
+			}, evictionInterval, evictionInterval);
+		}
+
+		logger.debug("Connection pool " + name + " created (min " + minSize + ", max " + maxSize +
+				", idle timeout " + idleTimeout + "ms, borrow timeout " + borrowTimeout + "ms, validation on borrow: " +
+				validateOnBorrow + ", statement cache size " + statementCacheSize + ")");
+	}
+
+	/**
+	 * Gets a connection from the pool, opening a new one if no idle connection is available. If maxSize connections are
+	 * 	already in use, waits up to borrowTimeout for one of them to be released.
+	 * @return (PooledConnection) The connection. It must be handed back by calling its release() method.
+	 * @throws SQLException If the pool is closed, no connection is released within borrowTimeout or a new connection
+	 * 	can't be opened.
+	 */
+	public PooledConnection borrow() throws SQLException {
+
+		if(closed)
+			throw new SQLException("Connection pool " + name + " is closed");
+
+		try {
+			if(!borrowPermits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS))
+				throw new SQLException("Timed out waiting for a connection from pool " + name + " (" + maxSize +
+						" connections in use for more than " + borrowTimeout + "ms)");
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection from pool " + name);
+		}
+
+		try {
+			PooledConnection pc;
+			while((pc = idleConnections.pollFirst())!=null) {
+				if(!validateOnBorrow || pc.isValid(VALIDATION_TIMEOUT))
+					return pc;
+				logger.debug("Connection pool " + name + ": discarding broken connection");
+				closePhysical(pc);
+			}
+			return open();
+		}
+		catch(SQLException e) {
+			borrowPermits.release();
+			throw e;
+		}
+		catch(RuntimeException e) {
+			borrowPermits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Shuts the pool down, closing every idle connection. Connections in use are closed as they're released.
+	 */
+	public void close() {
+
+		closed = true;
+		if(evictionTimer!=null)
+			evictionTimer.cancel();
+		PooledConnection pc;
+		while((pc = idleConnections.pollFirst())!=null)
+			closePhysical(pc);
+		logger.debug("Connection pool " + name + " closed");
+	}
+
+	/**
+	 * Returns the pool name.
+	 * @return (String)
+	 */
+	public String getName() {
+
+		return name;
+	}
+
+	/**
+	 * Returns the maximum number of connections handed out at the same time.
+	 * @return (int)
+	 */
+	public int getMaxSize() {
+
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of physical connections currently open (both idle and in use).
+	 * @return (int)
+	 */
+	public int getSize() {
+
+		return size.get();
+	}
+
+	/**
+	 * Returns the number of connections currently idle.
+	 * @return (int)
+	 */
+	public int getIdleCount() {
+
+		return idleConnections.size();
+	}
+
+	/**
+	 * Returns the number of connections currently in use.
+	 * @return (int)
+	 */
+	public int getActiveCount() {
+
+		return maxSize - borrowPermits.availablePermits();
+	}
+
+	public String toString() {
+
+		return "Connection pool " + name + " (" + getActiveCount() + " in use, " + getIdleCount() + " idle, max " +
+				maxSize + ")";
+	}
+
+	void release(PooledConnection pc) {
+
+		pc.touch();
+		if(closed)
+			closePhysical(pc);
+		else
+			idleConnections.offerFirst(pc);
+		borrowPermits.release();
+	}
+
+	void discard(PooledConnection pc) {
+
+		closePhysical(pc);
+		borrowPermits.release();
+	}
+
+	private PooledConnection open() throws SQLException {
+
+		PooledConnection pc = new PooledConnection(this, DriverManager.getConnection(url, usr, pwd), 
+				statementCacheSize);
+		size.incrementAndGet();
+		logger.trace("Connection pool " + name + ": opened new physical connection (" + size.get() + " open)");
+		return pc;
+	}
+
+	private void closePhysical(PooledConnection pc) {
+
+		pc.closePhysical();
+		size.decrementAndGet();
+		logger.trace("Connection pool " + name + ": closed physical connection (" + size.get() + " open)");
+	}
+
+	private void fillUpToMinSize() throws SQLException {
+
+		while(!closed && size.get()<minSize)
+			idleConnections.offerLast(open());
+	}
+
+	private void evictIdleConnections() {
+
+		long now = System.currentTimeMillis();
+
+		// Oldest idle connections are found at the tail of the deque
+		Iterator<PooledConnection> it = idleConnections.descendingIterator();
+		while(it.hasNext() && size.get()>minSize) {
+			PooledConnection pc = it.next();
+			if(now - pc.getLastUsed() > idleTimeout && idleConnections.remove(pc))
+				closePhysical(pc);
+		}
+
+		try {
+			fillUpToMinSize();
+		}
+		catch(SQLException e) {
+			logger.warn("Connection pool " + name + ": couldn't open connections up to minimum size: " +
+					e.getMessage());
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
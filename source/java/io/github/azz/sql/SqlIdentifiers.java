@@ -0,0 +1,32 @@
+/* ****************************************************************************************************************** *
+ * SqlIdentifiers.java                                                                                                *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.util.regex.Pattern;
+
+/**
+ * Utility class for checking SQL identifiers (table and column names) which are concatenated into SQL instructions, 
+ * 	rather than bound as parameters, so they can't smuggle SQL in.
+ * @author a-zz
+ */
+public class SqlIdentifiers {
+
+	private static final Pattern plainIdentifier = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	
+	/**
+	 * Checks an identifier to be plain: letters, digits and underscores, not starting with a digit (no quoting, no 
+	 * 	schema qualification).
+	 * @param name (String) The identifier.
+	 * @param usage (String) What the identifier is for, for the exception message (e.g. "replication").
+	 * @throws IllegalArgumentException If the identifier is not plain.
+	 */
+	public static void checkPlain(String name, String usage) {
+		
+		if(name==null || !plainIdentifier.matcher(name).matches())
+			throw new IllegalArgumentException("Not a valid identifier for " + usage + ": " + name);
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,446 @@
+/* ****************************************************************************************************************** *
+ * SqlParameters.java                                                                                                 *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * A typed set of parameter values for a prepared (parametrized) SQL instruction, to be used with 
+ * 	SqlTransaction.preparedStatement(), addBatch() and query().
+ * 	<br/><br/>
+ * Parameters are set by index (starting at 1, as in JDBC) with typed setters; numeric and boolean values are kept as
+ * 	primitives, so no boxing takes place. A parameter set can be reused for any number of executions: values are kept 
+ * 	until overwritten or cleared, so only those changing between executions need to be set again (except for streamed
+ * 	values, which can only be read once). E.g.
+ * <pre>
+ * SqlParameters params = new SqlParameters(2);
+ * t.beginBatch("insert into T (ID, NAME) values (?, ?)");
+ * for(...) {
+ * 	params.setLong(1, id).setString(2, name);
+ * 	t.addBatch(params);
+ * }
+ * t.executeBatch();
+ * </pre>
+ * This class isn't thread-safe.
+ * @author a-zz
+ * @see SqlTransaction
+ */
+public class SqlParameters {
+
+	// -- Parameter types
+	private static final byte UNSET = 0;
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+	private static final byte FLOAT = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte BOOLEAN = 5;
+	private static final byte STRING = 6;
+	private static final byte BIG_DECIMAL = 7;
+	private static final byte TIMESTAMP = 8;
+	private static final byte INSTANT = 9;
+	private static final byte BYTES = 10;
+	private static final byte NULL = 11;
+	private static final byte BINARY_STREAM = 12;
+	private static final byte CHARACTER_STREAM = 13;
+	
+	private byte[] types;
+	private long[] longs;
+	private double[] doubles;
+	private Object[] objects;
+	private int count = 0;
+	
+	/**
+	 * Constructor: creates an empty parameter set, with room for 8 parameters (grown as needed).
+	 */
+	public SqlParameters() {
+		
+		this(8);
+	}
+	
+	/**
+	 * Constructor: creates an empty parameter set.
+	 * @param capacity (int) Expected number of parameters (the set grows as needed anyway).
+	 */
+	public SqlParameters(int capacity) {
+		
+		capacity = Math.max(1, capacity);
+		types = new byte[capacity];
+		longs = new long[capacity];
+		doubles = new double[capacity];
+		objects = new Object[capacity];
+	}
+	
+	/**
+	 * Sets an int parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (int)
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setInt(int index, int value) {
+		
+		int i = slot(index, INT);
+		longs[i] = value;
+		return this;
+	}
+	
+	/**
+	 * Sets a long parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (long)
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setLong(int index, long value) {
+		
+		int i = slot(index, LONG);
+		longs[i] = value;
+		return this;
+	}
+	
+	/**
+	 * Sets a float parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (float)
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setFloat(int index, float value) {
+		
+		int i = slot(index, FLOAT);
+		doubles[i] = value;
+		return this;
+	}
+	
+	/**
+	 * Sets a double parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (double)
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setDouble(int index, double value) {
+		
+		int i = slot(index, DOUBLE);
+		doubles[i] = value;
+		return this;
+	}
+	
+	/**
+	 * Sets a boolean parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (boolean)
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setBoolean(int index, boolean value) {
+		
+		int i = slot(index, BOOLEAN);
+		longs[i] = value?1:0;
+		return this;
+	}
+	
+	/**
+	 * Sets a string parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (String) null is set as SQL NULL.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setString(int index, String value) {
+		
+		return setObject(index, value, STRING, java.sql.Types.VARCHAR);
+	}
+	
+	/**
+	 * Sets a decimal parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (BigDecimal) null is set as SQL NULL.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setBigDecimal(int index, BigDecimal value) {
+		
+		return setObject(index, value, BIG_DECIMAL, java.sql.Types.DECIMAL);
+	}
+	
+	/**
+	 * Sets a timestamp parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (Timestamp) null is set as SQL NULL.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setTimestamp(int index, Timestamp value) {
+		
+		return setObject(index, value, TIMESTAMP, java.sql.Types.TIMESTAMP);
+	}
+	
+	/**
+	 * Sets a timestamp parameter from an instant.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (Instant) null is set as SQL NULL.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setInstant(int index, Instant value) {
+		
+		return setObject(index, value, INSTANT, java.sql.Types.TIMESTAMP);
+	}
+	
+	/**
+	 * Sets a binary parameter.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (byte[]) null is set as SQL NULL. The array isn't copied, so it mustn't be modified until the 
+	 * 	instruction is run.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setBytes(int index, byte[] value) {
+		
+		return setObject(index, value, BYTES, java.sql.Types.VARBINARY);
+	}
+	
+	/**
+	 * Sets a universal identifier parameter, in its compact 16-byte binary form (e.g. for binary(16) columns).
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (UUID) null is set as SQL NULL.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 * @see DbReplicator#toBytes(UUID)
+	 */
+	public SqlParameters setUUID(int index, UUID value) {
+		
+		return setBytes(index, value==null?null:DbReplicator.toBytes(value));
+	}
+	
+	/**
+	 * Sets a parameter to SQL NULL.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param sqlType (int) The parameter SQL type, as defined in java.sql.Types.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setNull(int index, int sqlType) {
+		
+		int i = slot(index, NULL);
+		longs[i] = sqlType;
+		objects[i] = null;
+		return this;
+	}
+	
+	/**
+	 * Sets a binary parameter read from a stream (e.g. for BLOB columns), so it's not held in memory as a whole. The 
+	 * 	stream is read when the instruction is run, so it must be set again for every execution. Closing the stream is
+	 * 	up to the caller.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (InputStream) null is set as SQL NULL.
+	 * @param length (long) The number of bytes to be read; -1 for reading up to the end of the stream.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setBinaryStream(int index, InputStream value, long length) {
+		
+		setObject(index, value, BINARY_STREAM, java.sql.Types.BLOB);
+		if(value!=null)
+			longs[index-1] = length;
+		return this;
+	}
+	
+	/**
+	 * Sets a character parameter read from a reader (e.g. for CLOB columns), so it's not held in memory as a whole. 
+	 * 	The reader is read when the instruction is run, so it must be set again for every execution. Closing the 
+	 * 	reader is up to the caller.
+	 * @param index (int) The parameter index, starting at 1.
+	 * @param value (Reader) null is set as SQL NULL.
+	 * @param length (long) The number of characters to be read; -1 for reading up to the end of the reader.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters setCharacterStream(int index, Reader value, long length) {
+		
+		setObject(index, value, CHARACTER_STREAM, java.sql.Types.CLOB);
+		if(value!=null)
+			longs[index-1] = length;
+		return this;
+	}
+	
+	/**
+	 * Returns the number of parameters, i.e. the highest index set.
+	 * @return (int)
+	 */
+	public int size() {
+		
+		return count;
+	}
+	
+	/**
+	 * Unsets every parameter, so the set can be reused for a different instruction.
+	 * @return (SqlParameters) This parameter set, for chaining.
+	 */
+	public SqlParameters clear() {
+		
+		Arrays.fill(types, 0, count, UNSET);
+		Arrays.fill(objects, 0, count, null);
+		count = 0;
+		return this;
+	}
+	
+	/**
+	 * Sets the parameters into a prepared statement.
+	 * @param ps (PreparedStatement) The statement.
+	 * @throws SQLException If any parameter up to the highest index set is unset, or the statement rejects a value.
+	 */
+	void bind(PreparedStatement ps) throws SQLException {
+		
+		for(int i=0; i<count; i++) {
+			int index = i + 1;
+			switch(types[i]) {
+			case INT:
+				ps.setInt(index, (int)longs[i]);
+				break;
+			case LONG:
+				ps.setLong(index, longs[i]);
+				break;
+			case FLOAT:
+				ps.setFloat(index, (float)doubles[i]);
+				break;
+			case DOUBLE:
+				ps.setDouble(index, doubles[i]);
+				break;
+			case BOOLEAN:
+				ps.setBoolean(index, longs[i]!=0);
+				break;
+			case STRING:
+				ps.setString(index, (String)objects[i]);
+				break;
+			case BIG_DECIMAL:
+				ps.setBigDecimal(index, (BigDecimal)objects[i]);
+				break;
+			case TIMESTAMP:
+				ps.setTimestamp(index, (Timestamp)objects[i]);
+				break;
+			case INSTANT:
+				ps.setTimestamp(index, Timestamp.from((Instant)objects[i]));
+				break;
+			case BYTES:
+				ps.setBytes(index, (byte[])objects[i]);
+				break;
+			case NULL:
+				ps.setNull(index, (int)longs[i]);
+				break;
+			case BINARY_STREAM:
+				if(longs[i]<0)
+					ps.setBinaryStream(index, (InputStream)objects[i]);
+				else
+					ps.setBinaryStream(index, (InputStream)objects[i], longs[i]);
+				break;
+			case CHARACTER_STREAM:
+				if(longs[i]<0)
+					ps.setCharacterStream(index, (Reader)objects[i]);
+				else
+					ps.setCharacterStream(index, (Reader)objects[i], longs[i]);
+				break;
+			default:
+				throw new SQLException("Parameter #" + index + " not set");
+			}
+		}
+	}
+	
+	/**
+	 * Returns an unambiguous text representation of the values set, for keying cached results (see SqlResultCache).
+	 * @return (String) null if any value can't be represented (streams).
+	 */
+	String getKey() {
+		
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<count; i++) {
+			sb.append(types[i]).append(':');
+			switch(types[i]) {
+			case INT: case LONG: case BOOLEAN: case NULL:
+				sb.append(longs[i]);
+				break;
+			case FLOAT: case DOUBLE:
+				sb.append(Double.doubleToLongBits(doubles[i]));
+				break;
+			case BYTES:
+				sb.append(Base64.getEncoder().encodeToString((byte[])objects[i]));
+				break;
+			case STRING:
+				// Length-prefixed, so no separator within the value can be mistaken
+				sb.append(((String)objects[i]).length()).append(':').append(objects[i]);
+				break;
+			case BINARY_STREAM: case CHARACTER_STREAM:
+				return null;
+			default:
+				sb.append(objects[i]);
+			}
+			sb.append(';');
+		}
+		return sb.toString();
+	}
+	
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder("[");
+		for(int i=0; i<count; i++) {
+			if(i>0)
+				sb.append(", ");
+			switch(types[i]) {
+			case INT: case LONG:
+				sb.append(longs[i]);
+				break;
+			case FLOAT: case DOUBLE:
+				sb.append(doubles[i]);
+				break;
+			case BOOLEAN:
+				sb.append(longs[i]!=0);
+				break;
+			case NULL:
+				sb.append("null");
+				break;
+			case BYTES:
+				sb.append("byte[").append(((byte[])objects[i]).length).append("]");
+				break;
+			case BINARY_STREAM: case CHARACTER_STREAM:
+				sb.append("(stream)");
+				break;
+			case UNSET:
+				sb.append("(unset)");
+				break;
+			default:
+				sb.append(objects[i]);
+			}
+		}
+		return sb.append("]").toString();
+	}
+	
+	private SqlParameters setObject(int index, Object value, byte type, int sqlType) {
+		
+		if(value==null)
+			return setNull(index, sqlType);
+		
+		int i = slot(index, type);
+		objects[i] = value;
+		return this;
+	}
+	
+	private int slot(int index, byte type) {
+		
+		if(index<1)
+			throw new IndexOutOfBoundsException("Invalid parameter index: " + index);
+		
+		int i = index - 1;
+		if(i>=types.length) {
+			int capacity = Math.max(types.length * 2, index);
+			types = Arrays.copyOf(types, capacity);
+			longs = Arrays.copyOf(longs, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+		}
+		types[i] = type;
+		objects[i] = null;
+		if(index>count)
+			count = index;
+		return i;
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,523 @@
+/* ****************************************************************************************************************** *
+ * SqlResultCache.java                                                                                                *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.rowset.CachedRowSet;
+
+/**
+ * Query result cache, for the whole application (JVM): small results of repeated queries (see 
+ * 	SqlTransaction.cachedQuery()) are kept in memory, keyed by SQL text and parameter values, and tagged with the 
+ * 	tables they read. 
+ * <br/><br/>
+ * Writes run through SqlTransaction (statements, prepared statements and batches) invalidate every result tagged with
+ * 	the tables written, both when run and at commit time. Writes the cache can't tell the tables for (e.g. procedure 
+ * 	calls) invalidate every result. Writes made behind SqlTransaction's back (e.g. by triggers, or by other application
+ * 	nodes on a shared database) aren't noticed: results read from such tables shouldn't be cached, or a time-to-live 
+ * 	should be set.
+ * <br/><br/>
+ * The cache is bounded (least recently used results are evicted first) and set up along with DbManager, from local 
+ * 	properties db.sql.resultCache.*. Hits, misses, evictions and invalidations are counted.
+ * @author a-zz
+ * @see SqlTransaction#cachedQuery(String, SqlParameters)
+ */
+public class SqlResultCache {
+
+	private static final String ALL_TABLES = "*";
+	// -- Maximum number of SQL instructions whose tables are kept once parsed
+	private static final int MAX_PARSED = 1000;
+	private static final List<String> UNKNOWN_TABLES = Collections.unmodifiableList(new ArrayList<String>(0));
+	
+	private static int maxEntries = 0;
+	private static int maxRows = 0;
+	private static long ttl = 0;
+	private static LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+	private static ConcurrentHashMap<String,AtomicLong> generations = new ConcurrentHashMap<String,AtomicLong>();
+	private static ConcurrentHashMap<String,List<String>> readTables = new ConcurrentHashMap<String,List<String>>();
+	private static ConcurrentHashMap<String,List<String>> writtenTables = new ConcurrentHashMap<String,List<String>>();
+	private static LongAdder hits = new LongAdder();
+	private static LongAdder misses = new LongAdder();
+	private static LongAdder evictions = new LongAdder();
+	private static LongAdder invalidations = new LongAdder();
+	
+	/**
+	 * Sets up the result cache. Only to be called by DbManager.
+	 * @param maxEntries (int) Maximum number of results kept; 0 disables caching.
+	 * @param maxRows (int) Maximum number of rows for a result to be cached.
+	 * @param ttl (long) Time results are kept for, in millis; 0 for no limit (i.e. until invalidated).
+	 */
+	static synchronized void initialize(int maxEntries, int maxRows, long ttl) {
+		
+		if(maxEntries<0 || maxRows<0 || ttl<0)
+			throw new IllegalArgumentException("Invalid result cache setup: " + maxEntries + " entries, " + maxRows + 
+					" rows, " + ttl + "ms");
+		
+		SqlResultCache.maxEntries = maxEntries;
+		SqlResultCache.maxRows = maxRows;
+		SqlResultCache.ttl = ttl;
+		entries.clear();
+	}
+	
+	/**
+	 * Checks whether result caching is enabled.
+	 * @return (boolean)
+	 */
+	public static boolean isEnabled() {
+		
+		return maxEntries>0;
+	}
+	
+	/**
+	 * Returns the maximum number of rows for a result to be cached.
+	 * @return (int)
+	 */
+	public static int getMaxRows() {
+		
+		return maxRows;
+	}
+	
+	/**
+	 * Looks up a cached result.
+	 * @param key (String) The result key (see getKey()).
+	 * @return (ResultSet) A new, read-only result set over the cached rows, positioned before the first row; null on a 
+	 * 	cache miss.
+	 * @throws SQLException
+	 */
+	static ResultSet get(String key) throws SQLException {
+		
+		Entry entry;
+		synchronized(SqlResultCache.class) {
+			entry = entries.get(key);
+			if(entry!=null && ttl>0 && System.currentTimeMillis() - entry.cached > ttl) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+		if(entry==null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return ReadOnlyResultSet.wrap(entry.rows);
+	}
+	
+	/**
+	 * Caches a result, unless any of the tables it reads was written since its generation was got (as the result may
+	 * 	be outdated already).
+	 * @param key (String) The result key (see getKey()).
+	 * @param rows (CachedRowSet) The result.
+	 * @param tables (List<String>) Tables read, as got from getReadTables().
+	 * @param generation (long[]) Table generations before the query was run, as got from getGeneration().
+	 * @return (ResultSet) A new, read-only result set over the cached rows, as in get(); null if not cached.
+	 * @throws SQLException
+	 */
+	static ResultSet put(String key, CachedRowSet rows, List<String> tables, long[] generation) throws SQLException {
+		
+		synchronized(SqlResultCache.class) {
+			if(!isEnabled() || generation[0]!=generation(ALL_TABLES))
+				return null;
+			for(int i=0; i<tables.size(); i++)
+				if(generation[i+1]!=generation(tables.get(i)))
+					return null;
+			entries.put(key, new Entry(rows, tables));
+			while(entries.size()>maxEntries) {
+				entries.remove(entries.keySet().iterator().next());
+				evictions.increment();
+			}
+		}
+		return ReadOnlyResultSet.wrap(rows);
+	}
+	
+	/**
+	 * Gets the current generation of the tables read by a query, to be handed to put() once the query is run.
+	 * @param tables (List<String>) Tables read, as got from getReadTables().
+	 * @return (long[])
+	 */
+	static long[] getGeneration(List<String> tables) {
+		
+		long[] generation = new long[tables.size()+1];
+		generation[0] = generation(ALL_TABLES);
+		for(int i=0; i<tables.size(); i++)
+			generation[i+1] = generation(tables.get(i));
+		return generation;
+	}
+	
+	/**
+	 * Invalidates every cached result tagged with any of a number of tables.
+	 * @param tables (Collection<String>) Table names (as got from getWrittenTables()); null for every table.
+	 */
+	static void invalidate(Collection<String> tables) {
+		
+		synchronized(SqlResultCache.class) {
+			if(tables==null) {
+				generations.computeIfAbsent(ALL_TABLES, k -> new AtomicLong()).incrementAndGet();
+				invalidations.add(entries.size());
+				entries.clear();
+				return;
+			}
+			for(String table : tables)
+				generations.computeIfAbsent(table, k -> new AtomicLong()).incrementAndGet();
+			if(entries.isEmpty())
+				return;
+			entries.values().removeIf(entry -> {
+				for(String table : entry.tables) {
+					if(tables.contains(table)) {
+						invalidations.increment();
+						return true;
+					}
+				}
+				return false;
+			});
+		}
+	}
+	
+	/**
+	 * Discards every cached result.
+	 */
+	public static void clear() {
+		
+		invalidate(null);
+	}
+	
+	/**
+	 * Returns the key for a query result.
+	 * @param sql (String) The SQL query.
+	 * @param params (SqlParameters) The query parameters; may be null.
+	 * @return (String) null if the result can't be cached (e.g. streamed parameter values).
+	 */
+	static String getKey(String sql, SqlParameters params) {
+		
+		if(params==null)
+			return sql;
+		String paramsKey = params.getKey();
+		return paramsKey==null?null:sql + "\u0000" + paramsKey;
+	}
+	
+	/**
+	 * Returns the tables read by a query, i.e. those following FROM or JOIN (subqueries included).
+	 * @param sql (String) The SQL query.
+	 * @return (List<String>) Table names, upper-cased unless quoted and without schema.
+	 */
+	static List<String> getReadTables(String sql) {
+		
+		List<String> tables = readTables.get(sql);
+		if(tables==null) {
+			tables = Collections.unmodifiableList(parseReadTables(sql));
+			if(readTables.size()<MAX_PARSED)
+				readTables.put(sql, tables);
+		}
+		return tables;
+	}
+	
+	private static List<String> parseReadTables(String sql) {
+		
+		List<String> tokens = tokenize(sql);
+		List<String> tables = new ArrayList<String>();
+		for(int i=0; i<tokens.size(); i++) {
+			String token = tokens.get(i);
+			if(!token.equals("FROM") && !token.equals("JOIN"))
+				continue;
+			// A list of tables (FROM A a, B as b, ...), or a single one after JOIN
+			while(i+1<tokens.size() && isIdentifier(tokens.get(i+1))) {
+				addTable(tables, tokens.get(++i));
+				if(i+1<tokens.size() && tokens.get(i+1).equals("AS"))
+					i++;
+				if(i+1<tokens.size() && isIdentifier(tokens.get(i+1)) && !isKeyword(tokens.get(i+1)))
+					i++;
+				if(i+1<tokens.size() && tokens.get(i+1).equals(",") && token.equals("FROM"))
+					i++;
+				else
+					break;
+			}
+		}
+		return tables;
+	}
+	
+	/**
+	 * Returns the tables written by a SQL statement: INSERT INTO, UPDATE, DELETE FROM, MERGE INTO, TRUNCATE TABLE, 
+	 * 	ALTER TABLE and DROP TABLE are recognized. 
+	 * @param sql (String) The SQL statement.
+	 * @return (List<String>) Table names, as in getReadTables(); null if they can't be told (any table may have been 
+	 * 	written).
+	 */
+	static List<String> getWrittenTables(String sql) {
+		
+		List<String> tables = writtenTables.get(sql);
+		if(tables==null) {
+			tables = parseWrittenTables(sql);
+			tables = tables==null?UNKNOWN_TABLES:Collections.unmodifiableList(tables);
+			if(writtenTables.size()<MAX_PARSED)
+				writtenTables.put(sql, tables);
+		}
+		return tables==UNKNOWN_TABLES?null:tables;
+	}
+	
+	private static List<String> parseWrittenTables(String sql) {
+		
+		List<String> tokens = tokenize(sql);
+		if(tokens.size()<2)
+			return null;
+		String first = tokens.get(0);
+		int i;
+		if(first.equals("UPDATE"))
+			i = 1;
+		else if((first.equals("INSERT") || first.equals("MERGE")) && tokens.get(1).equals("INTO"))
+			i = 2;
+		else if(first.equals("DELETE") && tokens.get(1).equals("FROM"))
+			i = 2;
+		else if((first.equals("TRUNCATE") || first.equals("ALTER") || first.equals("DROP")) && 
+				tokens.get(1).equals("TABLE"))
+			i = 2;
+		else
+			return null;
+		if(i<tokens.size() && tokens.get(i).equals("IF"))
+			// DROP TABLE IF EXISTS T
+			i += 2;
+		if(i>=tokens.size() || !isIdentifier(tokens.get(i)))
+			return null;
+		List<String> tables = new ArrayList<String>(1);
+		addTable(tables, tokens.get(i));
+		return tables;
+	}
+	
+	/**
+	 * Returns the number of cached results.
+	 * @return (int)
+	 */
+	public static synchronized int getSize() {
+		
+		return entries.size();
+	}
+	
+	/**
+	 * Returns the number of lookups served from the cache.
+	 * @return (long)
+	 */
+	public static long getHits() {
+		
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of lookups not served from the cache.
+	 * @return (long)
+	 */
+	public static long getMisses() {
+		
+		return misses.sum();
+	}
+	
+	/**
+	 * Returns the ratio of lookups served from the cache.
+	 * @return (double) From 0 to 1; 0 if there were no lookups yet.
+	 */
+	public static double getHitRatio() {
+		
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups==0?0:(double)hits/lookups;
+	}
+	
+	/**
+	 * Returns the number of results evicted to keep the cache within its size.
+	 * @return (long)
+	 */
+	public static long getEvictions() {
+		
+		return evictions.sum();
+	}
+	
+	/**
+	 * Returns the number of results invalidated by writes.
+	 * @return (long)
+	 */
+	public static long getInvalidations() {
+		
+		return invalidations.sum();
+	}
+	
+	/**
+	 * Formats the cache metrics as a single line of text.
+	 * @return (String)
+	 */
+	public static String format() {
+		
+		return String.format("Result cache: %d results; %d hits / %d misses (%.1f%%); %d evicted; %d invalidated", 
+				getSize(), getHits(), getMisses(), getHitRatio() * 100, getEvictions(), getInvalidations());
+	}
+	
+	private static long generation(String table) {
+		
+		AtomicLong generation = generations.get(table);
+		return generation==null?0:generation.get();
+	}
+	
+	private static void addTable(List<String> tables, String name) {
+		
+		// Schema dropped: tables are told apart by name only, which is safe (may just invalidate more than needed)
+		int dot = name.lastIndexOf('.');
+		name = name.substring(dot+1);
+		if(name.startsWith("\""))
+			name = name.substring(1, name.length()-1);
+		if(!tables.contains(name))
+			tables.add(name);
+	}
+	
+	private static boolean isIdentifier(String token) {
+		
+		char c = token.charAt(0);
+		return Character.isLetter(c) || c=='_' || c=='"';
+	}
+	
+	private static boolean isKeyword(String token) {
+		
+		switch(token) {
+		case "WHERE": case "JOIN": case "ON": case "USING": case "INNER": case "LEFT": case "RIGHT": case "FULL": 
+		case "OUTER": case "CROSS": case "NATURAL": case "GROUP": case "ORDER": case "HAVING": case "UNION": 
+		case "EXCEPT": case "INTERSECT": case "LIMIT": case "OFFSET": case "FETCH": case "FOR": case "WINDOW":
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Splits a SQL instruction into tokens: identifiers (upper-cased unless quoted; dotted names kept whole) and 
+	 * 	single punctuation characters. String literals and comments are skipped.
+	 */
+	private static List<String> tokenize(String sql) {
+		
+		List<String> tokens = new ArrayList<String>();
+		int len = sql.length();
+		int i = 0;
+		while(i<len) {
+			char c = sql.charAt(i);
+			if(Character.isWhitespace(c))
+				i++;
+			else if(c=='\'') {
+				// String literal, with '' standing for an escaped quote
+				i++;
+				while(i<len) {
+					if(sql.charAt(i)!='\'')
+						i++;
+					else if(i+1<len && sql.charAt(i+1)=='\'')
+						i += 2;
+					else
+						break;
+				}
+				i++;
+			}
+			else if(c=='-' && i+1<len && sql.charAt(i+1)=='-') {
+				while(i<len && sql.charAt(i)!='\n')
+					i++;
+			}
+			else if(c=='/' && i+1<len && sql.charAt(i+1)=='*') {
+				int end = sql.indexOf("*/", i+2);
+				i = end<0?len:end+2;
+			}
+			else if(Character.isLetter(c) || c=='_' || c=='"') {
+				StringBuilder sb = new StringBuilder();
+				while(i<len) {
+					c = sql.charAt(i);
+					if(c=='"') {
+						int end = sql.indexOf('"', i+1);
+						end = end<0?len-1:end;
+						sb.append(sql, i, end+1);
+						i = end + 1;
+					}
+					else if(Character.isLetterOrDigit(c) || c=='_' || c=='$' || c=='.') {
+						sb.append(Character.toUpperCase(c));
+						i++;
+					}
+					else
+						break;
+				}
+				tokens.add(sb.toString());
+			}
+			else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+	
+	/**
+	 * A read-only result set over cached rows: a shallow copy of the cached row set (rows are shared, the cursor isn't)
+	 * 	whose close() doesn't clear the shared rows, as CachedRowSet's does. Identity semantics are kept for equals() 
+	 * 	and hashCode(), so wrappers can be tracked in collections.
+	 */
+	private static class ReadOnlyResultSet implements InvocationHandler {
+		
+		private ResultSet rs;
+		private boolean closed = false;
+		
+		private ReadOnlyResultSet(ResultSet rs) {
+			
+			this.rs = rs;
+		}
+		
+		static ResultSet wrap(CachedRowSet rows) throws SQLException {
+			
+			return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+					new ReadOnlyResultSet(rows.createShared()));
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			
+			String name = method.getName();
+			if(name.equals("equals") && args!=null && args.length==1)
+				return proxy==args[0];
+			else if(name.equals("hashCode") && args==null)
+				return System.identityHashCode(proxy);
+			else if(name.equals("close")) {
+				closed = true;
+				return null;
+			}
+			else if(name.equals("isClosed"))
+				return closed;
+			else if(name.startsWith("update") || name.equals("insertRow") || name.equals("deleteRow") || 
+					name.equals("moveToInsertRow"))
+				throw new SQLException("Cached results are read-only");
+			
+			try {
+				return method.invoke(rs, args);
+			}
+			catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+	
+	private static class Entry {
+		
+		private CachedRowSet rows;
+		private List<String> tables;
+		private long cached = System.currentTimeMillis();
+		
+		private Entry(CachedRowSet rows, List<String> tables) {
+			
+			this.rows = rows;
+			this.tables = tables;
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,253 @@
+/* ****************************************************************************************************************** *
+ * SqlRetry.java                                                                                                      *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.azz.logging.AppLogger;
+
+/**
+ * Retrying transactions: units of work are run within a new SQL transaction, and run again (in a new transaction) if
+ * 	it's aborted by the database engine because of a concurrency conflict, i.e. SQLSTATE 40001 (serialization 
+ * 	failure, also raised on deadlocks by most engines) or 40P01 (deadlock). Other transaction rollbacks (SQLSTATE class
+ * 	40) aren't retried, as they include cancelled statements (e.g. on timeout, see SqlTransaction).
+ * 	This is what makes higher isolation levels (or MVCC) usable under contention.
+ * <br/><br/>
+ * Retries are delayed with exponential backoff and full jitter: before retry n, a random time between 0 and 
+ * 	min(maxDelay, baseDelay * 2^(n-1)) millis. After maxAttempts attempts, the last exception is thrown. See local 
+ * 	properties db.sql.retry.*.
+ * <br/><br/>
+ * As units of work may be run more than once, they shouldn't have side effects outside the database. Retries are
+ * 	counted per transaction descriptor (see getStatistics()); the number of descriptors tracked is bounded, as in 
+ * 	SqlStatistics.
+ * <br/><br/>
+ * This facility is set up along with DbManager.
+ * @author a-zz
+ * @see SqlWork
+ */
+public class SqlRetry {
+
+	/** Maximum number of distinct descriptors tracked */
+	public static final int MAX_DESCRIPTORS = 1000;
+	/** Descriptor for transactions not tracked on their own, once MAX_DESCRIPTORS is reached */
+	public static final String OTHER_DESCRIPTOR = "(other)";
+	
+	private static AppLogger logger = new AppLogger(SqlRetry.class);
+	private static int maxAttempts = 5;
+	private static long baseDelay = 10;
+	private static long maxDelay = 1000;
+	private static ConcurrentHashMap<String,RetryStatistics> statistics = 
+			new ConcurrentHashMap<String,RetryStatistics>();
+	
+	/**
+	 * Sets up the retrying facility. Only to be called by DbManager.
+	 * @param maxAttempts (int) Maximum number of attempts per unit of work (1: no retries).
+	 * @param baseDelay (long) Delay before the first retry, in millis.
+	 * @param maxDelay (long) Maximum delay before a retry, in millis.
+	 */
+	static void initialize(int maxAttempts, long baseDelay, long maxDelay) {
+		
+		if(maxAttempts<1 || baseDelay<0 || maxDelay<baseDelay)
+			throw new IllegalArgumentException("Invalid transaction retry setup: " + maxAttempts + " attempts, " + 
+					baseDelay + " / " + maxDelay + "ms delay");
+		
+		SqlRetry.maxAttempts = maxAttempts;
+		SqlRetry.baseDelay = baseDelay;
+		SqlRetry.maxDelay = maxDelay;
+	}
+	
+	/**
+	 * Runs a unit of work within a new SQL transaction (no autocommit, isolation level READ COMMITTED), retrying on 
+	 * 	concurrency conflicts. The transaction is committed if the work completes normally, and rolled back otherwise.
+	 * @param descriptor (String) A descriptive text for the transaction, for logging and statistics purposes.
+	 * @param work (SqlWork<T>) The unit of work.
+	 * @return (T) The work result.
+	 * @throws SQLException The work exception, if not retryable or once attempts are exhausted.
+	 */
+	public static <T> T inTransaction(String descriptor, SqlWork<T> work) throws SQLException {
+		
+		return inTransaction(descriptor, SqlTransaction.EnumIsolationLevels.READ_COMMITTED, work);
+	}
+	
+	/**
+	 * Runs a unit of work within a new SQL transaction (no autocommit), retrying on concurrency conflicts. The 
+	 * 	transaction is committed if the work completes normally, and rolled back otherwise.
+	 * @param descriptor (String) A descriptive text for the transaction, for logging and statistics purposes.
+	 * @param isolationLevel (SqlTransaction.EnumIsolationLevels) Isolation level for the transaction.
+	 * @param work (SqlWork<T>) The unit of work.
+	 * @return (T) The work result.
+	 * @throws SQLException The work exception, if not retryable or once attempts are exhausted.
+	 */
+	public static <T> T inTransaction(String descriptor, SqlTransaction.EnumIsolationLevels isolationLevel, 
+			SqlWork<T> work) throws SQLException {
+		
+		for(int attempt=1; ; attempt++) {
+			SqlTransaction t = new SqlTransaction(descriptor, false, isolationLevel);
+			try {
+				T result = work.run(t);
+				t.commit();
+				if(attempt>1)
+					get(descriptor).recovered.increment();
+				return result;
+			}
+			catch(SQLException e) {
+				if(!isRetryable(e))
+					throw e;
+				if(attempt>=maxAttempts) {
+					get(descriptor).failed.increment();
+					logger.warn(t.toString() + ": giving up after " + attempt + " attempts: " + e.getMessage());
+					throw e;
+				}
+				get(descriptor).retries.increment();
+				long delay = ThreadLocalRandom.current().nextLong(
+						Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30)) + 1);
+				logger.debug(t.toString() + ": attempt " + attempt + " failed (" + e.getSQLState() + "), retrying " +
+						"in " + delay + "ms");
+				try {
+					Thread.sleep(delay);
+				}
+				catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+			finally {
+				t.close();
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether an exception stands for a concurrency conflict the transaction may succeed on if run again, i.e. 
+	 * 	its SQLSTATE (or that of any chained exception) is 40001 (serialization failure) or 40P01 (deadlock).
+	 * @param e (SQLException)
+	 * @return (boolean)
+	 */
+	public static boolean isRetryable(SQLException e) {
+		
+		for(SQLException ee = e; ee!=null; ee = ee.getNextException()) {
+			if("40001".equals(ee.getSQLState()) || "40P01".equals(ee.getSQLState()))
+				return true;
+			if(ee.getCause() instanceof SQLException && isRetryable((SQLException)ee.getCause()))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the retry statistics for every descriptor tracked, sorted by number of retries (descending).
+	 * @return (List<RetryStatistics>)
+	 */
+	public static List<RetryStatistics> getStatistics() {
+		
+		List<RetryStatistics> list = new ArrayList<RetryStatistics>(statistics.values());
+		Collections.sort(list, new Comparator<RetryStatistics>() {
+			public int compare(RetryStatistics a, RetryStatistics b) {
+				return Long.compare(b.getRetries(), a.getRetries());
+			}
+		});
+		return list;
+	}
+	
+	/**
+	 * Returns the retry statistics for a transaction descriptor.
+	 * @param descriptor (String)
+	 * @return (RetryStatistics) null if no transaction by that descriptor was retried yet.
+	 */
+	public static RetryStatistics getStatistics(String descriptor) {
+		
+		return statistics.get(descriptor);
+	}
+	
+	/**
+	 * Formats the retry statistics for every descriptor tracked (see getStatistics()) as a text table, one line per 
+	 * 	descriptor.
+	 * @return (String)
+	 */
+	public static String format() {
+		
+		StringBuilder sb = new StringBuilder("Transaction retries (retries / recovered / failed):");
+		for(RetryStatistics stats : getStatistics())
+			sb.append("\n\t").append(stats.toString());
+		return sb.toString();
+	}
+	
+	private static RetryStatistics get(String descriptor) {
+		
+		RetryStatistics stats = statistics.get(descriptor);
+		if(stats==null) {
+			if(statistics.size()>=MAX_DESCRIPTORS)
+				descriptor = OTHER_DESCRIPTOR;
+			stats = statistics.computeIfAbsent(descriptor, RetryStatistics::new);
+		}
+		return stats;
+	}
+	
+	/**
+	 * Retry statistics for a single transaction descriptor.
+	 */
+	public static class RetryStatistics {
+		
+		private String descriptor;
+		private LongAdder retries = new LongAdder();
+		private LongAdder recovered = new LongAdder();
+		private LongAdder failed = new LongAdder();
+		
+		private RetryStatistics(String descriptor) {
+			
+			this.descriptor = descriptor;
+		}
+		
+		/**
+		 * Returns the transaction descriptor.
+		 * @return (String)
+		 */
+		public String getDescriptor() {
+			
+			return descriptor;
+		}
+		
+		/**
+		 * Returns the number of retries, i.e. attempts after the first one.
+		 * @return (long)
+		 */
+		public long getRetries() {
+			
+			return retries.sum();
+		}
+		
+		/**
+		 * Returns the number of units of work completed after being retried.
+		 * @return (long)
+		 */
+		public long getRecovered() {
+			
+			return recovered.sum();
+		}
+		
+		/**
+		 * Returns the number of units of work failed once attempts were exhausted.
+		 * @return (long)
+		 */
+		public long getFailed() {
+			
+			return failed.sum();
+		}
+		
+		public String toString() {
+			
+			return getRetries() + " / " + getRecovered() + " / " + getFailed() + ": " + descriptor;
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,181 @@
+/* ****************************************************************************************************************** *
+ * SqlStatementCache.java                                                                                             *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.azz.logging.AppLogger;
+
+/**
+ * A least-recently-used cache of prepared statements for a physical connection, keyed by SQL text. Reusing a prepared
+ * 	statement saves the database engine from parsing and planning the same SQL over and over again.
+ * <br/><br/>
+ * Statements are checked out with prepare() and must be checked in with release() after execution (instead of being
+ * 	closed). When the cache is full, the least recently used statement is closed to make room for the new one; if it's 
+ * 	checked out, it's just dropped from the cache and closed on release. A statement is never handed out twice at once: 
+ * 	should the cached one for some SQL be checked out (e.g. by an open batch), an uncached one is prepared instead.
+ * <br/><br/>
+ * This class isn't thread-safe: it relies on the owning connection being used by a single consumer at a time, as
+ * 	guaranteed by the connection pool. Statements returning result sets which outlive the call (e.g. those returned by
+ * 	SqlTransaction.query()) shouldn't be cached, as re-executing the statement would close them.
+ * @author a-zz
+ * @see PooledConnection
+ */
+public class SqlStatementCache {
+
+	private static AppLogger logger = new AppLogger(SqlStatementCache.class);
+
+	// -- Overall statistics, for every cache in the JVM
+	private static AtomicLong totalHits = new AtomicLong(0);
+	private static AtomicLong totalMisses = new AtomicLong(0);
+
+	private Connection conn;
+	private int size;
+	private LinkedHashMap<String,PreparedStatement> statements;
+	private Set<PreparedStatement> checkedOut = 
+			Collections.newSetFromMap(new IdentityHashMap<PreparedStatement,Boolean>());
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Constructor: creates a statement cache for a connection.
+	 * @param conn (Connection) The connection.
+	 * @param size (int) Maximum number of statements held. Set to 0 to disable caching (every statement will be
+	 * 	prepared anew and closed on release).
+	 */
+	SqlStatementCache(Connection conn, int size) {
+
+		this.conn = conn;
+		this.size = size;
+		this.statements = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest) {
+				if(size()>SqlStatementCache.this.size) {
+					if(!checkedOut.contains(eldest.getValue()))
+						closeQuietly(eldest.getValue());
+					return true;
+				}
+				else
+					return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets a prepared statement for the SQL provided, either from cache or prepared anew.
+	 * @param sql (String) The SQL instruction
+	 * @return (PreparedStatement) The statement, with no parameters set. It must be handed back via release() after
+	 * 	use, rather than closed.
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+
+		PreparedStatement ps = statements.get(sql);
+		boolean inUse = ps!=null && checkedOut.contains(ps);
+		if(ps!=null && !inUse && !ps.isClosed()) {
+			hits++;
+			totalHits.incrementAndGet();
+			checkedOut.add(ps);
+			return ps;
+		}
+
+		misses++;
+		totalMisses.incrementAndGet();
+		ps = conn.prepareStatement(sql);
+		if(size>0 && !inUse)
+			statements.put(sql, ps);
+		checkedOut.add(ps);
+		return ps;
+	}
+
+	/**
+	 * Hands a statement back to the cache after use. Its parameters are cleared; if the statement is not held by the
+	 * 	cache (e.g. caching is disabled, it was evicted meanwhile or it was prepared uncached) it's closed instead.
+	 * @param sql (String) The SQL instruction the statement was prepared for.
+	 * @param ps (PreparedStatement) The statement.
+	 */
+	public void release(String sql, PreparedStatement ps) {
+
+		checkedOut.remove(ps);
+		try {
+			if(statements.get(sql)==ps)
+				ps.clearParameters();
+			else
+				ps.close();
+		}
+		catch(SQLException e) {
+			statements.remove(sql);
+			closeQuietly(ps);
+		}
+	}
+
+	/**
+	 * Closes every statement held.
+	 */
+	public void clear() {
+
+		for(PreparedStatement ps : statements.values())
+			closeQuietly(ps);
+		statements.clear();
+		checkedOut.clear();
+	}
+
+	/**
+	 * Returns the number of statements got from cache.
+	 * @return (long)
+	 */
+	public long getHits() {
+
+		return hits;
+	}
+
+	/**
+	 * Returns the number of statements prepared anew.
+	 * @return (long)
+	 */
+	public long getMisses() {
+
+		return misses;
+	}
+
+	/**
+	 * Returns the number of statements got from cache, for every cache in the JVM.
+	 * @return (long)
+	 */
+	public static long getTotalHits() {
+
+		return totalHits.get();
+	}
+
+	/**
+	 * Returns the number of statements prepared anew, for every cache in the JVM.
+	 * @return (long)
+	 */
+	public static long getTotalMisses() {
+
+		return totalMisses.get();
+	}
+
+	private void closeQuietly(PreparedStatement ps) {
+
+		try {
+			ps.close();
+		}
+		catch(SQLException e) {
+			logger.warn("Check resource usage: a cached PreparedStatement object couldn't be closed: " +
+					e.getMessage());
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
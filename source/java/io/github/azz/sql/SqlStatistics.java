@@ -0,0 +1,264 @@
+/* ****************************************************************************************************************** *
+ * SqlStatistics.java                                                                                                 *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.azz.util.Histogram;
+
+/**
+ * Execution statistics for SQL instructions run through SqlTransaction, for the whole application (JVM).
+ * <br/><br/>
+ * Statistics are kept per SQL fingerprint, i.e. the SQL text with literals replaced by a question mark and whitespace
+ * 	collapsed, so the same instruction run with different values is accounted as one. For every fingerprint, the
+ * 	latency (nanoseconds) and row count distributions are recorded, as well as the number of failed executions.
+ * <br/><br/>
+ * Recording is lock-free and allocation-light, so it's always on. The number of fingerprints tracked is bounded: once
+ * 	MAX_FINGERPRINTS is reached, any new instruction is accounted under OTHER_FINGERPRINT.
+ * @author a-zz
+ * @see SqlTransaction
+ */
+public class SqlStatistics {
+
+	/** Maximum number of distinct fingerprints tracked */
+	public static final int MAX_FINGERPRINTS = 1000;
+	/** Fingerprint for instructions not tracked on their own, once MAX_FINGERPRINTS is reached */
+	public static final String OTHER_FINGERPRINT = "(other)";
+
+	private static ConcurrentHashMap<String,StatementStatistics> statistics =
+			new ConcurrentHashMap<String,StatementStatistics>();
+
+	/**
+	 * Records a successful execution of a SQL instruction.
+	 * @param sql (String) The SQL instruction.
+	 * @param nanos (long) Elapsed time, in nanoseconds.
+	 * @param rows (long) Rows affected or returned.
+	 */
+	public static void record(String sql, long nanos, long rows) {
+
+		StatementStatistics stats = get(sql);
+		stats.latency.record(nanos);
+		stats.rows.record(rows);
+	}
+
+	/**
+	 * Records a failed execution of a SQL instruction.
+	 * @param sql (String) The SQL instruction.
+	 */
+	public static void recordError(String sql) {
+
+		get(sql).errors.increment();
+	}
+
+	/**
+	 * Returns the statistics for every fingerprint tracked, sorted by total elapsed time (descending).
+	 * @return (List<StatementStatistics>)
+	 */
+	public static List<StatementStatistics> getStatistics() {
+
+		List<StatementStatistics> list = new ArrayList<StatementStatistics>(statistics.values());
+		Collections.sort(list, new Comparator<StatementStatistics>() {
+			public int compare(StatementStatistics a, StatementStatistics b) {
+				return Long.compare(b.latency.getSum(), a.latency.getSum());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Returns the statistics for a SQL instruction.
+	 * @param sql (String) The SQL instruction (or its fingerprint).
+	 * @return (StatementStatistics) null if the instruction wasn't run yet.
+	 */
+	public static StatementStatistics getStatistics(String sql) {
+
+		return statistics.get(fingerprint(sql));
+	}
+
+	/**
+	 * Discards every statistic recorded so far.
+	 */
+	public static void reset() {
+
+		statistics.clear();
+	}
+
+	/**
+	 * Formats the statistics for every fingerprint tracked (see getStatistics()) as a text table, one line per
+	 * 	fingerprint. Times are shown in milliseconds.
+	 * @return (String)
+	 */
+	public static String format() {
+
+		StringBuilder sb = new StringBuilder("SQL statistics (execs / errors / p50 / p99 / max ms / rows p50 / max):");
+		for(StatementStatistics stats : getStatistics())
+			sb.append("\n\t").append(stats.toString());
+		return sb.toString();
+	}
+
+	/**
+	 * Normalizes a SQL instruction into its fingerprint: string and numeric literals are replaced by a question mark
+	 * 	(lists of them or of parameter markers, as in "IN (1, 2, ?)", by "?+") and whitespace runs are collapsed into
+	 * 	a single space.
+	 * @param sql (String) The SQL instruction.
+	 * @return (String)
+	 */
+	public static String fingerprint(String sql) {
+
+		int len = sql.length();
+		StringBuilder sb = new StringBuilder(len);
+		boolean pendingSpace = false;
+		for(int i=0; i<len; i++) {
+			char c = sql.charAt(i);
+
+			if(Character.isWhitespace(c)) {
+				pendingSpace = sb.length()>0;
+				continue;
+			}
+			if(pendingSpace) {
+				sb.append(' ');
+				pendingSpace = false;
+			}
+
+			if(c=='\'') {
+				// String literal, with '' standing for an escaped quote
+				i++;
+				while(i<len) {
+					if(sql.charAt(i)=='\'') {
+						if(i+1<len && sql.charAt(i+1)=='\'')
+							i++;
+						else
+							break;
+					}
+					i++;
+				}
+				appendPlaceholder(sb);
+			}
+			else if(Character.isDigit(c) && (sb.length()==0 || !isIdentifierChar(sb.charAt(sb.length()-1)))) {
+				// Numeric literal (also covering decimals and exponents)
+				while(i+1<len && (Character.isLetterOrDigit(sql.charAt(i+1)) || sql.charAt(i+1)=='.'))
+					i++;
+				appendPlaceholder(sb);
+			}
+			else if(c=='?')
+				// Parameter marker, dealt with as a literal so it can be collapsed into a list
+				appendPlaceholder(sb);
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static StatementStatistics get(String sql) {
+
+		String fingerprint = fingerprint(sql);
+		StatementStatistics stats = statistics.get(fingerprint);
+		if(stats==null) {
+			if(statistics.size()>=MAX_FINGERPRINTS)
+				fingerprint = OTHER_FINGERPRINT;
+			stats = statistics.computeIfAbsent(fingerprint, StatementStatistics::new);
+		}
+		return stats;
+	}
+
+	private static void appendPlaceholder(StringBuilder sb) {
+
+		// Collapsing literal lists: "?, ?" -> "?+", "?+, ?" -> "?+"
+		int end = sb.length();
+		if(end>0 && sb.charAt(end-1)==' ')
+			end--;
+		if(end>0 && sb.charAt(end-1)==',') {
+			int prev = end - 1;
+			if(prev>0 && sb.charAt(prev-1)=='+')
+				prev--;
+			if(prev>0 && sb.charAt(prev-1)=='?') {
+				sb.setLength(prev-1);
+				sb.append("?+");
+				return;
+			}
+		}
+		sb.append('?');
+	}
+
+	private static boolean isIdentifierChar(char c) {
+
+		return Character.isLetterOrDigit(c) || c=='_' || c=='$' || c=='"';
+	}
+
+	/**
+	 * Execution statistics for a single SQL fingerprint.
+	 */
+	public static class StatementStatistics {
+
+		private String fingerprint;
+		private Histogram latency = new Histogram();
+		private Histogram rows = new Histogram();
+		private LongAdder errors = new LongAdder();
+
+		private StatementStatistics(String fingerprint) {
+
+			this.fingerprint = fingerprint;
+		}
+
+		/**
+		 * Returns the SQL fingerprint.
+		 * @return (String)
+		 */
+		public String getFingerprint() {
+
+			return fingerprint;
+		}
+
+		/**
+		 * Returns the number of successful executions.
+		 * @return (long)
+		 */
+		public long getExecutions() {
+
+			return latency.getCount();
+		}
+
+		/**
+		 * Returns the number of failed executions.
+		 * @return (long)
+		 */
+		public long getErrors() {
+
+			return errors.sum();
+		}
+
+		/**
+		 * Returns the latency distribution, in nanoseconds, for successful executions.
+		 * @return (Histogram)
+		 */
+		public Histogram getLatency() {
+
+			return latency;
+		}
+
+		/**
+		 * Returns the distribution of rows affected or returned by successful executions.
+		 * @return (Histogram)
+		 */
+		public Histogram getRows() {
+
+			return rows;
+		}
+
+		public String toString() {
+
+			return String.format("%d / %d / %.3f / %.3f / %.3f / %d / %d: %s", getExecutions(), getErrors(),
+					latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+					rows.getPercentile(50), rows.getMax(), fingerprint);
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
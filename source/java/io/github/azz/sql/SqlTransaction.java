@@ -5,19 +5,58 @@
 
 package io.github.azz.sql;
 
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.apache.commons.lang3.time.StopWatch;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 
 import io.github.azz.logging.AppLogger;
 
 /**
  * Utility class for SQL Transactions
+ * <br/><br/>
+ * When an instruction fails, the transaction is rolled back; but, within a scope (see scope()), only the work done 
+ * 	since the innermost scope was opened is, so the transaction can go on:
+ * <pre>
+ * for(...) {
+ * 	try(SqlTransaction.Scope scope = t.scope("row " + i)) {
+ * 		t.preparedStatement(...);
+ * 		scope.complete();
+ * 	}
+ * 	catch(SQLException e) {
+ * 		// Row skipped, work done so far is kept
+ * 	}
+ * }
+ * t.commit();
+ * </pre>
+ * If the database engine rolls back the whole transaction instead (e.g. on serialization failures, SQLSTATE class 40),
+ * 	the work done before the scope is lost as well: the transaction is then aborted, and any further instruction (or 
+ * 	commit) fails with a SQLTransactionRollbackException until it's closed (see isAborted()).
+ * <br/><br/>
+ * Every SQL instruction is run with a timeout: the local property db.sql.queryTimeout by default, or as set by 
+ * 	setQueryTimeout() (for the transaction) and timeout() (for the next instruction). A deadline for the whole 
+ * 	transaction can be set as well (setDeadline()). Once expired, the instruction is cancelled and fails with a 
+ * 	SQLException; the same goes if the thread running it is interrupted (e.g. by ThreadWatchdog). For streamed 
+ * 	queries, this covers the query execution, not reading through the result set.
  * TODO To be tested thoroughfully!
  * @author a-zz
  */
@@ -25,11 +64,23 @@ public class SqlTransaction {
 
 	private String descriptor;
 	private SqlConnection con;	
-	private int n;
+	private long n;
 	private AppLogger logger;
 	private ArrayList<Object> openObjects = new ArrayList<Object>();
-	private ArrayList<String> sqlInstructions;	
-	StopWatch watch = new StopWatch();
+	private IdentityHashMap<ResultSet,OpenStream> openStreams = new IdentityHashMap<ResultSet,OpenStream>();
+	private boolean autoCommit;
+	private boolean readOnly;
+	private SqlAuditTrail auditTrail;	
+	private String batchSql;
+	private PreparedStatement batchPs;
+	private int batchSize;
+	private ArrayDeque<Scope> scopes = new ArrayDeque<Scope>();
+	private long queryTimeout;
+	private long nextTimeout = -1;
+	private long deadline = 0;
+	private HashSet<String> writtenTables = new HashSet<String>();
+	private boolean allTablesWritten = false;
+	private SQLTransactionRollbackException aborted = null;
 	
 	/**
 	 * Isolation levels for transactions, from lower to higher:
@@ -99,15 +150,110 @@ public class SqlTransaction {
 	 */
 	public SqlTransaction(String descriptor, boolean autoCommit, EnumIsolationLevels isolationLevel) throws SQLException {
 		
+		this(descriptor, autoCommit, isolationLevel, false);
+	}
+	
+	/**
+	 * Constructor: starts a new SQL transaction, possibly read-only. Read-only transactions are run on the database
+	 * 	replica, if there's one available (see DbManager); otherwise, on the primary database. In either case, any
+	 * 	attempt to modify data fails. 
+	 * @param descriptor (String) A descriptive text for logging purposes
+	 * @param autoCommit (boolean) Sets the transaction's autocommit mode
+	 * @param (EnumIsolationLevels) Isolation level for the new transaction
+	 * @param readOnly (boolean) Sets the transaction as read-only
+	 * @throws SQLException
+	 * @see readOnly()
+	 */
+	public SqlTransaction(String descriptor, boolean autoCommit, EnumIsolationLevels isolationLevel, boolean readOnly) 
+			throws SQLException {
+		
 		this.logger = new AppLogger(this.getClass());
 		this.descriptor = descriptor;
-		con = new SqlConnection(autoCommit, isolationLevel);	
+		con = new SqlConnection(autoCommit, isolationLevel, readOnly);	
 		n = con.getConnSerial();
-		logger.sql(this.toString() + ": STARTED (autocommit: " + autoCommit + ")");
+		con.setOwner(this.toString());
+		this.autoCommit = autoCommit;
+		this.readOnly = readOnly;
+		this.queryTimeout = DbManager.getQueryTimeout();
+		if(logger.isSqlEnabled())
+			logger.sql(this.toString() + ": STARTED (autocommit: " + autoCommit + 
+					(readOnly?", read-only on " + (con.isReplica()?"replica":"primary"):"") + ")");
 		if(!autoCommit)
-			sqlInstructions = new ArrayList<String>();
+			auditTrail = new SqlAuditTrail(DbManager.getAuditTrailMaxEntries());
 	}
 			
+	/**
+	 * Starts a new read-only SQL transaction with no autocommit and isolation level READ COMMITED, e.g. for reporting
+	 * 	queries.
+	 * @param descriptor (String) A descriptive text for logging purposes
+	 * @return (SqlTransaction)
+	 * @throws SQLException
+	 * @see SqlTransaction(String, boolean, EnumIsolationLevels, boolean)
+	 */
+	public static SqlTransaction readOnly(String descriptor) throws SQLException {
+		
+		return new SqlTransaction(descriptor, false, EnumIsolationLevels.READ_COMMITTED, true);
+	}
+	
+	/**
+	 * Checks whether the transaction is read-only.
+	 * @return (boolean)
+	 */
+	public boolean isReadOnly() {
+		
+		return readOnly;
+	}
+	
+	/**
+	 * Sets the timeout for SQL instructions run from now on within the transaction (the default is set by local 
+	 * 	property db.sql.queryTimeout).
+	 * @param timeout (long) Timeout in millis; 0 for none.
+	 */
+	public void setQueryTimeout(long timeout) {
+		
+		queryTimeout = Math.max(0, timeout);
+	}
+	
+	/**
+	 * Returns the timeout for SQL instructions run within the transaction.
+	 * @return (long) Timeout in millis; 0 for none.
+	 */
+	public long getQueryTimeout() {
+		
+		return queryTimeout;
+	}
+	
+	/**
+	 * Sets the timeout for the next SQL instruction run within the transaction only, e.g. 
+	 * 	t.timeout(500).query(...).
+	 * @param timeout (long) Timeout in millis; 0 for none.
+	 * @return (SqlTransaction) This same transaction.
+	 */
+	public SqlTransaction timeout(long timeout) {
+		
+		nextTimeout = Math.max(0, timeout);
+		return this;
+	}
+	
+	/**
+	 * Sets a deadline for the transaction: SQL instructions are cancelled once it's expired, whichever their timeout, 
+	 * 	and fail right away from then on.
+	 * @param deadline (long) The deadline, as System.currentTimeMillis(); 0 for none.
+	 */
+	public void setDeadline(long deadline) {
+		
+		this.deadline = Math.max(0, deadline);
+	}
+	
+	/**
+	 * Returns the deadline for the transaction.
+	 * @return (long) The deadline, as System.currentTimeMillis(); 0 for none.
+	 */
+	public long getDeadline() {
+		
+		return deadline;
+	}
+	
 	/**
 	 * Run a SQL statement, i.e. a SQL instruction not returning any data
 	 * @param sql (String) The SQL instruction to run.
@@ -116,27 +262,87 @@ public class SqlTransaction {
 	 */
 	public int statement(String sql) throws SQLException {
 		
+		checkAborted();
 		Statement st = null;
 			
 		try {
 			st = con.getConnection().createStatement();
-			watch.reset();
-			watch.start(); 
+			watch(st);
+			long started = System.nanoTime();
 			int rows = st.executeUpdate(sql); 
-			watch.stop();
-			if(con.getConnection().getAutoCommit())
-				logger.sql(this.toString() + ": -> " + sql + "; (" + rows + " rows; " + watch.getTime() + "ms)");
-			else
-				sqlInstructions.add(sql + "; (" + rows + " rows; " + watch.getTime() + "ms)");
+			audit(sql, rows, System.nanoTime() - started, SqlAuditTrail.KIND_SINGLE);
 			
 			return rows;
 		}
 		catch(SQLException e) {
-			rollback();
+			SqlStatistics.recordError(sql);
+			rollbackOnError(e);
 			logger.error(e.getMessage());
 			throw e;
 		}
 		finally {
+			unwatch(st);
+			written(sql);
+			try {
+				if(st!=null) {
+					st.close();
+					st = null;
+				}
+			}
+			catch(SQLException e) {
+				logger.warn(this.toString() + ": check resource usage: " +  
+						"a Statement object couldn't be closed: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Run a number of SQL statements as a batch, i.e. sent to the database engine at once. Suitable for scripts (e.g. 
+	 * 	DDL) with no parameters.
+	 * @param sqls (List<String>) The SQL instructions to run, in order.
+	 * @return (int[]) Number of rows affected by every statement, in the same order (as per the JDBC spec, drivers may
+	 * 	return Statement.SUCCESS_NO_INFO).
+	 * @throws SQLException
+	 */
+	public int[] statements(List<String> sqls) throws SQLException {
+		
+		checkAborted();
+		if(sqls.isEmpty())
+			return new int[0];
+		
+		Statement st = null;
+		String sql = sqls.get(0);
+		
+		try {
+			st = con.getConnection().createStatement();
+			for(String s : sqls)
+				st.addBatch(s);
+			watch(st);
+			long started = System.nanoTime();
+			int[] rows = st.executeBatch();
+			// Elapsed time is evenly apportioned, as per-statement times aren't available
+			long nanos = (System.nanoTime() - started) / sqls.size();
+			for(int i=0; i<sqls.size(); i++)
+				audit(sqls.get(i), rows.length>i?Math.max(rows[i], 0):0, nanos, sqls.size());
+			
+			return rows;
+		}
+		catch(SQLException e) {
+			if(e instanceof BatchUpdateException) {
+				// Statements before the failing one were run
+				int failed = ((BatchUpdateException)e).getUpdateCounts().length;
+				if(failed<sqls.size())
+					sql = sqls.get(failed);
+			}
+			SqlStatistics.recordError(sql);
+			rollbackOnError(e);
+			logger.error(e.getMessage() + " (" + sql + ")");
+			throw e;
+		}
+		finally {
+			unwatch(st);
+			for(String s : sqls)
+				written(s);
 			try {
 				if(st!=null) {
 					st.close();
@@ -153,47 +359,163 @@ public class SqlTransaction {
 	/**
 	 * Run a SQL prepared (parametrized) statement
 	 * @param sql (String) The SQL instruction to run.
-	 * @param values (ArrayList<Object>) The list of values to be substituted in the statement
+	 * @param values (ArrayList<Object>) The list of values to be substituted in the statement. Only String, Integer, 
+	 * 	Long, Float and Double values are supported; see preparedStatement(String, SqlParameters) for other types.
 	 * @return (int) Number of rows affected by the statement
 	 * @throws SQLException
 	 */
-	public int preparedStatement(String sql, ArrayList<Object> values) throws SQLException {
+	public int preparedStatement(String sql, final ArrayList<Object> values) throws SQLException {
 		
+		return preparedStatement(sql, ps -> prepare(ps, values));
+	}
+	
+	/**
+	 * Run a SQL prepared (parametrized) statement
+	 * @param sql (String) The SQL instruction to run.
+	 * @param params (SqlParameters) The values to be substituted in the statement
+	 * @return (int) Number of rows affected by the statement
+	 * @throws SQLException
+	 */
+	public int preparedStatement(String sql, SqlParameters params) throws SQLException {
+		
+		return preparedStatement(sql, params::bind);
+	}
+	
+	private int preparedStatement(String sql, ParameterBinder binder) throws SQLException {
+		
+		checkAborted();
 		PreparedStatement ps = null;
 		
 		try {		
-			ps = con.getConnection().prepareStatement(sql);
-			prepare(ps, values);
-			watch.reset();
-			watch.start(); 
+			ps = con.prepareStatement(sql);
+			binder.bind(ps);
+			watch(ps);
+			long started = System.nanoTime();
 			int rows = ps.executeUpdate(); 
-			watch.stop();
-			if(con.getConnection().getAutoCommit())
-				logger.sql(this.toString() + ": -> " + sql + "; (" + rows + " rows; " + watch.getTime() + "ms)");
-			else
-				sqlInstructions.add(sql + "; (" + rows + " rows; " + watch.getTime() + "ms)");
+			audit(sql, rows, System.nanoTime() - started, SqlAuditTrail.KIND_SINGLE);
 			
 			return rows;
 		}
 		catch(SQLException e) {			
-			rollback();
+			SqlStatistics.recordError(sql);
+			rollbackOnError(e);
 			logger.error(e.getMessage());
 			throw e;
 		}
 		finally {
-			try {
-				if(ps!=null) {
-					ps.close();
-					ps = null;
-				}
-			}
-			catch(SQLException e) {
-				logger.warn(this.toString() + ": check resource usage: " + 
-						"a PreparedStatement object couldn't be closed: " + e.getMessage());
+			unwatch(ps);
+			written(sql);
+			if(ps!=null) {
+				con.releaseStatement(sql, ps);
+				ps = null;
 			}
 		}
 	}
 	
+	/**
+	 * Starts a batch of executions of a SQL prepared (parametrized) statement. Value sets are then added with 
+	 * 	addBatch() and sent to the database engine all at once with executeBatch(), saving a round trip per value set.
+	 * 	The whole batch is logged as a single instruction. 
+	 * 	<br/><br/>
+	 * Only one batch can be open at a time within a transaction. 
+	 * @param sql (String) The SQL instruction to run.
+	 * @throws SQLException
+	 * @throws IllegalStateException If a batch is already open.
+	 * @see addBatch()
+	 * @see executeBatch()
+	 */
+	public void beginBatch(String sql) throws SQLException {
+		
+		checkAborted();
+		if(batchPs!=null)
+			throw new IllegalStateException(this.toString() + ": a batch is already open for: " + batchSql);
+		
+		batchPs = con.prepareStatement(sql);
+		batchSql = sql;
+		batchSize = 0;
+	}
+	
+	/**
+	 * Adds a value set to the batch previously started with beginBatch()
+	 * @param values (ArrayList<Object>) The list of values to be substituted in the statement
+	 * @throws SQLException
+	 * @throws IllegalStateException If no batch is open.
+	 */
+	public void addBatch(final ArrayList<Object> values) throws SQLException {
+		
+		addBatch(ps -> prepare(ps, values));
+	}
+	
+	/**
+	 * Adds a value set to the batch previously started with beginBatch(). The same SqlParameters object can be reused
+	 * 	for every value set, as values are copied into the batch.
+	 * @param params (SqlParameters) The values to be substituted in the statement
+	 * @throws SQLException
+	 * @throws IllegalStateException If no batch is open.
+	 */
+	public void addBatch(SqlParameters params) throws SQLException {
+		
+		addBatch(params::bind);
+	}
+	
+	private void addBatch(ParameterBinder binder) throws SQLException {
+		
+		if(batchPs==null)
+			throw new IllegalStateException(this.toString() + ": no batch open");
+		checkAborted();
+		
+		try {
+			binder.bind(batchPs);
+			batchPs.addBatch();
+			batchSize++;
+		}
+		catch(SQLException e) {
+			endBatch(true);
+			rollbackOnError(e);
+			logger.error(e.getMessage());
+			throw e;
+		}
+	}
+	
+	/**
+	 * Runs the batch previously started with beginBatch(), and closes it.
+	 * @return (int[]) Number of rows affected by every value set added to the batch, in the same order. As per the
+	 * 	JDBC spec, Statement.SUCCESS_NO_INFO (-2) is returned for value sets which ran succesfully when the database 
+	 * 	engine can't tell the number of rows affected. 
+	 * @throws SQLException
+	 * @throws IllegalStateException If no batch is open.
+	 */
+	public int[] executeBatch() throws SQLException {
+		
+		if(batchPs==null)
+			throw new IllegalStateException(this.toString() + ": no batch open");
+		checkAborted();
+		
+		try {
+			watch(batchPs);
+			long started = System.nanoTime();
+			int[] rowsPerValueSet = batchPs.executeBatch();
+			long nanos = System.nanoTime() - started;
+			int rows = 0;
+			for(int r : rowsPerValueSet)
+				rows += r>0?r:0;
+			audit(batchSql, rows, nanos, batchSize);
+			
+			return rowsPerValueSet;
+		}
+		catch(SQLException e) {
+			SqlStatistics.recordError(batchSql);
+			rollbackOnError(e);
+			logger.error(e.getMessage());
+			throw e;
+		}
+		finally {
+			unwatch(batchPs);
+			written(batchSql);
+			endBatch(false);
+		}
+	}
+	
 	/**
 	 * Run a SQL query
 	 * @param sql (String) The SQL query to run
@@ -205,28 +527,56 @@ public class SqlTransaction {
 	 */
 	public ResultSet query(String sql) throws SQLException {
 
+		return query(sql, (SqlParameters)null);
+	}
+	
+	/**
+	 * Run a SQL prepared (parametrized) query
+	 * @param sql (String) The SQL query to run
+	 * @param params (SqlParameters) The values to be substituted in the query
+	 * @return (ResultSet) The data result set returned by the query, as in query(String).
+	 * @throws SQLException
+	 * @see query(String)
+	 */
+	public ResultSet query(String sql, SqlParameters params) throws SQLException {
+
+		checkAborted();
 		Statement st = null;
 		ResultSet rs = null;
 		
 		try {
-			st = con.getConnection().createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-			watch.reset();
-			watch.start(); 
-			rs = st.executeQuery(sql); 
-			watch.stop();
+			long started;
+			if(params==null) {
+				st = con.getConnection().createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, 
+						ResultSet.CONCUR_READ_ONLY);
+				watch(st);
+				started = System.nanoTime();
+				rs = st.executeQuery(sql); 
+			}
+			else {
+				// Not got from the statement cache, as the result set outlives the call
+				PreparedStatement ps = con.getConnection().prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, 
+						ResultSet.CONCUR_READ_ONLY);
+				st = ps;
+				params.bind(ps);
+				watch(ps);
+				started = System.nanoTime();
+				rs = ps.executeQuery();
+			}
+			long nanos = System.nanoTime() - started;
 			int rows = 0;
 			if(rs.last())
 			{
 				rows = rs.getRow();
 				rs.beforeFirst();
 			}
-			if(con.getConnection().getAutoCommit())
-				logger.sql(this.toString() + ": -> " + sql + "; (" + rows + " rows; " + watch.getTime() + "ms)");
-			else
-				sqlInstructions.add(sql + "; (" + rows + " rows; " + watch.getTime() + "ms)");
+			unwatch(st);
+			audit(sql, rows, nanos, SqlAuditTrail.KIND_SINGLE);
 		}
 		catch(SQLException e) {			
-			rollback();
+			unwatch(st);
+			SqlStatistics.recordError(sql);
+			rollbackOnError(e);
 			logger.error(e.getMessage());
 			try {
 				if(rs!=null)
@@ -258,6 +608,305 @@ public class SqlTransaction {
 		return rs;
 	}
 	
+	/**
+	 * Run a SQL query, with its result served from the query result cache if possible (see SqlResultCache). Suitable
+	 * 	for repeated queries returning small results from rarely-changing tables. The result is read from the database
+	 * 	(and cached) unless it's already cached; it's always read from the database if:
+	 * <ul>
+	 * <li>Caching is disabled (local property db.sql.resultCache.maxEntries set to 0).</li>
+	 * <li>The transaction is run on the database replica, as it may lag behind.</li>
+	 * <li>Any of the tables read was written within the transaction.</li>
+	 * </ul>
+	 * Results with more than db.sql.resultCache.maxRows rows aren't cached. 
+	 * @param sql (String) The SQL query to run
+	 * @return (ResultSet) A read-only, scrollable result set, tracked as in query(String). 
+	 * @throws SQLException
+	 * @see query(String)
+	 */
+	public ResultSet cachedQuery(String sql) throws SQLException {
+		
+		return cachedQuery(sql, null);
+	}
+	
+	/**
+	 * Run a SQL prepared (parametrized) query, with its result served from the query result cache if possible, as in 
+	 * 	cachedQuery(String).
+	 * @param sql (String) The SQL query to run
+	 * @param params (SqlParameters) The values to be substituted in the query
+	 * @return (ResultSet) A read-only, scrollable result set, tracked as in query(String).
+	 * @throws SQLException
+	 * @see cachedQuery(String)
+	 */
+	public ResultSet cachedQuery(String sql, SqlParameters params) throws SQLException {
+		
+		checkAborted();
+		String key = SqlResultCache.isEnabled() && !con.isReplica()?SqlResultCache.getKey(sql, params):null;
+		List<String> tables = null;
+		if(key!=null) {
+			tables = SqlResultCache.getReadTables(sql);
+			if(allTablesWritten || !Collections.disjoint(tables, writtenTables))
+				key = null;
+		}
+		if(key==null)
+			return query(sql, params);
+		
+		ResultSet rs = SqlResultCache.get(key);
+		if(rs!=null) {
+			if(logger.isSqlEnabled())
+				logger.sql(this.toString() + ": -> (cached) " + sql + (params!=null?" " + params:""));
+			openObjects.add(0, rs);
+			return rs;
+		}
+		
+		long[] generation = SqlResultCache.getGeneration(tables);
+		rs = query(sql, params);
+		// Result sets from query() are scrollable, so the row count can be known beforehand
+		int rows = rs.last()?rs.getRow():0;
+		rs.beforeFirst();
+		if(rows>SqlResultCache.getMaxRows())
+			return rs;
+		CachedRowSet cached = RowSetProvider.newFactory().createCachedRowSet();
+		cached.populate(rs);
+		discardResultSet(rs);
+		rs = SqlResultCache.put(key, cached, tables, generation);
+		if(rs==null)
+			// Not cached after all, as tables read were written in the meantime
+			rs = cached;
+		openObjects.add(0, rs);
+		return rs;
+	}
+	
+	/**
+	 * Run a SQL query, mapping every row into an object.
+	 * @param sql (String) The SQL query to run
+	 * @param mapper (RowMapper<T>) Maps every row into an object (e.g. a BeanRowMapper).
+	 * @return (List<T>) The mapped rows, in the order returned by the query.
+	 * @throws SQLException
+	 * @see query(String, SqlParameters, RowMapper)
+	 */
+	public <T> List<T> query(String sql, RowMapper<T> mapper) throws SQLException {
+		
+		return query(sql, null, mapper);
+	}
+	
+	/**
+	 * Run a SQL prepared (parametrized) query, mapping every row into an object. The underlying result set is 
+	 * 	discarded once read.
+	 * @param sql (String) The SQL query to run
+	 * @param params (SqlParameters) The values to be substituted in the query
+	 * @param mapper (RowMapper<T>) Maps every row into an object (e.g. a BeanRowMapper).
+	 * @return (List<T>) The mapped rows, in the order returned by the query.
+	 * @throws SQLException
+	 * @see BeanRowMapper
+	 */
+	public <T> List<T> query(String sql, SqlParameters params, RowMapper<T> mapper) throws SQLException {
+		
+		ResultSet rs = query(sql, params);
+		try {
+			rs.last();
+			List<T> list = new ArrayList<T>(Math.max(rs.getRow(), 0));
+			rs.beforeFirst();
+			while(rs.next())
+				list.add(mapper.map(rs));
+			return list;
+		}
+		finally {
+			discardResultSet(rs);
+		}
+	}
+	
+	/**
+	 * Run a SQL query in streaming mode, with the default fetch size (see local property db.query.fetchSize).
+	 * @param sql (String) The SQL query to run
+	 * @return (ResultSet) A forward-only data result set.
+	 * @throws SQLException
+	 * @see queryStream(String, int)
+	 */
+	public ResultSet queryStream(String sql) throws SQLException {
+		
+		return queryStream(sql, DbManager.getDefaultFetchSize());
+	}
+	
+	/**
+	 * Run a SQL query in streaming mode. 
+	 * 	<br/><br/>
+	 * Unlike query(), the result set returned is forward-only and rows are fetched from the database engine as they're
+	 * 	read (fetchSize rows at a time), so large results can be read through with constant memory. As the number of 
+	 * 	rows can't be known in advance, it's logged when the result set is closed, either by invoking 
+	 * 	discardResultSet() or along with the transaction. Discarding it as soon as it's read through is advisable, as 
+	 * 	it holds a database cursor.
+	 * @param sql (String) The SQL query to run
+	 * @param fetchSize (int) Number of rows got from the database engine at once.
+	 * @return (ResultSet) A forward-only data result set.
+	 * @throws SQLException
+	 * @see discardResultSet()
+	 * @see scan()
+	 * @see stream()
+	 */
+	public ResultSet queryStream(String sql, int fetchSize) throws SQLException {
+		
+		checkAborted();
+		Statement st = null;
+		
+		try {
+			long started = System.nanoTime();
+			st = con.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			st.setFetchSize(fetchSize);
+			watch(st);
+			ResultSet rs = CountingResultSet.wrap(st.executeQuery(sql));
+			long executed = System.nanoTime();
+			unwatch(st);
+			openStreams.put(rs, new OpenStream(sql, st, executed - started, executed));
+			return rs;
+		}
+		catch(SQLException e) {
+			unwatch(st);
+			SqlStatistics.recordError(sql);
+			rollbackOnError(e);
+			logger.error(e.getMessage());
+			try {
+				if(st!=null)
+					st.close();
+			}
+			catch(SQLException ee) {
+				logger.warn(this.toString() + ": check resource usage: " + 
+						"a Statement object couldn't be closed: " + ee.getMessage());
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Run a SQL query in streaming mode (with the default fetch size), handing every row to a callback.
+	 * @param sql (String) The SQL query to run
+	 * @param handler (RowHandler) The callback, invoked once per row.
+	 * @return (long) The number of rows read.
+	 * @throws SQLException
+	 * @see queryStream()
+	 */
+	public long scan(String sql, RowHandler handler) throws SQLException {
+		
+		return scan(sql, DbManager.getDefaultFetchSize(), handler);
+	}
+	
+	/**
+	 * Run a SQL query in streaming mode, handing every row to a callback. The result set is discarded afterwards.
+	 * @param sql (String) The SQL query to run
+	 * @param fetchSize (int) Number of rows got from the database engine at once.
+	 * @param handler (RowHandler) The callback, invoked once per row.
+	 * @return (long) The number of rows read.
+	 * @throws SQLException
+	 * @see queryStream()
+	 */
+	public long scan(String sql, int fetchSize, RowHandler handler) throws SQLException {
+		
+		ResultSet rs = queryStream(sql, fetchSize);
+		try {
+			long rows = 0;
+			while(rs.next()) {
+				handler.handle(rs);
+				rows++;
+			}
+			return rows;
+		}
+		finally {
+			discardResultSet(rs);
+		}
+	}
+
+	/**
+	 * Run a SQL query in streaming mode (with the default fetch size), as a stream of mapped objects.
+	 * @param sql (String) The SQL query to run
+	 * @param mapper (RowMapper<T>) Maps every row into an object.
+	 * @return (Stream<T>) 
+	 * @throws SQLException
+	 * @see stream(String, int, RowMapper)
+	 */
+	public <T> Stream<T> stream(String sql, RowMapper<T> mapper) throws SQLException {
+		
+		return stream(sql, DbManager.getDefaultFetchSize(), mapper);
+	}
+	
+	/**
+	 * Run a SQL query in streaming mode, as a stream of mapped objects. Rows are read lazily, as the stream is consumed.
+	 * 	The stream should be closed after use (e.g. in a try-with-resources block), so the underlying result set is 
+	 * 	discarded; otherwise, it's closed along with the transaction. 
+	 * @param sql (String) The SQL query to run
+	 * @param fetchSize (int) Number of rows got from the database engine at once.
+	 * @param mapper (RowMapper<T>) Maps every row into an object.
+	 * @return (Stream<T>) A sequential stream. SQLExceptions thrown while consuming it are wrapped in a 
+	 * 	RuntimeException.
+	 * @throws SQLException
+	 * @see queryStream()
+	 */
+	public <T> Stream<T> stream(String sql, int fetchSize, final RowMapper<T> mapper) throws SQLException {
+		
+		final ResultSet rs = queryStream(sql, fetchSize);
+		Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+			public boolean tryAdvance(Consumer<? super T> action) {
+				try {
+					if(!rs.next())
+						return false;
+					action.accept(mapper.map(rs));
+					return true;
+				}
+				catch(SQLException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		return StreamSupport.stream(rows, false).onClose(new Runnable() {
+			public void run() {
+				try {
+					discardResultSet(rs);
+				}
+				catch(SQLException e) {
+					logger.warn(SqlTransaction.this.toString() + ": check resource usage: " +
+							"a streamed ResultSet object couldn't be closed: " + e.getMessage());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Run a SQL query in streaming mode (with the default fetch size), materializing its result into a columnar 
+	 * 	snapshot, for repeated analytic reads.
+	 * @param sql (String) The SQL query to run
+	 * @return (ColumnarSnapshot)
+	 * @throws SQLException
+	 * @see ColumnarSnapshot
+	 */
+	public ColumnarSnapshot snapshot(String sql) throws SQLException {
+		
+		ResultSet rs = queryStream(sql);
+		try {
+			return ColumnarSnapshot.of(rs);
+		}
+		finally {
+			discardResultSet(rs);
+		}
+	}
+	
+	/**
+	 * Run a SQL prepared (parametrized) query, materializing its result into a columnar snapshot, for repeated 
+	 * 	analytic reads.
+	 * @param sql (String) The SQL query to run
+	 * @param params (SqlParameters) The values to be substituted in the query
+	 * @return (ColumnarSnapshot)
+	 * @throws SQLException
+	 * @see ColumnarSnapshot
+	 */
+	public ColumnarSnapshot snapshot(String sql, SqlParameters params) throws SQLException {
+		
+		ResultSet rs = query(sql, params);
+		try {
+			return ColumnarSnapshot.of(rs);
+		}
+		finally {
+			discardResultSet(rs);
+		}
+	}
+	
 	/**
 	 * Close a result set prevously returned by a query and discard its contents.
 	 * 	<br><br>
@@ -273,7 +922,9 @@ public class SqlTransaction {
 		if(rs==null)
 			throw new IllegalArgumentException("Can't discard a null ResulSet");
 		
-		if(openObjects.contains(rs)) {
+		if(openStreams.containsKey(rs))
+			endStream(rs, openStreams.remove(rs));
+		else if(openObjects.contains(rs)) {
 			openObjects.remove(rs);
 			rs.close();
 			rs = null;
@@ -308,17 +959,58 @@ public class SqlTransaction {
 	}
 		
 	/**
-	 * Commits the transaction
+	 * Opens a nested scope within the transaction, backed by a savepoint. Until the scope is closed:
+	 * <ul>
+	 * <li>A failing instruction rolls back just the work done within the (innermost) scope, instead of the whole 
+	 * 	transaction; the scope is then good for further instructions. If the database engine rolled back the whole
+	 * 	transaction on its own, it's aborted instead (see isAborted()).</li>
+	 * <li>If the scope is closed without being completed (see Scope.complete()), the work done within it is rolled 
+	 * 	back as well.</li>
+	 * </ul>
+	 * Either way, instructions rolled back are removed from the audit trail. Scopes are meant to be opened in a 
+	 * 	try-with-resources block; any scope still open within it is closed along.
+	 * @param name (String) A descriptive text for logging purposes
+	 * @return (Scope)
+	 * @throws SQLException If the transaction is in autocommit mode, or the savepoint can't be set.
+	 * @throws SQLTransactionRollbackException If the transaction was aborted.
+	 */
+	public Scope scope(String name) throws SQLException {
+		
+		checkAborted();
+		if(autoCommit)
+			throw new SQLException(this.toString() + ": scopes need a transaction with no autocommit");
+		
+		try {
+			Scope scope = new Scope(name, con.getConnection().setSavepoint(), auditTrail.mark());
+			scopes.push(scope);
+			if(logger.isSqlEnabled())
+				logger.sql(this.toString() + ": SAVEPOINT " + scope.name + " (depth " + scopes.size() + ")");
+			return scope;
+		}
+		catch(SQLException e) {
+			logger.error(e.getMessage());
+			throw e;
+		}
+	}
+	
+	/**
+	 * Commits the transaction. Any scope still open is ended along (i.e. its work is committed).
 	 * @throws SQLException
+	 * @throws SQLTransactionRollbackException If the transaction was aborted.
 	 */
 	public void commit() throws SQLException {
 		
+		checkAborted();
 		try {
-			if(con.getConnection().getAutoCommit())
+			if(autoCommit)
 				return;
 			
+			endScopes();
 			con.getConnection().commit();
-			logger.sql(this.toString() + ": COMMIT \\o/" + listSqlInstructions(true));
+			endWrites(true);
+			if(logger.isSqlEnabled())
+				logger.sql(this.toString() + ": COMMIT \\o/" + auditTrail.format());
+			auditTrail.clear();
 		}
 		catch(SQLException e) {
 			logger.error(e.getMessage());
@@ -327,17 +1019,21 @@ public class SqlTransaction {
 	}
 	
 	/**
-	 * Rolls back the transaction
+	 * Rolls back the transaction. Any scope still open is ended along. An aborted transaction remains so.
 	 * @throws SQLException
 	 */
 	public void rollback() throws SQLException {
 		
 		try {
-			if(con.getConnection().getAutoCommit())
+			if(autoCommit)
 				return;		
 			
+			endScopes();
 			con.getConnection().rollback();
-			logger.sql(this.toString() + ": ROLLBACK :_(" + listSqlInstructions(true));
+			endWrites(false);
+			if(logger.isSqlEnabled())
+				logger.sql(this.toString() + ": ROLLBACK :_(" + auditTrail.format());
+			auditTrail.clear();
 		}
 		catch(SQLException e) {
 			logger.error(e.getMessage());
@@ -354,17 +1050,41 @@ public class SqlTransaction {
 	public void close() {
 						
 		try {
-			if(sqlInstructions!=null && sqlInstructions.size()>0)
+			endStreams();
+			if(auditTrail!=null && !auditTrail.isEmpty())
 				rollback();
 			
+			endBatch(true);
 			closeRelatedObjects();
-			con.close();
-			con = null;
-			logger.sql(this.toString() + ": CLOSED");
+			if(logger.isSqlEnabled())
+				logger.sql(this.toString() + ": CLOSED");
 		}
 		catch(Exception e) {
 			logger.error(this.toString() + ": COULDN'T BE CLOSED: " + e.getMessage());
 		}
+		finally {
+			// The connection is handed back to the pool whatever happens, or it would be held until reaped
+			if(con!=null) {
+				try {
+					con.close();
+				}
+				catch(SQLException e) {
+					logger.error(this.toString() + ": CONNECTION COULDN'T BE CLOSED: " + e.getMessage());
+				}
+				con = null;
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether the transaction was aborted, i.e. rolled back as a whole after an instruction failed within a 
+	 * 	scope (see scope()). Once aborted, any further instruction or commit fails with a 
+	 * 	SQLTransactionRollbackException (having the original failure as its cause) until the transaction is closed.
+	 * @return (boolean)
+	 */
+	public boolean isAborted() {
+		
+		return aborted!=null;
 	}
 	
 	public String toString() {
@@ -372,6 +1092,115 @@ public class SqlTransaction {
 		return "Transaction #" + n +" (" + descriptor + ")";
 	}
 	
+	/**
+	 * Rolls back after an instruction failed: to the innermost open scope, if any (see scope()); otherwise, the whole
+	 * 	transaction. If a scope is open but the whole transaction is rolled back anyway, it's aborted.
+	 * @param error (SQLException) The instruction's failure.
+	 * @throws SQLException
+	 */
+	private void rollbackOnError(SQLException error) throws SQLException {
+		
+		Scope scope = scopes.peek();
+		if(scope==null) {
+			rollback();
+			return;
+		}
+		
+		// SQLSTATE class 40 (transaction rollback): the engine already rolled back the whole transaction, savepoints 
+		//	included
+		if(error.getSQLState()==null || !error.getSQLState().startsWith("40")) {
+			try {
+				scope.rollback(true);
+				return;
+			}
+			catch(SQLException e) {
+				logger.warn(this.toString() + ": couldn't roll back to savepoint " + scope.name + ": " + 
+						e.getMessage());
+			}
+		}
+		
+		aborted = new SQLTransactionRollbackException(this.toString() + ": transaction aborted, as it was rolled " + 
+				"back as a whole within scope " + scope.name + "; close it", "40000", error);
+		logger.warn(aborted.getMessage());
+		for(Scope s : scopes)
+			s.rolledBack = true;
+		rollback();
+	}
+	
+	/**
+	 * @throws SQLTransactionRollbackException If the transaction was aborted (see isAborted()).
+	 */
+	private void checkAborted() throws SQLTransactionRollbackException {
+		
+		if(aborted!=null)
+			throw new SQLTransactionRollbackException(aborted.getMessage(), aborted.getSQLState(), aborted.getCause());
+	}
+	
+	/**
+	 * Sets the timeout for a statement about to be run (the next instruction's, or the transaction's, bounded by the 
+	 * 	deadline) and hands it to the StatementWatchdog. Must be paired with unwatch().
+	 * @param st (Statement)
+	 * @throws SQLTimeoutException If the deadline is already expired.
+	 */
+	private void watch(Statement st) throws SQLException {
+		
+		long timeout = nextTimeout>=0?nextTimeout:queryTimeout;
+		nextTimeout = -1;
+		if(deadline>0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining<=0)
+				throw new SQLTimeoutException(this.toString() + ": deadline expired");
+			timeout = timeout>0?Math.min(timeout, remaining):remaining;
+		}
+		// Always set, as prepared statements are reused from the statement cache. The engine enforces it (if it does) 
+		//	in whole seconds, rounded up; the watchdog cancels the statement on time otherwise.
+		st.setQueryTimeout((int)Math.min(Integer.MAX_VALUE, (timeout + 999) / 1000));
+		StatementWatchdog.watch(st, timeout, this.toString());
+	}
+	
+	private void unwatch(Statement st) {
+		
+		if(st!=null)
+			StatementWatchdog.unwatch(st);
+	}
+	
+	/**
+	 * Invalidates the cached query results (see cachedQuery()) for the tables written by a SQL statement. Tables are
+	 * 	tracked until the transaction ends, as well.
+	 * @param sql (String) The SQL statement.
+	 */
+	private void written(String sql) {
+		
+		if(!SqlResultCache.isEnabled())
+			return;
+		List<String> tables = SqlResultCache.getWrittenTables(sql);
+		SqlResultCache.invalidate(tables);
+		if(autoCommit)
+			return;
+		if(tables==null)
+			allTablesWritten = true;
+		else
+			writtenTables.addAll(tables);
+	}
+	
+	private void endWrites(boolean committed) {
+		
+		// Once committed, results cached while the transaction was running are outdated
+		if(committed && allTablesWritten)
+			SqlResultCache.invalidate(null);
+		else if(committed && !writtenTables.isEmpty())
+			SqlResultCache.invalidate(writtenTables);
+		writtenTables.clear();
+		allTablesWritten = false;
+	}
+	
+	private void endScopes() {
+		
+		for(Scope scope : scopes)
+			scope.active = false;
+		scopes.clear();
+	}
+	
 	private void prepare(PreparedStatement ps, ArrayList<Object> values) 
 			throws SQLException {
 		
@@ -397,21 +1226,81 @@ public class SqlTransaction {
 		}			
 	}
 	
-	private String listSqlInstructions(boolean purge) {
+	private void endBatch(boolean abandoned) {
+		
+		if(batchPs!=null) {
+			try {
+				// Some drivers (e.g. HSQLDB) keep a statement in batch mode until the batch is run, so abandoned ones are
+				//	closed rather than reused
+				batchPs.clearBatch();
+				if(abandoned)
+					batchPs.close();
+			}
+			catch(SQLException e) {
+				// Nothing to do, the statement cache will discard it if unusable
+			}
+			con.releaseStatement(batchSql, batchPs);
+			batchPs = null;
+			batchSql = null;
+		}
+	}
+	
+	/**
+	 * Records a SQL instruction run: it's logged right away in autocommit mode; otherwise it's added to the audit trail 
+	 * 	to be logged at commit / rollback. It's also accounted in SqlStatistics and, if it took longer than the slow
+	 * 	query threshold (see local property db.sql.slowQueryThreshold), logged right away as a warning.
+	 * @param sql (String) The SQL instruction.
+	 * @param rows (long) Rows affected or returned.
+	 * @param nanos (long) Elapsed time, in nanoseconds.
+	 * @param kind (int) See SqlAuditTrail.
+	 */
+	private void audit(String sql, long rows, long nanos, int kind) {
 		
-		String list = "";
+		audit(sql, rows, nanos, kind, 0);
+	}
+	
+	/**
+	 * Records a SQL instruction run, as audit(String, long, long, int); for streamed queries, the time the result set
+	 * 	was kept open (i.e. including the caller's row processing) is logged along, but not accounted as latency.
+	 * @param sql (String) The SQL instruction.
+	 * @param rows (long) Rows returned.
+	 * @param nanos (long) Execution time, in nanoseconds.
+	 * @param kind (int) See SqlAuditTrail.
+	 * @param open (long) Time the result set was kept open, in nanoseconds.
+	 */
+	private void audit(String sql, long rows, long nanos, int kind, long open) {
 		
-		int i = 1;
-		Iterator<String> it = sqlInstructions.iterator();
-		while(it.hasNext()) {
-			String sql = it.next();
-			list += "\n\t[" + i + "]\t" + sql;	
-			i++;
+		SqlStatistics.record(sql, nanos, rows);
+		long slowQueryThreshold = DbManager.getSlowQueryThreshold();
+		if(slowQueryThreshold>0 && nanos>=slowQueryThreshold * 1000000)
+			logger.warn(SqlAuditTrail.format(new StringBuilder(this.toString()).append(": SLOW SQL: "), sql, rows, nanos, 
+					kind, open).toString());
+		
+		if(!autoCommit)
+			auditTrail.add(sql, rows, nanos, kind, open);
+		else if(logger.isSqlEnabled())
+			logger.sql(SqlAuditTrail.format(new StringBuilder(this.toString()).append(": -> "), sql, rows, nanos, kind, 
+					open).toString());
+	}
+	
+	private void endStream(ResultSet rs, OpenStream stream) throws SQLException {
+		
+		long rows = CountingResultSet.getRowsRead(rs);
+		try {
+			rs.close();
+		}
+		finally {
+			stream.st.close();
 		}
-		if(purge)
-			sqlInstructions.clear();
 		
-		return list;
+		// Latency is the query execution only: the time the caller spent going through rows is just informative
+		audit(stream.sql, rows, stream.executed, SqlAuditTrail.KIND_STREAMED, System.nanoTime() - stream.opened);
+	}
+	
+	private void endStreams() throws SQLException {
+		
+		for(ResultSet rs : new ArrayList<ResultSet>(openStreams.keySet()))
+			endStream(rs, openStreams.remove(rs));
 	}
 	
 	private void closeRelatedObjects() throws SQLException {
@@ -431,13 +1320,133 @@ public class SqlTransaction {
 		openObjects.clear();
 	}	
 	
-	@Override
-	protected void finalize() throws Throwable {
-
-		if(con!=null)
-			logger.warn(this.toString() + ": check resource usage: was automatically purged.");
-		super.finalize();
+	/**
+	 * A nested scope within a transaction, backed by a savepoint (see SqlTransaction.scope()).
+	 */
+	public class Scope implements AutoCloseable {
+		
+		private String name;
+		private Savepoint savepoint;
+		private long auditMark;
+		private boolean active = true;
+		private boolean completed = false;
+		private boolean rolledBack = false;
+		
+		private Scope(String name, Savepoint savepoint, long auditMark) {
+			
+			this.name = name;
+			this.savepoint = savepoint;
+			this.auditMark = auditMark;
+		}
+		
+		/**
+		 * Marks the work done within the scope as complete, so it's kept on closing (to be committed or rolled back 
+		 * 	along with the enclosing transaction or scope). 
+		 */
+		public void complete() {
+			
+			completed = true;
+		}
+		
+		/**
+		 * Checks whether the work done within the scope was rolled back, either because an instruction failed or because
+		 * 	it was closed before being completed.
+		 * @return (boolean)
+		 */
+		public boolean isRolledBack() {
+			
+			return rolledBack;
+		}
+		
+		/**
+		 * Closes the scope (and any other opened within it): if it wasn't completed, the work done within it is rolled 
+		 * 	back. 
+		 * @throws SQLException
+		 */
+		public void close() throws SQLException {
+			
+			if(!active)
+				return;
+			
+			while(scopes.peek()!=this) {
+				Scope inner = scopes.peek();
+				// If this one is to be rolled back, the inner one's work goes along anyway
+				if(!completed)
+					inner.completed = true;
+				inner.close();
+			}
+			try {
+				// Savepoints rolled back to aren't valid for releasing with some drivers (e.g. HSQLDB); they're gone at 
+				//	transaction end anyway
+				if(!completed)
+					rollback(false);
+				else
+					con.getConnection().releaseSavepoint(savepoint);
+			}
+			catch(SQLException e) {
+				logger.error(e.getMessage());
+				throw e;
+			}
+			finally {
+				active = false;
+				scopes.pop();
+			}
+		}
+		
+		/**
+		 * Rolls back the work done within the scope (and any other opened within it).
+		 * @param reopen (boolean) Whether the scope is to be used further: if so, a new savepoint is set, as the one 
+		 * 	rolled back to is no longer valid with some drivers (e.g. HSQLDB).
+		 * @throws SQLException
+		 */
+		private void rollback(boolean reopen) throws SQLException {
+			
+			// Inner scopes are rolled back along
+			while(scopes.peek()!=this) {
+				Scope inner = scopes.pop();
+				inner.rolledBack = true;
+				inner.active = false;
+			}
+			con.getConnection().rollback(savepoint);
+			long discarded = auditTrail.getTotal() - auditMark;
+			auditTrail.truncate(auditMark);
+			rolledBack = true;
+			if(logger.isSqlEnabled())
+				logger.sql(SqlTransaction.this.toString() + ": ROLLBACK TO SAVEPOINT " + name + " (" + discarded + 
+						" instructions discarded)");
+			if(reopen) {
+				savepoint = con.getConnection().setSavepoint();
+				auditMark = auditTrail.mark();
+			}
+		}
+	}
+	
+	/**
+	 * Sets the parameter values for a prepared statement
+	 */
+	@FunctionalInterface
+	private interface ParameterBinder {
+		
+		void bind(PreparedStatement ps) throws SQLException;
+	}
+	
+	/**
+	 * Tracking info for result sets returned by queryStream()
+	 */
+	private static class OpenStream {
+		
+		private String sql;
+		private Statement st;
+		private long executed;
+		private long opened;
+		
+		private OpenStream(String sql, Statement st, long executed, long opened) {
+			
+			this.sql = sql;
+			this.st = st;
+			this.executed = executed;
+			this.opened = opened;
+		}
 	}
-
 }
 /* ****************************************************************************************************************** */
@@ -0,0 +1,26 @@
+/* ****************************************************************************************************************** *
+ * SqlWork.java                                                                                                       *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.SQLException;
+
+/**
+ * A unit of work run within a SQL transaction.
+ * @author a-zz
+ * @see SqlAsync#inTransaction(String, SqlWork)
+ */
+@FunctionalInterface
+public interface SqlWork<T> {
+
+	/**
+	 * Runs the work. Implementations must neither commit nor close the transaction, as it's up to the caller.
+	 * @param t (SqlTransaction) The transaction.
+	 * @return (T) The work result.
+	 * @throws SQLException
+	 */
+	public T run(SqlTransaction t) throws SQLException;
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
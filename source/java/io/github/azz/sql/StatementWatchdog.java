@@ -0,0 +1,135 @@
+/* ****************************************************************************************************************** *
+ * StatementWatchdog.java                                                                                             *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.azz.logging.AppLogger;
+
+/**
+ * Supervision of SQL statements being run, cancelling them (Statement.cancel()) when their timeout expires or the 
+ * 	thread running them is interrupted (e.g. by ThreadWatchdog, on the caller's deadline). Thus, the calling thread 
+ * 	gets a SQLException right away and the connection is freed, even if the database engine doesn't enforce query 
+ * 	timeouts by itself.
+ * <br/><br/>
+ * As ThreadWatchdog, it's not designed to cancel statements exactly at their timeout, but within SWEEP_INTERVAL 
+ * 	milliseconds afterwards. The sweeping thread is started on first use, and stopped along with DbManager.
+ * @author a-zz
+ * @see SqlTransaction#setQueryTimeout(long)
+ */
+class StatementWatchdog {
+
+	private static final long SWEEP_INTERVAL = 100;
+	
+	private static AppLogger logger = new AppLogger(StatementWatchdog.class);
+	private static ConcurrentHashMap<Statement,Watch> watches = new ConcurrentHashMap<Statement,Watch>();
+	private static volatile ScheduledExecutorService sweeper;
+	private static LongAdder cancelled = new LongAdder();
+	
+	/**
+	 * Starts watching a statement about to be run by the current thread.
+	 * @param st (Statement) The statement.
+	 * @param timeout (long) Time (millis) from now to cancel it; 0 for none (it's only cancelled on interruption).
+	 * @param owner (String) The statement owner, for logging purposes.
+	 */
+	static void watch(Statement st, long timeout, String owner) {
+		
+		if(sweeper==null)
+			start();
+		watches.put(st, new Watch(owner, Thread.currentThread(), timeout>0?System.currentTimeMillis()+timeout:0));
+	}
+	
+	/**
+	 * Stops watching a statement, once run.
+	 * @param st (Statement)
+	 */
+	static void unwatch(Statement st) {
+		
+		watches.remove(st);
+	}
+	
+	/**
+	 * Returns the number of statements cancelled so far.
+	 * @return (long)
+	 */
+	static long getCancelledCount() {
+		
+		return cancelled.sum();
+	}
+	
+	/**
+	 * Stops the sweeping thread. Only to be called by DbManager.
+	 */
+	static synchronized void shutdown() {
+		
+		if(sweeper!=null) {
+			sweeper.shutdownNow();
+			sweeper = null;
+		}
+		watches.clear();
+	}
+	
+	private static synchronized void start() {
+		
+		if(sweeper!=null)
+			return;
+		ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "SQL statement watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleWithFixedDelay(StatementWatchdog::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+		StatementWatchdog.sweeper = sweeper;
+	}
+	
+	private static void sweep() {
+		
+		long now = System.currentTimeMillis();
+		for(Map.Entry<Statement,Watch> entry : watches.entrySet()) {
+			Watch watch = entry.getValue();
+			String reason;
+			if(watch.deadline>0 && watch.deadline<=now)
+				reason = "timeout expired";
+			else if(watch.thread.isInterrupted())
+				reason = "caller interrupted";
+			else
+				continue;
+			
+			if(!watches.remove(entry.getKey(), watch))
+				continue;
+			try {
+				entry.getKey().cancel();
+				cancelled.increment();
+				logger.warn(watch.owner + ": SQL statement cancelled (" + reason + ")");
+			}
+			catch(SQLException e) {
+				logger.warn(watch.owner + ": SQL statement couldn't be cancelled (" + reason + "): " + e.getMessage());
+			}
+		}
+	}
+	
+	private static class Watch {
+		
+		private String owner;
+		private Thread thread;
+		private long deadline;
+		
+		private Watch(String owner, Thread thread, long deadline) {
+			
+			this.owner = owner;
+			this.thread = thread;
+			this.deadline = deadline;
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,40 @@
+/* ****************************************************************************************************************** *
+ * DbMaintenanceDaInterface.java                                                                                      *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql.da;
+
+import java.io.File;
+import java.sql.SQLException;
+
+import io.github.azz.sql.DaInterface;
+
+/**
+ * Data access interface for DbMaintenance class
+ * @author a-zz
+ */
+public interface DbMaintenanceDaInterface extends DaInterface {
+
+	/**
+	 * Writes the database changes made so far into the data files, so the engine's log is cleared. 
+	 * @param defrag (boolean) Whether the data files are to be defragmented as well (may block the database while 
+	 * 	running).
+	 * @throws SQLException
+	 */
+	public void checkpoint(boolean defrag) throws SQLException;
+	
+	/**
+	 * Writes a compressed backup of the database, without blocking it.
+	 * @param file (File) The backup file; it must not exist.
+	 * @throws SQLException
+	 */
+	public void backup(File file) throws SQLException;
+	
+	/**
+	 * Returns the file extension for backups (e.g. "tar.gz")
+	 * @return (String)
+	 */
+	public String getBackupFileExtension();
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,51 @@
+/* ****************************************************************************************************************** *
+ * DbMaintenanceHSQLDB.java                                                                                           *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql.da;
+
+import java.io.File;
+import java.sql.SQLException;
+
+import io.github.azz.sql.SqlTransaction;
+import io.github.azz.sql.rdbms.HSQLDBInterface;
+
+/**
+ * HSQLDB data access implementation for DbMaintenance class
+ * @author a-zz
+ */
+public class DbMaintenanceHSQLDB implements DbMaintenanceDaInterface, HSQLDBInterface {
+
+	public void checkpoint(boolean defrag) throws SQLException {
+		
+		SqlTransaction t = null;
+		try {
+			t = new SqlTransaction("hsqldb checkpoint", true);
+			t.statement("checkpoint" + (defrag?" defrag":""));
+		}
+		finally {
+			t.close();
+		}
+	}
+
+	public void backup(File file) throws SQLException {
+		
+		SqlTransaction t = null;
+		try {
+			// Only file databases can be backed up this way; the tar.gz is streamed by the engine itself
+			t = new SqlTransaction("hsqldb backup", true);
+			t.statement("backup database to '" + file.getAbsolutePath().replace("'", "''") + 
+					"' not blocking compressed");
+		}
+		finally {
+			t.close();
+		}
+	}
+
+	public String getBackupFileExtension() {
+		
+		return "tar.gz";
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -6,6 +6,7 @@
 package io.github.azz.sql.da;
 
 import java.sql.SQLException;
+import java.util.Map;
 
 import io.github.azz.sql.DaInterface;
 
@@ -28,6 +29,15 @@ public interface DbManagerDaInterface extends DaInterface {
 	 */
 	public boolean checkDbTimeSync() throws SQLException;
 	
+	/**
+	 * Applies the engine tuning settings found in the local configuration (transaction model, storage, caching, etc.;
+	 * 	keys and meaning are engine-specific). Run at boot, before the database is updated. 
+	 * @return (Map<String,String>) The settings in effect once applied, as reported by the engine, keyed by the 
+	 * 	engine's own setting names.
+	 * @throws SQLException If a setting is invalid or can't be applied.
+	 */
+	public Map<String,String> tuneEngine() throws SQLException;
+	
 	/**
 	 * Shuts down the database engine. This is only needed for embedded databases (e.g. HSQLDB); otherwise, does nothing
 	 * @param databaseEngine (EnumDatabaseEngines) The database engine to shut down.
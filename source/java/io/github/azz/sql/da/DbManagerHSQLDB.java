@@ -6,7 +6,10 @@
 package io.github.azz.sql.da;
 
 import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import io.github.azz.config.LocalConfiguration;
 import io.github.azz.sql.SqlTransaction;
@@ -24,6 +27,79 @@ public class DbManagerHSQLDB implements DbManagerDaInterface, HSQLDBInterface {
 		return true;
 	}
 
+	public Map<String,String> tuneEngine() throws SQLException {
+		
+		SqlTransaction t = null;
+		try {
+			t = new SqlTransaction("hsqldb engine tuning", true);
+			
+			// -- Transaction model: LOCKS (engine default), MVLOCKS or MVCC
+			String txControl = getSetting("db.hsqldb.txControl");
+			if(txControl!=null) {
+				if(!txControl.matches("(?i)locks|mvlocks|mvcc"))
+					throw new SQLException("Invalid HSQLDB transaction control: " + txControl);
+				t.statement("set database transaction control " + txControl);
+			}
+			
+			// -- Storage: type for tables created without an explicit one (CACHED or MEMORY), NIO access to the data file
+			String tableType = getSetting("db.hsqldb.defaultTableType");
+			if(tableType!=null) {
+				if(!tableType.matches("(?i)cached|memory"))
+					throw new SQLException("Invalid HSQLDB default table type: " + tableType);
+				t.statement("set database default table type " + tableType);
+			}
+			String nio = getSetting("db.hsqldb.nio");
+			if(nio!=null)
+				t.statement("set files nio " + (nio.equals("y")?"true":"false"));
+			applyNumericSetting(t, "db.hsqldb.nioMaxSize", "set files nio size %d");
+			
+			// -- Caching (cached tables) and logging
+			applyNumericSetting(t, "db.hsqldb.cacheRows", "set files cache rows %d");
+			applyNumericSetting(t, "db.hsqldb.cacheSize", "set files cache size %d");
+			applyNumericSetting(t, "db.hsqldb.logSize", "set files log size %d");
+			applyNumericSetting(t, "db.hsqldb.writeDelay", "set files write delay %d millis");
+			
+			// -- Effective settings
+			LinkedHashMap<String,String> settings = new LinkedHashMap<String,String>();
+			ResultSet rs = t.query("select PROPERTY_NAME, PROPERTY_VALUE from INFORMATION_SCHEMA.SYSTEM_PROPERTIES " +
+					"where PROPERTY_NAME in ('hsqldb.tx', 'hsqldb.tx_level', 'hsqldb.default_table_type', " +
+					"'hsqldb.nio_data_file', 'hsqldb.nio_max_size', 'hsqldb.cache_rows', 'hsqldb.cache_size', " +
+					"'hsqldb.log_size', 'hsqldb.write_delay', 'hsqldb.write_delay_millis') order by PROPERTY_NAME");
+			while(rs.next())
+				settings.put(rs.getString(1), rs.getString(2));
+			t.discardResultSet(rs);
+			return settings;
+		}
+		finally {
+			t.close();
+		}
+	}
+	
+	private void applyNumericSetting(SqlTransaction t, String key, String statement) throws SQLException {
+		
+		String value = getSetting(key);
+		if(value==null)
+			return;
+		try {
+			t.statement(String.format(statement, Long.parseLong(value)));
+		}
+		catch(NumberFormatException e) {
+			throw new SQLException("Invalid value for " + key + ": " + value);
+		}
+	}
+	
+	private String getSetting(String key) throws SQLException {
+		
+		// Unset or empty: the engine setting is left as it is
+		try {
+			String value = LocalConfiguration.getProperty(key, "").trim();
+			return value.isEmpty()?null:value;
+		}
+		catch(IOException e) {
+			throw new SQLException("Can't read " + key + " from local configuration: " + e.getMessage());
+		}
+	}
+
 	public void shutdownEngine() throws SQLException {
 		
 		SqlTransaction t = null;
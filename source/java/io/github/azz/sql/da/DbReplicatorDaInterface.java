@@ -0,0 +1,162 @@
+/* ****************************************************************************************************************** *
+ * DbReplicatorDaInterface.java                                                                                       *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql.da;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import io.github.azz.sql.DaInterface;
+import io.github.azz.sql.DbReplicator;
+import io.github.azz.sql.SqlTransaction;
+
+/**
+ * Data access interface for DbReplicator class. Methods taking a SqlTransaction work on the primary database; those 
+ * 	taking a Connection, on a replication target.
+ * @author a-zz
+ */
+public interface DbReplicatorDaInterface extends DaInterface {
+
+	/**
+	 * Starts capturing the changes to a table into the replication log (REPLOG table), e.g. by setting up triggers.
+	 * @param table (String) The table name. It must have a UUID primary key column.
+	 * @param columns (String[]) The columns whose updates are captured; empty for every column.
+	 * @param t (SqlTransaction) 
+	 * @throws SQLException
+	 */
+	public void enableCapture(String table, String[] columns, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Stops capturing the changes to a table.
+	 * @param table (String) The table name.
+	 * @param t (SqlTransaction) 
+	 * @throws SQLException
+	 */
+	public void disableCapture(String table, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Gets changes from the replication log, in log sequence number order.
+	 * @param afterSeq (long) Only changes after this log sequence number are got.
+	 * @param upToSeq (long) Only changes up to this log sequence number (included) are got.
+	 * @param maxChanges (int) Maximum number of changes got.
+	 * @param t (SqlTransaction) 
+	 * @return (List<DbReplicator.Change>)
+	 * @throws SQLException
+	 */
+	public List<DbReplicator.Change> getChanges(long afterSeq, long upToSeq, int maxChanges, SqlTransaction t) 
+			throws SQLException;
+	
+	/**
+	 * Reads the current image of table rows.
+	 * @param table (String) The table name.
+	 * @param uuids (List<String>) The UUIDs of the rows to be read.
+	 * @param t (SqlTransaction) 
+	 * @return (DbReplicator.RowBatch) The rows found (rows deleted in the meantime are missing).
+	 * @throws SQLException
+	 */
+	public DbReplicator.RowBatch readRows(String table, List<String> uuids, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Gets the replication watermark kept for a target, i.e. the log sequence number up to which every change was 
+	 * 	shipped to it (or given up on).
+	 * @param target (String) The target name.
+	 * @param t (SqlTransaction) 
+	 * @return (long) -1 if nothing was shipped yet.
+	 * @throws SQLException
+	 */
+	public long getWatermark(String target, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Saves the replication watermark kept for a target.
+	 * @param target (String) The target name.
+	 * @param seq (long) The log sequence number up to which every change was shipped to the target.
+	 * @param t (SqlTransaction) 
+	 * @throws SQLException
+	 */
+	public void saveWatermark(String target, long seq, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Deletes changes from the replication log.
+	 * @param upToSeq (long) Changes up to this log sequence number (included) are deleted.
+	 * @param t (SqlTransaction) 
+	 * @return (int) Number of changes deleted.
+	 * @throws SQLException
+	 */
+	public int purgeChanges(long upToSeq, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Gets the watermark applied at a target database for a source database, creating its tracking tables if needed.
+	 * @param target (Connection) The target database connection.
+	 * @param source (String) The source database identifier.
+	 * @return (long) -1 if nothing was applied yet.
+	 * @throws SQLException
+	 */
+	public long getAppliedWatermark(Connection target, String source) throws SQLException;
+	
+	/**
+	 * Saves the watermark applied at a target database for a source database. It's meant to be run within the 
+	 * 	target transaction applying the changes, so both are made durable at once.
+	 * @param target (Connection) The target database connection.
+	 * @param source (String) The source database identifier.
+	 * @param seq (long) The last log sequence number applied.
+	 * @throws SQLException
+	 */
+	public void saveAppliedWatermark(Connection target, String source, long seq) throws SQLException;
+	
+	/**
+	 * Gets the gaps in the log sequence left under the watermark applied at a target database for a source database 
+	 * 	(see getAppliedWatermark(), which creates their tracking table).
+	 * @param target (Connection) The target database connection.
+	 * @param source (String) The source database identifier.
+	 * @return (List<DbReplicator.Gap>) In log sequence number order.
+	 * @throws SQLException
+	 */
+	public List<DbReplicator.Gap> getAppliedGaps(Connection target, String source) throws SQLException;
+	
+	/**
+	 * Saves the gaps in the log sequence left under the watermark applied at a target database for a source database,
+	 * 	replacing those saved before. It's meant to be run within the target transaction applying the changes, as 
+	 * 	saveAppliedWatermark().
+	 * @param target (Connection) The target database connection.
+	 * @param source (String) The source database identifier.
+	 * @param gaps (Collection<DbReplicator.Gap>)
+	 * @throws SQLException
+	 */
+	public void saveAppliedGaps(Connection target, String source, Collection<DbReplicator.Gap> gaps) 
+			throws SQLException;
+	
+	/**
+	 * Finds which rows exist in a target database table.
+	 * @param target (Connection) The target database connection.
+	 * @param table (String) The table name.
+	 * @param uuids (List<String>) The UUIDs of the rows looked for.
+	 * @return (Set<String>) The UUIDs found.
+	 * @throws SQLException
+	 */
+	public Set<String> findRows(Connection target, String table, List<String> uuids) throws SQLException;
+	
+	/**
+	 * Inserts and updates rows in a target database table, as batches.
+	 * @param target (Connection) The target database connection.
+	 * @param rows (DbReplicator.RowBatch) The row images.
+	 * @param existing (Set<String>) The UUIDs of rows already existing in the target (to be updated; the rest are 
+	 * 	inserted).
+	 * @throws SQLException
+	 */
+	public void upsertRows(Connection target, DbReplicator.RowBatch rows, Set<String> existing) throws SQLException;
+	
+	/**
+	 * Deletes rows from a target database table, as a batch.
+	 * @param target (Connection) The target database connection.
+	 * @param table (String) The table name.
+	 * @param uuids (List<String>) The UUIDs of rows to be deleted.
+	 * @throws SQLException
+	 */
+	public void deleteRows(Connection target, String table, List<String> uuids) throws SQLException;
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,333 @@
+/* ****************************************************************************************************************** *
+ * DbReplicatorHSQLDB.java                                                                                            *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql.da;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.github.azz.sql.DbReplicator;
+import io.github.azz.sql.SqlIdentifiers;
+import io.github.azz.sql.SqlParameters;
+import io.github.azz.sql.SqlTransaction;
+import io.github.azz.sql.rdbms.HSQLDBInterface;
+
+/**
+ * HSQLDB data access implementation for DbReplicator class. Changes are captured by triggers.
+ * @author a-zz
+ */
+public class DbReplicatorHSQLDB implements DbReplicatorDaInterface, HSQLDBInterface {
+
+	private static final String[] triggerSuffixes = { "_REPLOG_I", "_REPLOG_U", "_REPLOG_D" };
+	
+	public void enableCapture(String table, String[] columns, SqlTransaction t) throws SQLException {
+		
+		SqlIdentifiers.checkPlain(table, "replication");
+		String updateOf = "";
+		for(String column : columns) {
+			SqlIdentifiers.checkPlain(column, "replication");
+			updateOf += (updateOf.isEmpty()?" of ":", ") + column;
+		}
+		t.statement("create trigger " + table + triggerSuffixes[0] + " after insert on " + table + " " +
+				"referencing new row as N for each row " +
+				"insert into REPLOG (TABLENAME, UUID, OPERATION) values ('" + table + "', N.UUID, 'I')");
+		t.statement("create trigger " + table + triggerSuffixes[1] + " after update" + updateOf + " on " + table + " " +
+				"referencing new row as N for each row " +
+				"insert into REPLOG (TABLENAME, UUID, OPERATION) values ('" + table + "', N.UUID, 'U')");
+		t.statement("create trigger " + table + triggerSuffixes[2] + " after delete on " + table + " " +
+				"referencing old row as O for each row " +
+				"insert into REPLOG (TABLENAME, UUID, OPERATION) values ('" + table + "', O.UUID, 'D')");
+	}
+	
+	public void disableCapture(String table, SqlTransaction t) throws SQLException {
+		
+		SqlIdentifiers.checkPlain(table, "replication");
+		for(String suffix : triggerSuffixes)
+			t.statement("drop trigger " + table + suffix + " if exists");
+	}
+	
+	public List<DbReplicator.Change> getChanges(long afterSeq, long upToSeq, int maxChanges, SqlTransaction t) 
+			throws SQLException {
+		
+		ResultSet rs = t.query("select SEQ, TABLENAME, UUID, OPERATION, CHANGED from REPLOG where SEQ>? and SEQ<=? " +
+				"order by SEQ limit ?", 
+				new SqlParameters(3).setLong(1, afterSeq).setLong(2, upToSeq).setInt(3, maxChanges));
+		ArrayList<DbReplicator.Change> changes = new ArrayList<DbReplicator.Change>();
+		while(rs.next())
+			changes.add(new DbReplicator.Change(rs.getLong(1), rs.getString(2), rs.getString(3), 
+					rs.getString(4).charAt(0), rs.getTimestamp(5)));
+		t.discardResultSet(rs);
+		return changes;
+	}
+	
+	public DbReplicator.RowBatch readRows(String table, List<String> uuids, SqlTransaction t) throws SQLException {
+		
+		SqlIdentifiers.checkPlain(table, "replication");
+		SqlParameters params = new SqlParameters(uuids.size());
+		for(int i=0; i<uuids.size(); i++)
+			params.setString(i+1, uuids.get(i));
+		ResultSet rs = t.query("select * from " + table + " where UUID in (" + markers(uuids.size()) + ")", params);
+		
+		ResultSetMetaData metaData = rs.getMetaData();
+		String[] columns = new String[metaData.getColumnCount()];
+		int[] sqlTypes = new int[columns.length];
+		for(int i=0; i<columns.length; i++) {
+			columns[i] = metaData.getColumnName(i+1);
+			sqlTypes[i] = metaData.getColumnType(i+1);
+		}
+		DbReplicator.RowBatch rows = new DbReplicator.RowBatch(table, columns, sqlTypes);
+		while(rs.next()) {
+			Object[] row = new Object[columns.length];
+			for(int i=0; i<columns.length; i++) {
+				// LOBs are read by value, as they're bound to the session they're read from
+				if(sqlTypes[i]==Types.CLOB)
+					row[i] = rs.getString(i+1);
+				else if(sqlTypes[i]==Types.BLOB)
+					row[i] = rs.getBytes(i+1);
+				else
+					row[i] = rs.getObject(i+1);
+			}
+			rows.getRows().add(row);
+		}
+		t.discardResultSet(rs);
+		return rows;
+	}
+	
+	public long getWatermark(String target, SqlTransaction t) throws SQLException {
+		
+		ResultSet rs = t.query("select SEQ from REPWATERMARK where TARGET=?", 
+				new SqlParameters(1).setString(1, target));
+		long seq = rs.next()?rs.getLong(1):-1;
+		t.discardResultSet(rs);
+		return seq;
+	}
+	
+	public void saveWatermark(String target, long seq, SqlTransaction t) throws SQLException {
+		
+		SqlParameters params = new SqlParameters(2).setLong(1, seq).setString(2, target);
+		if(t.preparedStatement("update REPWATERMARK set SEQ=?, UPDATED=localtimestamp where TARGET=?", params)==0)
+			t.preparedStatement("insert into REPWATERMARK (SEQ, TARGET) values (?, ?)", params);
+	}
+	
+	public int purgeChanges(long upToSeq, SqlTransaction t) throws SQLException {
+		
+		return t.preparedStatement("delete from REPLOG where SEQ<=?", new SqlParameters(1).setLong(1, upToSeq));
+	}
+	
+	public long getAppliedWatermark(Connection target, String source) throws SQLException {
+		
+		Statement st = target.createStatement();
+		try {
+			st.execute("create table if not exists REPAPPLIED " +
+					"(SOURCE varchar(200) primary key, " +
+					"SEQ bigint not null, " +
+					"APPLIED timestamp default localtimestamp not null)");
+			st.execute("create table if not exists REPGAPS " +
+					"(SOURCE varchar(200) not null, " +
+					"FROMSEQ bigint not null, " +
+					"TOSEQ bigint not null, " +
+					"SEEN bigint not null, " +
+					"primary key (SOURCE, FROMSEQ))");
+		}
+		finally {
+			st.close();
+		}
+		
+		PreparedStatement ps = target.prepareStatement("select SEQ from REPAPPLIED where SOURCE=?");
+		try {
+			ps.setString(1, source);
+			ResultSet rs = ps.executeQuery();
+			return rs.next()?rs.getLong(1):-1;
+		}
+		finally {
+			ps.close();
+		}
+	}
+	
+	public void saveAppliedWatermark(Connection target, String source, long seq) throws SQLException {
+		
+		PreparedStatement ps = target.prepareStatement("update REPAPPLIED set SEQ=?, APPLIED=localtimestamp " +
+				"where SOURCE=?");
+		try {
+			ps.setLong(1, seq);
+			ps.setString(2, source);
+			if(ps.executeUpdate()==1)
+				return;
+		}
+		finally {
+			ps.close();
+		}
+		ps = target.prepareStatement("insert into REPAPPLIED (SEQ, SOURCE) values (?, ?)");
+		try {
+			ps.setLong(1, seq);
+			ps.setString(2, source);
+			ps.executeUpdate();
+		}
+		finally {
+			ps.close();
+		}
+	}
+	
+	public List<DbReplicator.Gap> getAppliedGaps(Connection target, String source) throws SQLException {
+		
+		PreparedStatement ps = target.prepareStatement("select FROMSEQ, TOSEQ, SEEN from REPGAPS where SOURCE=? " +
+				"order by FROMSEQ");
+		try {
+			ps.setString(1, source);
+			ResultSet rs = ps.executeQuery();
+			ArrayList<DbReplicator.Gap> gaps = new ArrayList<DbReplicator.Gap>();
+			while(rs.next())
+				gaps.add(new DbReplicator.Gap(rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+			return gaps;
+		}
+		finally {
+			ps.close();
+		}
+	}
+	
+	public void saveAppliedGaps(Connection target, String source, Collection<DbReplicator.Gap> gaps) 
+			throws SQLException {
+		
+		PreparedStatement ps = target.prepareStatement("delete from REPGAPS where SOURCE=?");
+		try {
+			ps.setString(1, source);
+			ps.executeUpdate();
+		}
+		finally {
+			ps.close();
+		}
+		if(gaps.isEmpty())
+			return;
+		ps = target.prepareStatement("insert into REPGAPS (SOURCE, FROMSEQ, TOSEQ, SEEN) values (?, ?, ?, ?)");
+		try {
+			for(DbReplicator.Gap gap : gaps) {
+				ps.setString(1, source);
+				ps.setLong(2, gap.getFromSeq());
+				ps.setLong(3, gap.getToSeq());
+				ps.setLong(4, gap.getSeen());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		}
+		finally {
+			ps.close();
+		}
+	}
+	
+	public Set<String> findRows(Connection target, String table, List<String> uuids) throws SQLException {
+		
+		SqlIdentifiers.checkPlain(table, "replication");
+		HashSet<String> found = new HashSet<String>();
+		PreparedStatement ps = target.prepareStatement("select UUID from " + table + " where UUID in (" + 
+				markers(uuids.size()) + ")");
+		try {
+			for(int i=0; i<uuids.size(); i++)
+				ps.setString(i+1, uuids.get(i));
+			ResultSet rs = ps.executeQuery();
+			while(rs.next())
+				found.add(rs.getString(1));
+		}
+		finally {
+			ps.close();
+		}
+		return found;
+	}
+	
+	public void upsertRows(Connection target, DbReplicator.RowBatch rows, Set<String> existing) throws SQLException {
+		
+		SqlIdentifiers.checkPlain(rows.getTable(), "replication");
+		String[] columns = rows.getColumns();
+		int[] sqlTypes = rows.getSqlTypes();
+		int uuidColumn = rows.getColumnIndex("UUID");
+		String insertColumns = "";
+		String updateColumns = "";
+		for(int i=0; i<columns.length; i++) {
+			insertColumns += (i==0?"":", ") + columns[i];
+			if(i!=uuidColumn)
+				updateColumns += (updateColumns.isEmpty()?"":", ") + columns[i] + "=?";
+		}
+		
+		PreparedStatement update = target.prepareStatement("update " + rows.getTable() + " set " + updateColumns + 
+				" where UUID=?");
+		PreparedStatement insert = target.prepareStatement("insert into " + rows.getTable() + " (" + insertColumns +
+				") values (" + markers(columns.length) + ")");
+		try {
+			int updates = 0;
+			int inserts = 0;
+			for(Object[] row : rows.getRows()) {
+				if(existing.contains(row[uuidColumn].toString())) {
+					int p = 1;
+					for(int i=0; i<columns.length; i++)
+						if(i!=uuidColumn)
+							bind(update, p++, row[i], sqlTypes[i]);
+					bind(update, p, row[uuidColumn], sqlTypes[uuidColumn]);
+					update.addBatch();
+					updates++;
+				}
+				else {
+					for(int i=0; i<columns.length; i++)
+						bind(insert, i+1, row[i], sqlTypes[i]);
+					insert.addBatch();
+					inserts++;
+				}
+			}
+			if(updates>0)
+				update.executeBatch();
+			if(inserts>0)
+				insert.executeBatch();
+		}
+		finally {
+			update.close();
+			insert.close();
+		}
+	}
+	
+	public void deleteRows(Connection target, String table, List<String> uuids) throws SQLException {
+		
+		SqlIdentifiers.checkPlain(table, "replication");
+		PreparedStatement ps = target.prepareStatement("delete from " + table + " where UUID=?");
+		try {
+			for(String uuid : uuids) {
+				ps.setString(1, uuid);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		}
+		finally {
+			ps.close();
+		}
+	}
+	
+	private static void bind(PreparedStatement ps, int index, Object value, int sqlType) throws SQLException {
+		
+		if(value==null)
+			ps.setNull(index, sqlType);
+		else if(sqlType==Types.CLOB)
+			ps.setString(index, (String)value);
+		else if(sqlType==Types.BLOB)
+			ps.setBytes(index, (byte[])value);
+		else
+			ps.setObject(index, value);
+	}
+	
+	private static String markers(int n) {
+		
+		StringBuilder sb = new StringBuilder(n * 3);
+		for(int i=0; i<n; i++)
+			sb.append(i==0?"?":", ?");
+		return sb.toString();
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
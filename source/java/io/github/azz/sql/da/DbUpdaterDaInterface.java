@@ -6,8 +6,10 @@
 package io.github.azz.sql.da;
 
 import java.sql.SQLException;
+import java.util.Map;
 
 import io.github.azz.sql.DaInterface;
+import io.github.azz.sql.SqlTransaction;
 
 /**
  * Data access interface for DbUpdater class
@@ -30,7 +32,13 @@ public interface DbUpdaterDaInterface extends DaInterface {
 	 * 	updateToVersion26() and updateToVersion27() 
 	 * 	<br/><br/>
 	 * 	Database versions aren't always incremented with app code commits. Only those commits requiring data model 
-	 * 	alterations should (would, must) increment the database version.
+	 * 	alterations should (would, must) increment the database version. A version may also be brought about by a SQL 
+	 * 	script rather than (or besides) a function (see DbUpdater); versions with a script only need no function.
+	 * 	<br/><br/>
+	 * 	Functions are run within the transaction given, which is committed by DbUpdater along with the version record
+	 * 	in DBVERSION; they mustn't commit it themselves. For compatibility, functions with no transaction parameter, 
+	 * 	i.e. updateToVersion#(Boolean), are also supported: they're to run their own transactions and record the 
+	 * 	version themselves.
 	 * 	<br/><br/>
 	 * 	Function updateToVersion0() is special: it does the initial population of the database; among other things, it 
 	 * 	creates the DBVERSION table needed to keep track of the current version. 
@@ -38,12 +46,44 @@ public interface DbUpdaterDaInterface extends DaInterface {
 	 * 	update process is launched unattendedly (e.g. at application boot) o manually. An update function requiring
 	 * 	human intervention will refuse to run if unattended is set to true. Otherwise, it will change unattended to true
 	 *  after execution, thus forcing the update process to stop at the next function requiring intervention.
+	 * @param t (SqlTransaction) The transaction to run within.
+	 * @return (String) A description of the version, to be recorded in DBVERSION.
+	 */
+	public String updateToVersion0(Boolean unattended, SqlTransaction t) throws SQLException;
+	
+	/**
+	 * Version 1: replication log (change data capture for replicated tables) and replication watermarks.
+	 * @see io.github.azz.sql.DbReplicator
 	 */
-	public void updateToVersion0(Boolean unattended) throws SQLException;
+	public String updateToVersion1(Boolean unattended, SqlTransaction t) throws SQLException;
 	
-	//public void updateToVersion1(Boolean unattended) throws SQLException;
-	//public void updateToVersion2(Boolean unattended) throws SQLException;
-	//public void updateToVersion3(Boolean unattended) throws SQLException;
+	// Version 2: script only (migration tracking)
+	//public String updateToVersion3(Boolean unattended, SqlTransaction t) throws SQLException;
 	//(etc.)
+	
+	/**
+	 * Records a database version as applied, in the DBVERSION table.
+	 * @param version (int) The version.
+	 * @param description (String) Its description.
+	 * @param checksum (String) The checksum of its script; null if it has none. 
+	 * @param duration (long) The time taken to apply it, in millis.
+	 * @param t (SqlTransaction) The transaction to run within.
+	 * @throws SQLException
+	 */
+	public void saveVersionInfo(int version, String description, String checksum, long duration, SqlTransaction t) 
+			throws SQLException;
+	
+	/**
+	 * Gets the checksums recorded for the versions applied.
+	 * @return (Map<Integer,String>) Checksums keyed by version (null for versions with no script).
+	 * @throws SQLException
+	 */
+	public Map<Integer,String> getVersionChecksums() throws SQLException;
+	
+	/**
+	 * Checks whether the database engine runs DDL statements transactionally, i.e. they can be rolled back.
+	 * @return (boolean)
+	 */
+	public boolean isDdlTransactional();
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
@@ -8,7 +8,12 @@ package io.github.azz.sql.da;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLSyntaxErrorException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import io.github.azz.sql.DbReplicator;
+import io.github.azz.sql.SqlParameters;
 import io.github.azz.sql.SqlTransaction;
 import io.github.azz.sql.rdbms.HSQLDBInterface;
 
@@ -38,38 +43,88 @@ public class DbUpdaterHSQLDB implements DbUpdaterDaInterface, HSQLDBInterface {
 		}
 	}
 	
-	public void updateToVersion0(Boolean unattended) throws SQLException {
+	public String updateToVersion0(Boolean unattended, SqlTransaction t) throws SQLException {
 		
-		SqlTransaction t = null;
-
-		try {
-			t = new SqlTransaction("db update to version 0", true);
-			t.statement("create table DBVERSION " +
+		t.statements(Arrays.asList(
+				"create table DBVERSION " +
 					"(ID integer identity primary key, " +
 					"VERSION integer not null, " +
 					"INSTALLDATE timestamp default localtimestamp not null, " +
-					"DESCRIPTION varchar(100) not null)");
-			t.statement("create table PROPERTIES " +
+					"DESCRIPTION varchar(100) not null)",
+				"create table PROPERTIES " +
 					"(UUID varchar(40) primary key, " +
 					"KEY varchar(50) not null, " +
 					"VALUE clob not null, " +
 					"CREATED timestamp default localtimestamp not null, " +
 					"MODIFIED timestamp default localtimestamp not null, " +
-					"READ timestamp)");
-			saveVersionInfo(0, "Database (and version tracking) initialization", t);
-		}
-		catch(SQLException e) {
-			throw e;
+					"READ timestamp)"));
+		return "Database (and version tracking) initialization";
+	}
+	
+	public String updateToVersion1(Boolean unattended, SqlTransaction t) throws SQLException {
+		
+		t.statements(Arrays.asList(
+				"create table REPLOG " +
+					"(SEQ bigint generated by default as identity primary key, " +
+					"TABLENAME varchar(128) not null, " +
+					"UUID varchar(40) not null, " +
+					"OPERATION char(1) not null, " +
+					"CHANGED timestamp default localtimestamp not null)",
+				"create table REPWATERMARK " +
+					"(TARGET varchar(50) primary key, " +
+					"SEQ bigint not null, " +
+					"UPDATED timestamp default localtimestamp not null)"));
+		// Reads update PROPERTIES.READ, which isn't worth replicating on its own
+		DbReplicator.enableCapture("PROPERTIES", t, "KEY", "VALUE");
+		return "Replication log and watermarks";
+	}
+		
+	public void saveVersionInfo(int version, String description, String checksum, long duration, SqlTransaction t) 
+			throws SQLException {
+	
+		// Checksum and duration are tracked from version 2 on
+		if(hasColumn("DBVERSION", "DURATION", t))
+			t.preparedStatement("insert into DBVERSION (VERSION, DESCRIPTION, CHECKSUM, DURATION) values (?, ?, ?, ?)", 
+					new SqlParameters(4).setInt(1, version).setString(2, description).setString(3, checksum)
+					.setLong(4, duration));
+		else
+			t.preparedStatement("insert into DBVERSION (VERSION, DESCRIPTION) values (?, ?)", 
+					new SqlParameters(2).setInt(1, version).setString(2, description));
+	}
+	
+	public Map<Integer,String> getVersionChecksums() throws SQLException {
+		
+		SqlTransaction t = null;
+		
+		try {
+			t = new SqlTransaction("get db version checksums", true);
+			HashMap<Integer,String> checksums = new HashMap<Integer,String>();
+			if(hasColumn("DBVERSION", "CHECKSUM", t)) {
+				ResultSet rs = t.query("select VERSION, CHECKSUM from DBVERSION");
+				while(rs.next())
+					checksums.put(rs.getInt(1), rs.getString(2));
+			}
+			return checksums;
 		}
 		finally {
 			t.close();
 		}
 	}
+	
+	public boolean isDdlTransactional() {
 		
-	public void saveVersionInfo(int version, String description, SqlTransaction t) throws SQLException {
+		// DDL statements commit the current transaction
+		return false;
+	}
 	
-		t.statement("insert into DBVERSION (VERSION, DESCRIPTION) "
-				+ "values (" + version + ", '" + description + "')");
+	private boolean hasColumn(String table, String column, SqlTransaction t) throws SQLException {
+		
+		ResultSet rs = t.query("select count(*) from INFORMATION_SCHEMA.COLUMNS where TABLE_NAME=? and COLUMN_NAME=?", 
+				new SqlParameters(2).setString(1, table).setString(2, column));
+		rs.next();
+		boolean found = rs.getInt(1)>0;
+		t.discardResultSet(rs);
+		return found;
 	}
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
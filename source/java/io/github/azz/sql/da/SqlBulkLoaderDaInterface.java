@@ -0,0 +1,41 @@
+/* ****************************************************************************************************************** *
+ * SqlBulkLoaderDaInterface.java                                                                                      *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql.da;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+
+import io.github.azz.sql.DaInterface;
+import io.github.azz.sql.SqlTransaction;
+
+/**
+ * Data access interface for SqlBulkLoader class
+ * @author a-zz
+ */
+public interface SqlBulkLoaderDaInterface extends DaInterface {
+
+	/**
+	 * Loads a delimited text file into a table by attaching the file to the database engine (as a table on its own) 
+	 * 	and copying its rows with a single instruction, if the engine supports it. Values are cast to the target 
+	 * 	columns' types.
+	 * @param file (File) The file to be loaded.
+	 * @param charset (Charset) The file's character set.
+	 * @param delimiter (char) Field delimiter; 0 for none (the whole line is a single value).
+	 * @param quote (char) Quote character for fields holding delimiters or line breaks; 0 for none.
+	 * @param header (boolean) Whether the file's first line is a header, to be skipped.
+	 * @param table (String) The target table.
+	 * @param columns (String[]) The target columns, in the same order as fields in the file.
+	 * @param t (SqlTransaction) The transaction to load the rows within; it's not committed here, though engines 
+	 * 	committing on DDL instructions may do it along.
+	 * @return (long) Number of rows loaded; -1 if the engine can't attach the file with the options set (the file is 
+	 * 	to be loaded row by row instead).
+	 * @throws SQLException
+	 */
+	public long loadAttached(File file, Charset charset, char delimiter, char quote, boolean header, String table, 
+			String[] columns, SqlTransaction t) throws SQLException;
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
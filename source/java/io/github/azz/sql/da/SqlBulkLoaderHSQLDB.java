@@ -0,0 +1,106 @@
+/* ****************************************************************************************************************** *
+ * SqlBulkLoaderHSQLDB.java                                                                                           *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.sql.da;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.SqlIdentifiers;
+import io.github.azz.sql.SqlParameters;
+import io.github.azz.sql.SqlTransaction;
+import io.github.azz.sql.rdbms.HSQLDBInterface;
+
+/**
+ * HSQLDB data access implementation for SqlBulkLoader class. Files are attached as TEXT tables; unless the file lies 
+ * 	within the database directory, the engine must be allowed to read it by setting JVM system property 
+ * 	textdb.allow_full_path to true.
+ * @author a-zz
+ */
+public class SqlBulkLoaderHSQLDB implements SqlBulkLoaderDaInterface, HSQLDBInterface {
+
+	private static AppLogger logger = new AppLogger(SqlBulkLoaderHSQLDB.class);
+
+	public long loadAttached(File file, Charset charset, char delimiter, char quote, boolean header, String table, 
+			String[] columns, SqlTransaction t) throws SQLException {
+		
+		// The engine only understands double quotes for quoting, and needs a field separator (line-oriented files aren't 
+		//	supported)
+		if((quote!=0 && quote!='"') || delimiter==0)
+			return -1;
+		
+		// Target column types, for casting text values into
+		SqlIdentifiers.checkPlain(table, "bulk load");
+		String[] types = new String[columns.length];
+		for(int i=0; i<columns.length; i++) {
+			SqlIdentifiers.checkPlain(columns[i], "bulk load");
+			ResultSet rs = t.query("select DTD_IDENTIFIER from INFORMATION_SCHEMA.COLUMNS " +
+					"where TABLE_SCHEMA=CURRENT_SCHEMA and TABLE_NAME=? and COLUMN_NAME=?", 
+					new SqlParameters(2).setString(1, table.toUpperCase()).setString(2, columns[i].toUpperCase()));
+			if(!rs.next())
+				throw new SQLException("Column not found for bulk load: " + table + "." + columns[i]);
+			types[i] = rs.getString(1);
+			t.discardResultSet(rs);
+		}
+		
+		String textTable = "BULKLOAD_" + UUID.randomUUID().toString().replace("-", "").toUpperCase();
+		String textColumns = "";
+		String select = "";
+		for(int i=0; i<columns.length; i++) {
+			textColumns += (i==0?"":", ") + "C" + i + " longvarchar";
+			select += (i==0?"":", ") + "cast(nullif(C" + i + ", '') as " + types[i] + ")";
+		}
+		String source = file.getAbsolutePath() + 
+				";fs=" + escapeSeparator(delimiter) + 
+				";quoted=" + (quote!=0) + 
+				";ignore_first=" + header + 
+				";encoding=" + charset.name();
+		
+		// DDL commits on its own (so does dropping the text table, committing the copy along): the text table is dropped 
+		//	whatever happens
+		t.statement("create text table " + textTable + " (" + textColumns + ")");
+		try {
+			t.statement("set table " + textTable + " source '" + source.replace("'", "''") + "'");
+			return t.statement("insert into " + table + " (" + String.join(", ", columns) + ") " +
+					"select " + select + " from " + textTable);
+		}
+		finally {
+			// A failure here mustn't hide the copy's outcome
+			try {
+				t.statement("drop table " + textTable + " if exists");
+			}
+			catch(SQLException e) {
+				logger.warn("Text table " + textTable + " couldn't be dropped after bulk load, drop it by hand: " + 
+						e.getMessage());
+			}
+		}
+	}
+	
+	private static String escapeSeparator(char c) {
+		
+		// Characters with a meaning on their own within the source setting are escaped
+		switch(c) {
+		case ';':
+			return "\\semi";
+		case '"':
+			return "\\quote";
+		case '\'':
+			return "\\apos";
+		case ' ':
+			return "\\space";
+		case '\t':
+			return "\\t";
+		case '\\':
+			return "\\\\";
+		default:
+			return String.valueOf(c);
+		}
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
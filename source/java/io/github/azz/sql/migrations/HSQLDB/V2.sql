@@ -0,0 +1,6 @@
+-- Migration tracking (checksums and durations) and PROPERTIES lookup index
+alter table DBVERSION add column CHECKSUM varchar(64);
+alter table DBVERSION add column DURATION bigint;
+
+-- @deferred
+create index PROPERTIES_KEY on PROPERTIES (KEY);
@@ -7,10 +7,12 @@ package io.github.azz.sql.rdbms;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 import io.github.azz.logging.AppLogger;
 import io.github.azz.sql.DaInterface;
 import io.github.azz.sql.SqlTransaction;
+import io.github.azz.util.ClassIndex;
 import io.github.azz.util.Reflection;
 
 /**
@@ -35,35 +37,92 @@ public class RdbmsSupport {
 	 * 	<br/><br/>
 	 * MyClassHSQLDB <- MyClassDaInterface <- DaInterface: is ok as long as MyClassHSQLDB implements both 
 	 * 	MyClassDaInterface and HsqldbInterface.
+	 * 	<br/><br/>
+	 * Interfaces and implementations are got from the compile-time class index (see ClassIndex) or, failing that, by
+	 * 	scanning the classpath.
 	 * @param databaseEngine (enumDatabaseEngines) The engine to be checked
 	 * @param enforce (boolean) If set to false, incomplete implementation would only log a warning message; if true,
 	 *  would raise an...
 	 * @throws UnsupportedOperationException
+	 * @see getMissingImplementations()
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public static void checkImplementation(EnumDatabaseEngines databaseEngine, boolean enforce) 
 			throws UnsupportedOperationException, IOException, ClassNotFoundException {
 		
+		checkImplementation(databaseEngine, getMissingImplementations(databaseEngine), enforce);
+	}
+	
+	/**
+	 * Checks wether current database engine is fully supported by application code, as 
+	 * 	checkImplementation(EnumDatabaseEngines, boolean), from the result of a previous getMissingImplementations() 
+	 * 	call. This allows for looking up implementations before deciding whether to enforce them (e.g. at boot, while 
+	 * 	the database is still being initialized).
+	 * @param databaseEngine (enumDatabaseEngines) The engine checked
+	 * @param implMissing (List<String>) Interfaces with no implementation, as returned by getMissingImplementations().
+	 * @param enforce (boolean) If set to false, incomplete implementation would only log a warning message; if true,
+	 *  would raise an UnsupportedOperationException.
+	 * @throws UnsupportedOperationException
+	 */
+	public static void checkImplementation(EnumDatabaseEngines databaseEngine, List<String> implMissing, 
+			boolean enforce) throws UnsupportedOperationException {
+		
+		if(!implMissing.isEmpty()) {
+			String message = "Missing " + databaseEngine + " implementation for data access interfaces: " + 
+					String.join(" ", implMissing);
+			if(enforce)
+				throw new UnsupportedOperationException(message);
+			else
+				logger.warn(message);
+		}
+		else
+			logger.debug("Checked database engine support for " + databaseEngine + ": fully supported!");
+	}
+	
+	/**
+	 * Looks up the data access interfaces not implemented for a database engine (see checkImplementation()).
+	 * @param databaseEngine (enumDatabaseEngines) The engine to be checked
+	 * @return (List<String>) Names of the interfaces with no implementation; empty if the engine is fully supported.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static List<String> getMissingImplementations(EnumDatabaseEngines databaseEngine) 
+			throws IOException, ClassNotFoundException {
+		
 		// 1. Get interface for running engine
 		Class engineInterface = getEngineInterface(databaseEngine);
 		
 		// 2. Find classes extending DaInterface
-		String packageName = RdbmsSupport.class.getPackage().getName();
-		String basePackage = packageName.substring(0, packageName.lastIndexOf("."));
-		basePackage = basePackage.substring(0, basePackage.lastIndexOf("."));		
-		ArrayList<String> daInterfacesList = new ArrayList<String>();
-		Reflection.scanPackage(basePackage, true, daInterfacesList, DaInterface.class.getName(), null);
+		String implIndexName = DaInterface.class.getName() + "@" + databaseEngine;
+		boolean indexed = ClassIndex.get(DaInterface.class.getName())!=null && ClassIndex.get(implIndexName)!=null;
+		List<String> daInterfacesList;
+		if(indexed)
+			daInterfacesList = ClassIndex.get(DaInterface.class.getName());
+		else {
+			String packageName = RdbmsSupport.class.getPackage().getName();
+			String basePackage = packageName.substring(0, packageName.lastIndexOf("."));
+			basePackage = basePackage.substring(0, basePackage.lastIndexOf("."));		
+			ArrayList<String> daInterfacesFound = new ArrayList<String>();
+			Reflection.scanPackage(basePackage, true, daInterfacesFound, DaInterface.class.getName(), null);
+			daInterfacesList = daInterfacesFound;
+		}
 		
 		// 3. Check whether every interface found before has an implementing class also implementing the selected engine 
 		//	interface. Implementations are to be found in the same package.
-		String implMissing = "";
+		ArrayList<String> implMissing = new ArrayList<String>();
 		for(String className : daInterfacesList) {
 			Class classFound = Class.forName(className);
 			if(classFound.isInterface()) {
-				ArrayList<String> implClassesInPackage = new ArrayList<String>();
 				String classFoundPackageName = classFound.getPackage().getName();
-				Reflection.scanPackage(classFoundPackageName, false, implClassesInPackage, 
-						engineInterface.getName(), null);
+				List<String> implClassesInPackage;
+				if(indexed)
+					implClassesInPackage = ClassIndex.get(implIndexName, classFoundPackageName);
+				else {
+					ArrayList<String> implClassesFound = new ArrayList<String>();
+					Reflection.scanPackage(classFoundPackageName, false, implClassesFound, engineInterface.getName(), 
+							null);
+					implClassesInPackage = implClassesFound;
+				}
 				boolean missing = true;
 				for(String implClass : implClassesInPackage) {
 					if(classFound.isAssignableFrom(Class.forName(implClass))) {
@@ -72,20 +131,11 @@ public class RdbmsSupport {
 					}
 				}
 				if(missing)
-					implMissing += className + " ";
+					implMissing.add(className);
 			}
 		}
 		
-		// 4. All done
-		if(!implMissing.equals("")) {
-			String message = "Missing " + databaseEngine + " implementation for data access interfaces: " + implMissing;
-			if(enforce)
-				throw new UnsupportedOperationException(message);
-			else
-				logger.warn(message);
-		}
-		else
-			logger.debug("Checked database engine support for " + databaseEngine + ": fully supported!");
+		return implMissing;
 	}
 	
 	/**
@@ -0,0 +1,114 @@
+/* ****************************************************************************************************************** *
+ * ClassIndex.java                                                                                                    *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.azz.logging.AppLogger;
+
+/**
+ * Reader for the class indexes written at compile time by the io.github.azz.apt.ClassIndexProcessor annotation 
+ * 	processor (see source/apt). Indexes list classes by role (e.g. data access implementations for an engine, 
+ * 	scheduled tasks), so they can be found at boot with no classpath scanning and no class loading.
+ * 	<br/><br/>
+ * Indexes are read once, from every classpath root holding them, and kept in memory. If an index isn't found (e.g. 
+ * 	the application was compiled without the annotation processor), consumers should fall back to scanning the 
+ * 	classpath with Reflection.scanPackage().
+ * @author a-zz
+ */
+public class ClassIndex {
+
+	// -- Must be kept in sync with io.github.azz.apt.ClassIndexProcessor
+	private static final String INDEX_PATH = "META-INF/skel-app/";
+	
+	private static final List<String> NOT_FOUND = Collections.unmodifiableList(new ArrayList<String>());
+	
+	private static AppLogger logger = new AppLogger(ClassIndex.class);
+	private static ConcurrentHashMap<String,List<String>> indexes = new ConcurrentHashMap<String,List<String>>();
+	
+	/**
+	 * Gets the classes listed in an index.
+	 * @param indexName (String) The index name (e.g. "io.github.azz.util.Schedulable").
+	 * @return (List<String>) An unmodifiable, sorted list of class names; null if the index wasn't found.
+	 */
+	public static List<String> get(String indexName) {
+		
+		List<String> index = indexes.get(indexName);
+		if(index==null) {
+			index = read(indexName);
+			indexes.putIfAbsent(indexName, index);
+		}
+		return index==NOT_FOUND?null:index;
+	}
+	
+	/**
+	 * Gets the classes listed in an index which are found in a certain package (not in its subpackages).
+	 * @param indexName (String) The index name.
+	 * @param packageName (String) The package name.
+	 * @return (List<String>) A sorted list of class names; null if the index wasn't found.
+	 */
+	public static List<String> get(String indexName, String packageName) {
+		
+		List<String> index = get(indexName);
+		if(index==null)
+			return null;
+		
+		ArrayList<String> classesInPackage = new ArrayList<String>();
+		for(String className : index)
+			if(className.startsWith(packageName + ".") && 
+					className.indexOf('.', packageName.length() + 1)<0)
+				classesInPackage.add(className);
+		return classesInPackage;
+	}
+	
+	private static List<String> read(String indexName) {
+		
+		TreeSet<String> classNames = new TreeSet<String>();
+		boolean found = false;
+		try {
+			ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+			Enumeration<URL> resources = classLoader.getResources(INDEX_PATH + indexName);
+			while(resources.hasMoreElements()) {
+				found = true;
+				BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(),
+						StandardCharsets.UTF_8));
+				try {
+					String line;
+					while((line = reader.readLine())!=null) {
+						line = line.trim();
+						if(!line.isEmpty() && !line.startsWith("#"))
+							classNames.add(line);
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+		}
+		catch(IOException e) {
+			logger.warn("Class index " + indexName + " couldn't be read: " + e.getMessage());
+			return NOT_FOUND;
+		}
+		
+		if(!found) {
+			logger.debug("Class index " + indexName + " not found; classpath scanning will be used instead");
+			return NOT_FOUND;
+		}
+		logger.trace("Class index " + indexName + " read: " + classNames.size() + " classes");
+		return Collections.unmodifiableList(new ArrayList<String>(classNames));
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -6,8 +6,18 @@
 package io.github.azz.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * Java reflection utilities
@@ -15,6 +25,9 @@ import java.util.ArrayList;
  */
 public class Reflection {
 
+	// -- Classpath index: class names found per package (and subpackages, for keys ending with ".**")
+	private static ConcurrentHashMap<String,List<String>> classIndex = new ConcurrentHashMap<String,List<String>>();
+
 	/**
 	 * Builds a list of classes found under a package.
 	 * @param packageName (String) The package name
@@ -32,57 +45,61 @@ public class Reflection {
 				
 		Class superClassFilter = superClassNameFilter!=null?Class.forName(superClassNameFilter):null;
 		Class annotationClassFilter = annotationClassNameFilter!=null?Class.forName(annotationClassNameFilter):null;
-		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();				
-		
-		// Loading package as a directory
-		URL packageUrl = classLoader.getResource(packageName.replace(".", "/"));
-		if(packageUrl==null)
-			throw new ClassNotFoundException("Package " + packageName + " doesn't exists"); 
-		File packageDir = new File(packageUrl.getFile());
-		File[] packageContents = packageDir.listFiles();
 		
 		// Checking package contents
-		for(File item : packageContents) {
-			if(item.isDirectory() && recurseSubPackages) {
-				// Recursing into subpackage
-				String subPackageName = packageName + "." + item.getName();
-				scanPackage(subPackageName, recurseSubPackages, foundClassesList, 
-						superClassNameFilter, annotationClassNameFilter);
+		for(String className : listClasses(packageName, recurseSubPackages)) {
+			Class classFound = null;
+			try {
+				classFound = Class.forName(className);
 			}
-			else if(item.getName().endsWith(".class")) {
-				// Potential class found
-				String className = packageName + "." + 
-						item.getName().substring(0, item.getName().lastIndexOf("."));
-				Class classFound = null;
-				try {
-					classFound = Class.forName(className);
-				}
-				catch(ClassNotFoundException e) {
-					// Not really a class, resuming operation
+			catch(ClassNotFoundException | LinkageError e) {
+				// Not really a usable class, resuming operation
+				continue;
+			}
+			
+			// Checking super class filter, if applicable
+			if(superClassNameFilter!=null) {
+				if(className.equals(superClassNameFilter))
 					continue;
-				}
-				
-				// Checking super class filter, if applicable
-				if(superClassNameFilter!=null) {
-					if(className.equals(superClassNameFilter))
+				else {															
+					if(!superClassFilter.isAssignableFrom(classFound))
 						continue;
-					else {															
-						if(!superClassFilter.isAssignableFrom(classFound))
-							continue;
-					}
 				}
-				
-				// Checking annotation filter, if applicable
-				if(annotationClassFilter!=null) {
-					if(classFound.getAnnotation(annotationClassFilter)==null)
-						continue;
-				}
-
-				foundClassesList.add(className);
 			}
+			
+			// Checking annotation filter, if applicable
+			if(annotationClassFilter!=null) {
+				if(classFound.getAnnotation(annotationClassFilter)==null)
+					continue;
+			}
+
+			foundClassesList.add(className);
 		}
 	}
 	
+	/**
+	 * Lists the names of classes found under a package, whether in a classpath directory or a jar file (or both). 
+	 * 	Classes aren't loaded. The classpath is actually read only once per package: results are kept in an index 
+	 * 	for later calls.
+	 * @param packageName (String) The package name
+	 * @param recurseSubPackages (boolean) Sets if subpackages should also be listed.
+	 * @return (List<String>) An unmodifiable, sorted list of class names (inner classes included).
+	 * @throws ClassNotFoundException If the package doesn't exist or can't be read.
+	 */
+	public static List<String> listClasses(String packageName, boolean recurseSubPackages) 
+			throws ClassNotFoundException {
+		
+		String key = packageName + (recurseSubPackages?".**":".*");
+		List<String> classes = classIndex.get(key);
+		if(classes==null) {
+			ArrayList<String> sortedClasses = new ArrayList<String>(indexPackage(packageName, recurseSubPackages));
+			Collections.sort(sortedClasses);
+			classes = Collections.unmodifiableList(sortedClasses);
+			classIndex.putIfAbsent(key, classes);
+		}
+		return classes;
+	}
+	
 	/**
 	 * Checks whether a package exists
 	 * @param packageName (String) The package name
@@ -94,5 +111,61 @@ public class Reflection {
 		URL packageUrl = classLoader.getResource(packageName.replace(".", "/"));
 		return packageUrl!=null;
 	}
+	
+	private static LinkedHashSet<String> indexPackage(String packageName, boolean recurseSubPackages) 
+			throws ClassNotFoundException {
+		
+		String path = packageName.replace('.', '/');
+		LinkedHashSet<String> classes = new LinkedHashSet<String>();
+		try {
+			ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+			Enumeration<URL> packageUrls = classLoader.getResources(path);
+			if(!packageUrls.hasMoreElements())
+				throw new ClassNotFoundException("Package " + packageName + " doesn't exists");
+			while(packageUrls.hasMoreElements()) {
+				URL packageUrl = packageUrls.nextElement();
+				if(packageUrl.getProtocol().equals("file"))
+					indexDirectory(new File(packageUrl.toURI()), packageName, recurseSubPackages, classes);
+				else if(packageUrl.getProtocol().equals("jar")) {
+					// The jar file is cached (and shared) by the URL connection, so it's not to be closed here
+					JarFile jar = ((JarURLConnection)packageUrl.openConnection()).getJarFile();
+					indexJar(jar, path, recurseSubPackages, classes);
+				}
+			}
+		}
+		catch(IOException | URISyntaxException e) {
+			throw new ClassNotFoundException("Package " + packageName + " couldn't be read: " + e.getMessage());
+		}
+		return classes;
+	}
+	
+	private static void indexDirectory(File packageDir, String packageName, boolean recurseSubPackages, 
+			LinkedHashSet<String> classes) {
+		
+		File[] packageContents = packageDir.listFiles();
+		if(packageContents==null)
+			return;
+		
+		for(File item : packageContents) {
+			if(item.isDirectory() && recurseSubPackages)
+				indexDirectory(item, packageName + "." + item.getName(), recurseSubPackages, classes);
+			else if(item.getName().endsWith(".class"))
+				classes.add(packageName + "." + item.getName().substring(0, item.getName().lastIndexOf(".")));
+		}
+	}
+	
+	private static void indexJar(JarFile jar, String path, boolean recurseSubPackages, LinkedHashSet<String> classes) {
+		
+		String prefix = path + "/";
+		Enumeration<JarEntry> entries = jar.entries();
+		while(entries.hasMoreElements()) {
+			String entryName = entries.nextElement().getName();
+			if(!entryName.startsWith(prefix) || !entryName.endsWith(".class"))
+				continue;
+			if(!recurseSubPackages && entryName.indexOf('/', prefix.length())>=0)
+				continue;
+			classes.add(entryName.substring(0, entryName.length() - 6).replace('/', '.'));
+		}
+	}
 }
 /* ****************************************************************************************************************** */
\ No newline at end of file
@@ -8,6 +8,7 @@ package io.github.azz.util;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Timer;
 
 import io.github.azz.logging.AppLogger;
@@ -22,9 +23,39 @@ public class Scheduler {
 	private static final String scheduledTaskPackageName = "io.github.azz.util.scheduled";
 	private static Timer timer;	
 	private static ArrayList<Schedulable> scheduledTaskList;
+	private static volatile List<Class<? extends Schedulable>> taskClasses;
 	
 	/**
-	 * Initializes the task scheduler
+	 * Looks for scheduled task classes and loads them, getting them ready for initialize(). As the database isn't 
+	 * 	needed, this can be run at boot alongside other initialization steps; otherwise, it's run by initialize().
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	public static void discover() throws ClassNotFoundException {
+		
+		// Looks for schedulable tasks: from the compile-time class index or, failing that, by scanning the package
+		List<String> foundTaskClassesByName = ClassIndex.get(Schedulable.class.getName(), scheduledTaskPackageName);
+		if(foundTaskClassesByName==null) {
+			if(!Reflection.packageExists(scheduledTaskPackageName)) {
+				logger.debug("No scheduled tasks found (" + scheduledTaskPackageName + " package not found)");
+				taskClasses = new ArrayList<Class<? extends Schedulable>>();
+				return;
+			}
+			ArrayList<String> taskClassesFound = new ArrayList<String>();
+			Reflection.scanPackage(scheduledTaskPackageName, false, taskClassesFound, Schedulable.class.getName(), null);
+			foundTaskClassesByName = taskClassesFound;
+		}
+		
+		ArrayList<Class<? extends Schedulable>> classes = new ArrayList<Class<? extends Schedulable>>();
+		for(String taskClassName : foundTaskClassesByName)
+			classes.add((Class<? extends Schedulable>)Class.forName(taskClassName));
+		taskClasses = classes;
+		logger.debug("Scheduled tasks found: " + classes.size());
+	}
+	
+	/**
+	 * Initializes the task scheduler: task classes found by discover() (which is run first if it wasn't yet) are 
+	 * 	instantiated and scheduled as per their setup.
 	 * @throws ClassNotFoundException
 	 * @throws IllegalAccessException
 	 * @throws InstantiationException
@@ -33,22 +64,18 @@ public class Scheduler {
 	public static void initialize() 
 			throws ClassNotFoundException, IllegalAccessException, InstantiationException, SQLException {
 		 
-		if(!Reflection.packageExists(scheduledTaskPackageName)) {
-			logger.debug("Task scheduler not initialized! (" + scheduledTaskPackageName + " package not found)");
+		if(taskClasses==null)
+			discover();
+		if(taskClasses.isEmpty()) {
+			logger.debug("Task scheduler not initialized! (no tasks)");
 			return;
 		}
 		
 		timer = new Timer();
 		scheduledTaskList = new ArrayList<Schedulable>();
-		
-		// Looks for schedulable tasks
-		ArrayList<String> foundTaskClassesByName = new ArrayList<String>();
-		Reflection.scanPackage(scheduledTaskPackageName, false, foundTaskClassesByName, 
-				Schedulable.class.getName(), null);
-		for(String taskClassName : foundTaskClassesByName) {
+		for(Class<? extends Schedulable> taskClass : taskClasses) {
 			// Instantiate task and add to timer
-			@SuppressWarnings("unchecked")
-			Class<? extends Schedulable> taskClass = (Class<? extends Schedulable>)Class.forName(taskClassName);
+			String taskClassName = taskClass.getName();
 			Schedulable task = taskClass.newInstance();
 			task.getSetup();
 			if(task.enabled) {
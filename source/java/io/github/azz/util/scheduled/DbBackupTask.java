@@ -0,0 +1,35 @@
+/* ****************************************************************************************************************** *
+ * DbBackupTask.java                                                                                                  *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.util.scheduled;
+
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.DbMaintenance;
+import io.github.azz.util.Schedulable;
+
+/**
+ * Scheduled task writing online database backups (see DbMaintenance). Nothing is done at scheduler shutdown.
+ * @author a-zz
+ */
+public class DbBackupTask extends Schedulable {
+
+	private static AppLogger logger = new AppLogger(DbBackupTask.class);
+	
+	public void run() {
+		
+		try {
+			DbMaintenance.backup();
+		}
+		catch(Exception e) {
+			logger.error("Database backup failed: " + e.getMessage());
+		}
+	}
+
+	public void lastRun() {
+		
+		// Nothing to do
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
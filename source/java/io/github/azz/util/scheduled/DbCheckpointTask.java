@@ -0,0 +1,36 @@
+/* ****************************************************************************************************************** *
+ * DbCheckpointTask.java                                                                                              *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.util.scheduled;
+
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.DbMaintenance;
+import io.github.azz.util.Schedulable;
+
+/**
+ * Scheduled task running online database checkpoints (see DbMaintenance), so the engine's log doesn't grow until 
+ * 	restart. Nothing is done at scheduler shutdown, as the database is checkpointed on shutdown anyway.
+ * @author a-zz
+ */
+public class DbCheckpointTask extends Schedulable {
+
+	private static AppLogger logger = new AppLogger(DbCheckpointTask.class);
+	
+	public void run() {
+		
+		try {
+			DbMaintenance.checkpoint();
+		}
+		catch(Exception e) {
+			logger.error("Database checkpoint failed: " + e.getMessage());
+		}
+	}
+
+	public void lastRun() {
+		
+		// Nothing to do
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file
@@ -0,0 +1,38 @@
+/* ****************************************************************************************************************** *
+ * DbReplicationTask.java                                                                                             *
+ * github.com/a-zz, 2018                                                                                              *
+ * ****************************************************************************************************************** */
+
+package io.github.azz.util.scheduled;
+
+import io.github.azz.logging.AppLogger;
+import io.github.azz.sql.DbReplicator;
+import io.github.azz.util.Schedulable;
+
+/**
+ * Scheduled task shipping pending changes to replication targets (see DbReplicator). The last run, at scheduler
+ * 	shutdown, ships whatever is left pending.
+ * @author a-zz
+ */
+public class DbReplicationTask extends Schedulable {
+
+	private static AppLogger logger = new AppLogger(DbReplicationTask.class);
+	
+	public void run() {
+		
+		try {
+			long shipped = DbReplicator.replicate();
+			if(shipped>0)
+				logger.debug("Replication: " + shipped + " changes shipped; targets: " + DbReplicator.getTargets());
+		}
+		catch(Exception e) {
+			logger.error("Replication failed: " + e.getMessage());
+		}
+	}
+
+	public void lastRun() {
+		
+		run();
+	}
+}
+/* ****************************************************************************************************************** */
\ No newline at end of file